@@ -4,14 +4,15 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 import org.jdom.Document;
 import org.jdom.Element;
@@ -29,7 +30,7 @@ import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
 import cytargetlinker.conversion.utils.ArgsParser.AHelp;
-import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
+import cytargetlinker.conversion.utils.ArgsParser.StreamingGraphBuilder;
 
 /**
  * Converts drug target xml file from DrugBank to a XGMML network.
@@ -59,7 +60,7 @@ public class DrugBank {
 		converter.startConversion();
 	}
 
-	private IDMapperStack idMapper;
+	private IDMapper idMapper;
 	private Graph graph;
 	private Map<String, List<String>> edges;
 	private List<String> foundConnections;
@@ -86,7 +87,7 @@ public class DrugBank {
 			Utils.setUpLogger(log, getLogFile(), false);
 			
 			if(pargs.isBridgeDbFiles()) {
-				idMapper = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+				idMapper = Utils.initIDMapper(pargs);
 				if(idMapper != null) {
 					mapping = true;
 					log.info("identifier mapping on");
@@ -95,12 +96,16 @@ public class DrugBank {
 			
 			log.info("conversion of drugbank started ...\n");
 			
-			ArgsParser.convertAndWrite(pargs, pargs, new GraphBuilder() {
+			ArgsParser.convertAndWrite(pargs, pargs, new StreamingGraphBuilder() {
 				public Graph buildGraph(File in) throws Exception {
-					return convert(in);
+					return convert(in, null);
+				}
+				public Graph buildGraph(File in, Graph.Listener listener) throws Exception {
+					return convert(in, listener);
 				}
 			});
 				
+			Utils.closeIDMapper(log, idMapper);
 			log.info("Drugbank network file created.\n\n");
 			
 		} else {
@@ -111,8 +116,9 @@ public class DrugBank {
 	
 	
 	@SuppressWarnings("unchecked")
-	private Graph convert(File in) throws JDOMException, IOException {
+	private Graph convert(File in, Graph.Listener listener) throws JDOMException, IOException {
 		graph = new Graph();
+		graph.setListener(listener);
 		
 		SAXBuilder builder = new SAXBuilder();
 		try { 
@@ -178,6 +184,7 @@ public class DrugBank {
 		}
 		
 		setNetworkAttributes(in);
+		if(mapping) prefetchMappings();
 		
 		for(String dbId : drugs.keySet()) {
 			createDrugNode(drugs.get(dbId));
@@ -191,6 +198,24 @@ public class DrugBank {
 		return graph;
 	}
 
+	/**
+	 * maps the UniProt ids of all targets in batches before the nodes are created
+	 */
+	private void prefetchMappings() {
+		Set<Xref> ids = new HashSet<Xref>();
+		for(Drug drug : drugs.values()) {
+			for(Target target : drug.getTargets().keySet()) {
+				String id = target.getRefs().get("UniProtKB");
+				if(id != null) {
+					Xref ref = new Xref(id, DataSource.getBySystemCode("S"));
+					ids.add(ref);
+					Utils.countOccurrences(idMapper, ref, 1);
+				}
+			}
+		}
+		Utils.prefetch(idMapper, ids, DataSource.getBySystemCode("En"), DataSource.getBySystemCode("L"));
+	}
+
 	private void createDrugNode(Drug drug) {
 		if(graph.getNode(drug.getDbId()) == null) {
 			String identifiers = "[" + drug.getDbId();
@@ -211,7 +236,7 @@ public class DrugBank {
 			for(String str : drug.getRefs().keySet()) {
 				node.appendAttribute(str, drug.getRefs().get(str));
 			}
-			
+			graph.finish(node);
 			countDrugs++;
 		}
 	}
@@ -228,12 +253,13 @@ public class DrugBank {
 			if(mapping) {
 				Xref xrefIn = new Xref(id, DataSource.getBySystemCode("S"));
 				try {
-					Set<Xref> e = idMapper.mapID(xrefIn, DataSource.getBySystemCode("En"));
+					Map<DataSource, Set<Xref>> mapped = Utils.mapByDataSource(idMapper, xrefIn, DataSource.getBySystemCode("En"), DataSource.getBySystemCode("L"));
+					Set<Xref> e = mapped.get(DataSource.getBySystemCode("En"));
 					if(!e.isEmpty()) {
 						ensembl = e.iterator().next().getId();
 						identifiers = identifiers + "," + ensembl;
 					}
-					Set<Xref> result = idMapper.mapID(xrefIn, DataSource.getBySystemCode("L"));
+					Set<Xref> result = mapped.get(DataSource.getBySystemCode("L"));
 					if(!result.isEmpty()) {
 						entrez = result.iterator().next().getId();
 						identifiers = identifiers + "," + entrez;
@@ -257,7 +283,7 @@ public class DrugBank {
 			for(String str : target.getRefs().keySet()) {
 				node.appendAttribute(str, target.getRefs().get(str));
 			}
-			
+			graph.finish(node);
 			countTargets++;
 		}
 		return id;
@@ -281,6 +307,7 @@ public class DrugBank {
 				Edge e = graph.addEdge("" + countEdge, graph.getNode(dbId),graph.getNode(id));
 				e.setAttribute("datasource", "DrugBank");
 				e.setAttribute("interactionType", "drug-target");
+				graph.finish(e);
 				
 				edges.get(dbId).add(id);
 				foundConnections.add(dbId + "\t" + id);
@@ -290,6 +317,7 @@ public class DrugBank {
 			Edge e = graph.addEdge("" + countEdge, graph.getNode(dbId),graph.getNode(id));
 			e.setAttribute("datasource", "DrugBank");
 			e.setAttribute("interactionType", "drug-target");
+			graph.finish(e);
 			
 			List<String> list = new ArrayList<String>();
 			list.add(id);
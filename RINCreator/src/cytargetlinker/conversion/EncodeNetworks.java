@@ -12,8 +12,8 @@ import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 
 import cytargetlinker.conversion.graph.Graph;
@@ -68,7 +68,7 @@ public class EncodeNetworks {
 		}
 	}
 	
-	private IDMapperStack idMapper;
+	private IDMapper idMapper;
 	private Graph graph;
 	private Map<String, List<String>> edges;
 	
@@ -102,7 +102,7 @@ public class EncodeNetworks {
 				Utils.setUpLogger(log, getLogFile(), false);
 
 				if(pargs.isBridgeDbFiles()) {
-					idMapper = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+					idMapper = Utils.initIDMapper(pargs);
 					if(idMapper != null) {
 						mapping = true;
 						log.info("identifier mapping on");
@@ -117,6 +117,7 @@ public class EncodeNetworks {
 					}
 				});
 					
+				Utils.closeIDMapper(log, idMapper);
 				log.info("Encode networks file created.\n\n");
 			} else {
 				log.severe("Please specify annotation file (GENCODE).");
@@ -233,6 +234,7 @@ public class EncodeNetworks {
 	}
 
 	private void createNode(String id, String name, String type) {
+		if(mapping) Utils.countOccurrences(idMapper, new Xref(id, DataSource.getBySystemCode("En")), 1);
 		
 		if(graph.getNode(id) == null) {
 			String entrez = "";
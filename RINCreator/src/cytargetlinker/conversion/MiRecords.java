@@ -6,28 +6,34 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 
+import cytargetlinker.conversion.graph.Escaper;
 import cytargetlinker.conversion.graph.Graph;
 import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.graph.Graph.Node;
 import cytargetlinker.conversion.utils.ArgsParser;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.MappingPrefetcher;
+import cytargetlinker.conversion.utils.RowSource;
+import cytargetlinker.conversion.utils.RowSource.RowHandler;
+import cytargetlinker.conversion.utils.TsvTokenizer;
 import cytargetlinker.conversion.utils.SpeciesCodes;
 import cytargetlinker.conversion.utils.Utils;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
 import cytargetlinker.conversion.utils.ArgsParser.AHelp;
-import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
+import cytargetlinker.conversion.utils.ArgsParser.StreamingGraphBuilder;
 
 /**
  * Converts miRNA target text files from MiRecords to a XGMML or GML network.
@@ -64,7 +70,7 @@ public class MiRecords {
 		converter.startConversion(pargs);
 	}
 
-	private IDMapperStack gdb;
+	private IDMapper gdb;
 	private Graph graph;
 	private Map<String, Integer> index;
 	private Map<String, List<String>> edges;
@@ -88,19 +94,23 @@ public class MiRecords {
 				dbVersion = pargs.getDatabaseVersion();
 			}
 			Utils.setUpLogger(log, getLogFile(), true);
-			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs);
 			if(gdb == null) {
 				mapping = false;
 				log.info("no identifier mapping");
 			}
 			if (pargs.getOrganism() != null) {
 				log.info("conversion of MiRecords file started ...\n");
-				ArgsParser.convertAndWrite(pargs, pargs, new GraphBuilder() {
+				ArgsParser.convertAndWrite(pargs, pargs, new StreamingGraphBuilder() {
 					public Graph buildGraph(File in) throws Exception {
-						return importMiRecords(in);
+						return importMiRecords(in, null);
+					}
+					public Graph buildGraph(File in, Graph.Listener listener) throws Exception {
+						return importMiRecords(in, listener);
 					}
 				});
 	
+				Utils.closeIDMapper(log, gdb);
 				log.info("miRecords network file created.\n\n");
 			} else {
 				log.severe("Please specify organism. --organism Homo sapiens or Mus musculus.\n");
@@ -110,7 +120,7 @@ public class MiRecords {
 		}
 	}
 
-	public Graph importMiRecords(File input) throws IOException {
+	public Graph importMiRecords(File input, Graph.Listener listener) throws IOException {
 		BufferedReader br = new BufferedReader(new FileReader(input));
 		String[] header = br.readLine().split("\t");
 
@@ -118,30 +128,54 @@ public class MiRecords {
 			index.put(header[i], i);
 
 		graph = new Graph();
+		graph.setListener(listener);
 		setNetworkAttributes(input);
 
-		// Load each line into memory
-		String line = null;
-		List<String[]> rows = new ArrayList<String[]>();
-		while ((line = br.readLine()) != null) {
-			line = removeInvalidXMLCharacters(line);
-			String[] str = line.split("\t", header.length);
-			if (str[index.get("Target gene_species_scientific")].equals(pargs.getOrganism())) {
-				rows.add(line.split("\t", header.length));
+		final MappingPrefetcher prefetcher = new MappingPrefetcher(gdb);
+		RowSource source = new RowSource(br, header.length);
+		source.setEscaper(Escaper.SANITIZE);
+		source.read(new RowHandler() {
+			public boolean accept(TsvTokenizer line) {
+				return line.equals(index.get("Target gene_species_scientific"), pargs.getOrganism());
 			}
-		}
-
-		for (String[] row : rows) {
-			String geneNode = createGeneNode(row);
-			String miRNANode = createMiRNANode(row);
-			addEdge(geneNode, miRNANode, row);
-		}
+			public void chunk(List<String[]> rows) {
+				if(mapping) prefetchMappings(rows, prefetcher);
+			}
+			public void row(String[] row) {
+				String geneNode = createGeneNode(row);
+				String miRNANode = createMiRNANode(row);
+				addEdge(geneNode, miRNANode, row);
+			}
+		});
+		prefetcher.close();
+		br.close();
 
 		log.info(foundConnections.size() + " interactions have been found.\n" + countGenes + " gene nodes.\n" + countMiRNAs + " miRNA nodes.\n");
 		cleanUp();
 		return graph;
 	}
 	
+	/**
+	 * hands the identifiers of a chunk of rows to the prefetcher,
+	 * which maps them in batches while the previous rows are processed
+	 */
+	private void prefetchMappings(List<String[]> rows, MappingPrefetcher prefetcher) {
+		Set<Xref> genes = new HashSet<Xref>();
+		Set<Xref> miRNAs = new HashSet<Xref>();
+		for (String[] r : rows) {
+			String geneId = r[index.get("Target gene_Refseq_acc")];
+			if(geneId.contains(".")) geneId = geneId.substring(0, geneId.indexOf("."));
+			Xref geneRef = new Xref(geneId, DataSource.getBySystemCode("Q"));
+			genes.add(geneRef);
+			Utils.countOccurrences(gdb, geneRef, 1);
+			Xref miRNARef = new Xref(processMirna(r[index.get("miRNA_mature_ID")], r[index.get("miRNA_species")]), DataSource.getBySystemCode("Mb"));
+			miRNAs.add(miRNARef);
+			Utils.countOccurrences(gdb, miRNARef, 1);
+		}
+		prefetcher.prefetch(genes, DataSource.getBySystemCode("En"), DataSource.getBySystemCode("L"));
+		prefetcher.prefetch(miRNAs, DataSource.getBySystemCode("Mb"), DataSource.getBySystemCode("Mbm"));
+	}
+	
 	private String createGeneNode(String[] r) {
 		String geneName = r[index.get("Target gene_name")];
 		String geneId = r[index.get("Target gene_Refseq_acc")];
@@ -161,12 +195,13 @@ public class MiRecords {
 			if(mapping) {
 				Xref xrefIn = new Xref(geneId, DataSource.getBySystemCode("Q"));
 				try {
-					Set<Xref>ens = gdb.mapID(xrefIn, DataSource.getBySystemCode("En"));
+					Map<DataSource, Set<Xref>> mapped = Utils.mapByDataSource(gdb, xrefIn, DataSource.getBySystemCode("En"), DataSource.getBySystemCode("L"));
+					Set<Xref>ens = mapped.get(DataSource.getBySystemCode("En"));
 					if(!ens.isEmpty()) {
 						ensembl = ens.iterator().next().getId();
 						identifiers = identifiers + "," + ensembl;
 					}
-					Set<Xref>entrezRes = gdb.mapID(xrefIn, DataSource.getBySystemCode("L"));
+					Set<Xref>entrezRes = mapped.get(DataSource.getBySystemCode("L"));
 					if(!entrezRes.isEmpty()) {
 						entrez = entrezRes.iterator().next().getId();
 						identifiers = identifiers + "," + entrez;
@@ -187,6 +222,7 @@ public class MiRecords {
 			node.appendAttribute("ensemblID", ensembl);
 			node.appendAttribute("entrezGeneID", entrez);
 			node.appendAttribute("refseq", geneId);
+			graph.finish(node);
 			countGenes++;
 		}
 		
@@ -206,8 +242,9 @@ public class MiRecords {
 			
 			if(mapping) {
 				try {
-					Set<Xref> result = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mb"));
-					Set<Xref> result2 = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mbm"));
+					Map<DataSource, Set<Xref>> mapped = Utils.mapByDataSource(gdb, xrefIn, DataSource.getBySystemCode("Mb"), DataSource.getBySystemCode("Mbm"));
+					Set<Xref> result = mapped.get(DataSource.getBySystemCode("Mb"));
+					Set<Xref> result2 = mapped.get(DataSource.getBySystemCode("Mbm"));
 					
 					List<String> list = new ArrayList<String>();
 					list.add(miRNA);
@@ -239,6 +276,7 @@ public class MiRecords {
 			node.appendAttribute("miRBaseAccession", mimat);
 			node.appendAttribute("biologicalType", type);
 			node.appendAttribute("organism", organism);
+			graph.finish(node);
 			countMiRNAs++;
 		}
 		
@@ -309,6 +347,7 @@ public class MiRecords {
 		e.setAttribute("Pubmed_id", r[index.get("Pubmed_id")]);
 		e.setAttribute("interactionType", "MTI");
 		e.setAttribute("datasource", dbName + " " + dbVersion);
+		graph.finish(e);
 	}
 
 	private String processMirna(String mirna, String species) {
@@ -324,37 +363,6 @@ public class MiRecords {
 		return mirna;
 	}
 
-	/**
-	 * Removes all invalid Unicode characters that are not suitable to be used
-	 * either in markup or text inside XML Documents.
-	 * 
-	 * Based on these recommendations
-	 * http://www.w3.org/TR/2000/REC-xml-20001006#NT-Char
-	 * http://cse-mjmcl.cse.bris.ac.uk/blog/2007/02/14/1171465494443.html
-	 * 
-	 * @param s: The resultant String stripped of the offending characters!
-	 * @return
-	 */
-	public String removeInvalidXMLCharacters(String s) {
-		StringBuilder out = new StringBuilder();
-
-		int codePoint;
-		int i = 0;
-
-		while (i < s.length()) {
-			// This is the unicode code of the character.
-			codePoint = s.codePointAt(i);
-			if ((codePoint == 0x9) || (codePoint == 0xA) || (codePoint == 0xD)
-					|| ((codePoint >= 0x20) && (codePoint <= 0xD7FF))
-					|| ((codePoint >= 0xE000) && (codePoint <= 0xFFFD))
-					|| ((codePoint >= 0x10000) && (codePoint <= 0x10FFFF))) {
-				out.append(Character.toChars(codePoint));
-			}
-			i += Character.charCount(codePoint);
-		}
-		return out.toString();
-	}
-	
 	private File getLogFile() {
 		if(pargs.isLogFile()) {
 			return pargs.getLogFile();
@@ -6,14 +6,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 
 import cytargetlinker.conversion.data.GeneNode;
@@ -24,12 +25,16 @@ import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.graph.Graph.Node;
 import cytargetlinker.conversion.utils.ArgsParser;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.MappingPrefetcher;
+import cytargetlinker.conversion.utils.RowSource;
+import cytargetlinker.conversion.utils.RowSource.RowHandler;
+import cytargetlinker.conversion.utils.TsvTokenizer;
 import cytargetlinker.conversion.utils.Utils;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
 import cytargetlinker.conversion.utils.ArgsParser.AHelp;
-import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
+import cytargetlinker.conversion.utils.ArgsParser.StreamingGraphBuilder;
 
 
 /**
@@ -65,12 +70,12 @@ public class Microcosm {
 		}
 	}
 	
-	private IDMapperStack gdb;
+	private IDMapper gdb;
 	private Graph graph;
 	private Map<String, Integer> index;
 	private Map<String, List<String>> edges;
 	
-	private List<String> genesNotFound;
+	private Set<String> genesNotFound;
 	private List<String> foundConnections;
 	private Map<String, String> annotationMap;
 	
@@ -83,7 +88,7 @@ public class Microcosm {
 	private Map<String, GeneNode> genes;
 	private Map<String, MTI> interactions;
 	
-	private List<String> nodesNotFound;
+	private Set<String> nodesNotFound;
 	private List<String> interactionIgnored;
 	
 	public Microcosm() throws Exception {
@@ -91,12 +96,12 @@ public class Microcosm {
 		index = new HashMap<String, Integer>();
 		annotationMap = new HashMap<String, String>();
 		foundConnections = new ArrayList<String>();
-		genesNotFound = new ArrayList<String>();
+		genesNotFound = new HashSet<String>();
 		
 		miRNAs = new HashMap<String, MiRNANode>();
 		genes = new HashMap<String, GeneNode>();
 		interactions = new HashMap<String, MTI>();
-		nodesNotFound = new ArrayList<String>();
+		nodesNotFound = new HashSet<String>();
 		interactionIgnored = new ArrayList<String>();
 	}
 	
@@ -104,27 +109,32 @@ public class Microcosm {
 		File in = pargs.getInput();
 		if(in != null) {
 			Utils.setUpLogger(log, getLogFile(), false);
-			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs);
 			if(gdb == null) {
 				mapping = false;
 				log.info("no identifier mapping");
 			}
 			log.info("conversion of microcosm file started ...\n");
 
-			ArgsParser.convertAndWrite(pargs, pargs, new GraphBuilder() {
+			ArgsParser.convertAndWrite(pargs, pargs, new StreamingGraphBuilder() {
 				public Graph buildGraph(File in) throws Exception {
-					return importMicrocosm(in);
+					return importMicrocosm(in, null);
+				}
+				public Graph buildGraph(File in, Graph.Listener listener) throws Exception {
+					return importMicrocosm(in, listener);
 				}
 			});
 				
+			Utils.closeIDMapper(log, gdb);
 			log.info("MicroCosm network file created.\n\n");
 		} else {
 			System.out.println("Please specify input file!");
 		}
 	}
 	
-	protected Graph importMicrocosm(File in) throws IOException {
+	protected Graph importMicrocosm(File in, Graph.Listener listener) throws IOException {
 		graph = new Graph();
+		graph.setListener(listener);
 		
 		readAnnotations();
 		setNetworkAttributes(in);
@@ -149,55 +159,79 @@ public class Microcosm {
 		interactionIgnored.clear();
 	}
 	
-	private List<String> ids;
+	private Set<String> ids;
 	
 	private void parseMicrocosm(File in) {
-		ids = new ArrayList<String>();
+		ids = new HashSet<String>();
 
 		try {
 			BufferedReader br = new BufferedReader(new FileReader(in));
 			String[] header = readHeader(br);
 
 			if (header != null) {
-				String line = null;
-
-				List<String[]> rows = new ArrayList<String[]>();
-				while ((line = br.readLine()) != null) {
-					if (!line.startsWith("#") && !line.equals("")) {
-						rows.add(line.split("\t", header.length));
+				final MappingPrefetcher prefetcher = new MappingPrefetcher(gdb);
+				new RowSource(br, header.length).read(new RowHandler() {
+					public boolean accept(TsvTokenizer line) {
+						return !line.startsWith(0, "#") && !(line.getFieldCount() == 1 && line.length(0) == 0);
 					}
-				}
-
-				for (String[] row : rows) {
-					String transcriptId = row[index.get("TRANSCRIPT_ID")];
-					String geneName = row[index.get("EXTERNAL_NAME")];
-					String mirna = row[index.get("SEQ")];
-					String score = row[index.get("SCORE")];
-					String pValue = row[index.get("PVALUE_OG")];
+					public void chunk(List<String[]> rows) {
+						if(mapping) prefetchMappings(rows, prefetcher);
+					}
+					public void row(String[] row) {
+						String transcriptId = row[index.get("TRANSCRIPT_ID")];
+						String geneName = row[index.get("EXTERNAL_NAME")];
+						String mirna = row[index.get("SEQ")];
+						String score = row[index.get("SCORE")];
+						String pValue = row[index.get("PVALUE_OG")];
 
-					if (annotationMap.containsKey(transcriptId)) {
-						if (!ids.contains(annotationMap.get(transcriptId))) {
-							createGeneNode(annotationMap.get(transcriptId),
-									geneName);
-							ids.add(annotationMap.get(transcriptId));
-						}
-						if (!ids.contains(mirna)) {
-							createMiRNANode(mirna);
-							ids.add(mirna);
+						if (annotationMap.containsKey(transcriptId)) {
+							if (!ids.contains(annotationMap.get(transcriptId))) {
+								createGeneNode(annotationMap.get(transcriptId),
+										geneName);
+								ids.add(annotationMap.get(transcriptId));
+							}
+							if (!ids.contains(mirna)) {
+								createMiRNANode(mirna);
+								ids.add(mirna);
+							}
+							addEdge(annotationMap.get(transcriptId), mirna, score,
+									pValue);
+						} else {
+							if (!genesNotFound.contains(transcriptId))
+								genesNotFound.add(transcriptId);
 						}
-						addEdge(annotationMap.get(transcriptId), mirna, score,
-								pValue);
-					} else {
-						if (!genesNotFound.contains(transcriptId))
-							genesNotFound.add(transcriptId);
 					}
-				}
+				});
+				prefetcher.close();
+				br.close();
 			}
 		} catch (IOException e) {
 			log.warning("Could not read input file " + in.getAbsolutePath());
 		}
 	}
 	
+	/**
+	 * hands the identifiers of a chunk of rows to the prefetcher,
+	 * which maps them in batches while the previous rows are processed
+	 */
+	private void prefetchMappings(List<String[]> rows, MappingPrefetcher prefetcher) {
+		Set<Xref> genes = new HashSet<Xref>();
+		Set<Xref> miRNAs = new HashSet<Xref>();
+		for (String[] row : rows) {
+			String gene = annotationMap.get(row[index.get("TRANSCRIPT_ID")]);
+			if(gene != null) {
+				Xref geneRef = new Xref(gene, DataSource.getBySystemCode("En"));
+				genes.add(geneRef);
+				Utils.countOccurrences(gdb, geneRef, 1);
+				Xref miRNARef = new Xref(row[index.get("SEQ")], DataSource.getBySystemCode("Mb"));
+				miRNAs.add(miRNARef);
+				Utils.countOccurrences(gdb, miRNARef, 1);
+			}
+		}
+		prefetcher.prefetch(genes, DataSource.getBySystemCode("L"));
+		prefetcher.prefetch(miRNAs, DataSource.getBySystemCode("Mb"), DataSource.getBySystemCode("Mbm"));
+	}
+	
 	private void addEdge(String gene, String mirna, String score, String pValue) {
 		if(edges.containsKey(gene)) {
 			if(!edges.get(gene).contains(mirna)) {
@@ -213,6 +247,7 @@ public class Microcosm {
 					e.setAttribute("score", "");
 					e.setAttribute("pvalue", "");	
 				}
+				graph.finish(e);
 				
 				edges.get(gene).add(mirna);
 				foundConnections.add(gene + "\t" + mirna);
@@ -231,6 +266,7 @@ public class Microcosm {
 				e.setAttribute("score", "");
 				e.setAttribute("pvalue", "");
 			}
+			graph.finish(e);
 			List<String> list = new ArrayList<String>();
 			list.add(mirna);
 			foundConnections.add(gene + "\t" + mirna);
@@ -321,6 +357,7 @@ public class Microcosm {
 			node.appendAttribute("organism", organism);
 			node.appendAttribute("ensemblID", geneId);
 			node.appendAttribute("entrezGeneID", entrez);
+			graph.finish(node);
 			countGenes++;
 		}		
 	}
@@ -336,8 +373,9 @@ public class Microcosm {
 			
 			if(mapping) {
 				try {
-					Set<Xref> result = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mb"));
-					Set<Xref> result2 = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mbm"));
+					Map<DataSource, Set<Xref>> mapped = Utils.mapByDataSource(gdb, xrefIn, DataSource.getBySystemCode("Mb"), DataSource.getBySystemCode("Mbm"));
+					Set<Xref> result = mapped.get(DataSource.getBySystemCode("Mb"));
+					Set<Xref> result2 = mapped.get(DataSource.getBySystemCode("Mbm"));
 					
 					List<String> list = new ArrayList<String>();
 					list.add(miRNA);
@@ -368,6 +406,7 @@ public class Microcosm {
 			node.appendAttribute("miRBaseAccession", mimat);
 			node.appendAttribute("biologicalType", type);
 			node.appendAttribute("organism", organism);
+			graph.finish(node);
 			countMiRNAs++;
 		}
 	}
@@ -6,14 +6,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 
 import cytargetlinker.conversion.graph.Graph;
@@ -21,12 +22,16 @@ import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.graph.Graph.Node;
 import cytargetlinker.conversion.utils.ArgsParser;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.MappingPrefetcher;
+import cytargetlinker.conversion.utils.RowSource;
+import cytargetlinker.conversion.utils.RowSource.RowHandler;
+import cytargetlinker.conversion.utils.TsvTokenizer;
 import cytargetlinker.conversion.utils.Utils;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
 import cytargetlinker.conversion.utils.ArgsParser.AHelp;
-import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
+import cytargetlinker.conversion.utils.ArgsParser.StreamingGraphBuilder;
 
 /**
  * Converts miRNA target text files from MiRTarBase to a XGMML or GML network.
@@ -66,7 +71,7 @@ public class MirTarBase {
 	private Graph graph;
 	private Map<String, Integer> index;
 	private Map<String, List<String>> edges;
-	private IDMapperStack gdb;
+	private IDMapper gdb;
 
 	private List<String> foundConnections;
 	private Integer countEdges = 0;
@@ -88,28 +93,32 @@ public class MirTarBase {
 			}
 			Utils.setUpLogger(log, getLogFile(), false);
 			log.info("conversion of miRTarBase file started ...\n");
-			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs);
 			
 			if (gdb == null) {
 				mapping = false;
 				log.info("no identifier mapping");
 			}
 			if (pargs.getOrganism() != null) {
-				ArgsParser.convertAndWrite(pargs, pargs, new GraphBuilder() {
+				ArgsParser.convertAndWrite(pargs, pargs, new StreamingGraphBuilder() {
 					public Graph buildGraph(File in) throws Exception {
-						return createNetwork(in);
+						return createNetwork(in, null);
+					}
+					public Graph buildGraph(File in, Graph.Listener listener) throws Exception {
+						return createNetwork(in, listener);
 					}
 				});
 			} else {
 				log.severe("Please specify organism. --organism Homo sapiens or Mus musculus.\n");
 			}
+			Utils.closeIDMapper(log, gdb);
 			log.info("miRTarBase network file created.\n\n");
 		} else {
 			System.out.println("Please specify input file!");
 		}
 	}
 
-	public Graph createNetwork(File input) throws IOException {
+	public Graph createNetwork(File input, Graph.Listener listener) throws IOException {
 		BufferedReader br = new BufferedReader(new FileReader(input));
 
 		String[] header = br.readLine().split("\t");
@@ -119,29 +128,51 @@ public class MirTarBase {
 		}
 
 		graph = new Graph();
+		graph.setListener(listener);
 		setNetworkAttributes(input);
 
-		String line = null;
-		List<String[]> rows = new ArrayList<String[]>();
-		while ((line = br.readLine()) != null) {
-			String[] str = line.split("\t");
-			if (str[index.get("Species (Target Gene)")].equals(pargs .getOrganism())) {
-				rows.add(line.split("\t", header.length));
-			}
-		}
-		
+		final MappingPrefetcher prefetcher = new MappingPrefetcher(gdb);
 		edges = new HashMap<String, List<String>>();
-		for (String[] r : rows) {
-			String geneNode = createGeneNode(r);
-			String miRNANode = createMiRNANode(r);
-			addEdge(geneNode, miRNANode, r);	
-		}
+		new RowSource(br, header.length).read(new RowHandler() {
+			public boolean accept(TsvTokenizer line) {
+				return line.equals(index.get("Species (Target Gene)"), pargs.getOrganism());
+			}
+			public void chunk(List<String[]> rows) {
+				if(mapping) prefetchMappings(rows, prefetcher);
+			}
+			public void row(String[] r) {
+				String geneNode = createGeneNode(r);
+				String miRNANode = createMiRNANode(r);
+				addEdge(geneNode, miRNANode, r);	
+			}
+		});
+		prefetcher.close();
+		br.close();
 
 		log.info(foundConnections.size() + " interactions have been found.\n" + countGenes + " gene nodes.\n" + countMiRNAs + " miRNA nodes.\n");
 		
 		return graph;
 	}
 
+	/**
+	 * hands the identifiers of a chunk of rows to the prefetcher,
+	 * which maps them in batches while the previous rows are processed
+	 */
+	private void prefetchMappings(List<String[]> rows, MappingPrefetcher prefetcher) {
+		Set<Xref> genes = new HashSet<Xref>();
+		Set<Xref> miRNAs = new HashSet<Xref>();
+		for (String[] r : rows) {
+			Xref geneRef = new Xref(r[index.get("Target Gene (Entrez ID)")], DataSource.getBySystemCode("L"));
+			genes.add(geneRef);
+			Utils.countOccurrences(gdb, geneRef, 1);
+			Xref miRNARef = new Xref(r[index.get("miRNA")], DataSource.getBySystemCode("Mb"));
+			miRNAs.add(miRNARef);
+			Utils.countOccurrences(gdb, miRNARef, 1);
+		}
+		prefetcher.prefetch(genes, DataSource.getBySystemCode("En"), DataSource.getBySystemCode("S"));
+		prefetcher.prefetch(miRNAs, DataSource.getBySystemCode("Mb"), DataSource.getBySystemCode("Mbm"));
+	}
+
 	private String createGeneNode(String[] r) {
 		String geneName = r[index.get("Target Gene")];
 		String geneId = r[index.get("Target Gene (Entrez ID)")];
@@ -155,8 +186,7 @@ public class MirTarBase {
 				Xref xrefIn = new Xref(geneId, DataSource.getBySystemCode("L"));
 				Set<Xref> ens;
 				try {
-					ens = gdb.mapID(xrefIn, DataSource.getBySystemCode("En"));
-					ens.addAll(gdb.mapID(xrefIn, DataSource.getBySystemCode("S")));
+					ens = gdb.mapID(xrefIn, DataSource.getBySystemCode("En"), DataSource.getBySystemCode("S"));
 					for(Xref x : ens) {
 						if(ensembl.equals("") && x.getDataSource().getSystemCode().equals("En")) ensembl = x.getId();
 						String id = x.getId();
@@ -176,6 +206,7 @@ public class MirTarBase {
 			node.appendAttribute("organism", organism);
 			node.appendAttribute("ensemblID", ensembl);
 			node.appendAttribute("entrezGeneID", geneId);
+			graph.finish(node);
 			countGenes++;
 		}
 		
@@ -194,8 +225,9 @@ public class MirTarBase {
 			
 			if(mapping) {
 				try {
-					Set<Xref> result = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mb"));
-					Set<Xref> result2 = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mbm"));
+					Map<DataSource, Set<Xref>> mapped = Utils.mapByDataSource(gdb, xrefIn, DataSource.getBySystemCode("Mb"), DataSource.getBySystemCode("Mbm"));
+					Set<Xref> result = mapped.get(DataSource.getBySystemCode("Mb"));
+					Set<Xref> result2 = mapped.get(DataSource.getBySystemCode("Mbm"));
 					
 					List<String> list = new ArrayList<String>();
 					list.add(miRNA);
@@ -226,6 +258,7 @@ public class MirTarBase {
 			node.appendAttribute("miRBaseAccession", mimat);
 			node.appendAttribute("biologicalType", type);
 			node.appendAttribute("organism", organism);
+			graph.finish(node);
 			countMiRNAs++;
 		}
 		
@@ -242,6 +275,7 @@ public class MirTarBase {
 				e.setAttribute("interactionType", "MTI");
 				e.setAttribute("datasource", dbName + " " + dbVersion);
 				e.setAttribute("miRTarBaseID", r[index.get("miRTarBase ID")]);
+				graph.finish(e);
 				edges.get(gene).add(mirna);
 				foundConnections.add(gene + "\t" + mirna);
 				countEdges++;
@@ -254,6 +288,7 @@ public class MirTarBase {
 			e.setAttribute("interactionType", "MTI");
 			e.setAttribute("datasource", dbName + " " + dbVersion);
 			e.setAttribute("miRTarBaseID", r[index.get("miRTarBase ID")]);
+			graph.finish(e);
 			
 			List<String> list = new ArrayList<String>();
 			list.add(mirna);
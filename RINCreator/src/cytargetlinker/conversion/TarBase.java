@@ -6,14 +6,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 
 import cytargetlinker.conversion.graph.Graph;
@@ -21,13 +22,17 @@ import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.graph.Graph.Node;
 import cytargetlinker.conversion.utils.ArgsParser;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.MappingPrefetcher;
+import cytargetlinker.conversion.utils.RowSource;
+import cytargetlinker.conversion.utils.RowSource.RowHandler;
+import cytargetlinker.conversion.utils.TsvTokenizer;
 import cytargetlinker.conversion.utils.SpeciesCodes;
 import cytargetlinker.conversion.utils.Utils;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
 import cytargetlinker.conversion.utils.ArgsParser.AHelp;
-import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
+import cytargetlinker.conversion.utils.ArgsParser.StreamingGraphBuilder;
 
 /**
  * Converts miRNA target text files from TarBase to a XGMML or GML network.
@@ -59,7 +64,7 @@ public class TarBase {
 		converter.startConversion();
 	}
 	
-	private IDMapperStack gdb;
+	private IDMapper gdb;
 	private Graph graph;
 	private Map<String, Integer> index;
 	private Map<String, List<String>> edges;
@@ -77,18 +82,22 @@ public class TarBase {
 		File in = pargs.getInput();
 		if(in != null) {
 			Utils.setUpLogger(log, getLogFile(), true);
-			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs);
 			if(gdb == null) {
 				mapping = false;
 				log.info("no identifier mapping");
 			}
 			if (pargs.getOrganism() != null) {
 				log.info("conversion of TarBase file started ...\n");
-				ArgsParser.convertAndWrite(pargs, pargs, new GraphBuilder() {
+				ArgsParser.convertAndWrite(pargs, pargs, new StreamingGraphBuilder() {
 					public Graph buildGraph(File in) throws Exception {
-						return importMiRecords(in);
+						return importMiRecords(in, null);
+					}
+					public Graph buildGraph(File in, Graph.Listener listener) throws Exception {
+						return importMiRecords(in, listener);
 					}
 				});
+				Utils.closeIDMapper(log, gdb);
 				log.info("conversion of TarBase file finalized ...\n");
 			} else {
 				log.severe("Please specify organism. --organism Human or Mouse.\n");
@@ -98,7 +107,7 @@ public class TarBase {
 		}
 	}
 
-	public Graph importMiRecords(File input) throws IOException {
+	public Graph importMiRecords(File input, Graph.Listener listener) throws IOException {
 
 		BufferedReader br = new BufferedReader(new FileReader(input));
 		String[] header = br.readLine().split("\t");
@@ -107,34 +116,58 @@ public class TarBase {
 			index.put(header[i], i);
 		}
 		graph = new Graph();
+		graph.setListener(listener);
 		setNetworkAttributes(input);
 
-		// Load each line into memory
-		String line = null;
-		List<String[]> rows = new ArrayList<String[]>();
-		while ((line = br.readLine()) != null) {
-			String[] str = line.split("\t", header.length);
-			if (str[index.get("Organism")].equals(pargs.getOrganism())) {
-				rows.add(line.split("\t", header.length));
+		final MappingPrefetcher prefetcher = new MappingPrefetcher(gdb);
+		edges = new HashMap<String, List<String>>();
+		new RowSource(br, header.length).read(new RowHandler() {
+			public boolean accept(TsvTokenizer line) {
+				return line.equals(index.get("Organism"), pargs.getOrganism());
 			}
-		}
+			public void chunk(List<String[]> rows) {
+				if(mapping) prefetchMappings(rows, prefetcher);
+			}
+			public void row(String[] r) {
+				String gene = r[index.get("Ensembl")];
+				String mirna = getMiRNA(r[index.get("miRNA")], r[index.get("Organism")]);
 
-		edges = new HashMap<String, List<String>>();
-		for (String[] r : rows) {
+				if (gene != null && mirna != null) {
+					createGeneNode(gene, r);
+					createMiRNANode(mirna, r);
+					addEdge(gene, mirna, r);
+				}
+			}
+		});
+		prefetcher.close();
+		br.close();
 
+		log.info(foundConnections.size() + " interactions have been found.\n");
+
+		return graph;
+	}
+	
+	/**
+	 * hands the identifiers of a chunk of rows to the prefetcher,
+	 * which maps them in batches while the previous rows are processed
+	 */
+	private void prefetchMappings(List<String[]> rows, MappingPrefetcher prefetcher) {
+		Set<Xref> genes = new HashSet<Xref>();
+		Set<Xref> miRNAs = new HashSet<Xref>();
+		for (String[] r : rows) {
 			String gene = r[index.get("Ensembl")];
 			String mirna = getMiRNA(r[index.get("miRNA")], r[index.get("Organism")]);
-
 			if (gene != null && mirna != null) {
-				createGeneNode(gene, r);
-				createMiRNANode(mirna, r);
-				addEdge(gene, mirna, r);
+				Xref geneRef = new Xref(gene, DataSource.getBySystemCode("En"));
+				genes.add(geneRef);
+				Utils.countOccurrences(gdb, geneRef, 1);
+				Xref miRNARef = new Xref(mirna, DataSource.getBySystemCode("Mb"));
+				miRNAs.add(miRNARef);
+				Utils.countOccurrences(gdb, miRNARef, 1);
 			}
 		}
-
-		log.info(foundConnections.size() + " interactions have been found.\n");
-
-		return graph;
+		prefetcher.prefetch(genes, DataSource.getBySystemCode("L"));
+		prefetcher.prefetch(miRNAs, DataSource.getBySystemCode("Mbm"), DataSource.getBySystemCode("Mb"));
 	}
 	
 	private void createMiRNANode(String id, String [] row) {
@@ -144,13 +177,14 @@ public class TarBase {
 		if(mapping) {
 			Xref xrefIn = new Xref(id, DataSource.getBySystemCode("Mb"));
 			try {
-				Set<Xref> res = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mbm"));
+				Map<DataSource, Set<Xref>> mapped = Utils.mapByDataSource(gdb, xrefIn, DataSource.getBySystemCode("Mbm"), DataSource.getBySystemCode("Mb"));
+				Set<Xref> res = mapped.get(DataSource.getBySystemCode("Mbm"));
 				if(!res.isEmpty()) {
 					String str = res.iterator().next().getId();
 					if(str.contains("MIMAT")) mimat = str;
 					identifiers = identifiers + "," + str;
 				}
-				Set<Xref> res2 = gdb.mapID(xrefIn, DataSource.getBySystemCode("Mb"));
+				Set<Xref> res2 = mapped.get(DataSource.getBySystemCode("Mb"));
 				if(!res2.isEmpty()) {
 					String str = res2.iterator().next().getId();
 					if(!str.equals(id)) identifiers = identifiers + "," + str;
@@ -213,6 +247,7 @@ public class TarBase {
 			node.appendAttribute("Chromosomal_location", row[index.get("Chr_loc")]);
 			node.appendAttribute("HGNC_ID", row[index.get("HGNC_ID")]);
 			node.appendAttribute("SwissProt", row[index.get("SwissProt")]);
+			graph.finish(node);
 		}
 	}
 
@@ -271,6 +306,7 @@ public class TarBase {
 		e.setAttribute("PMID", r[index.get("PMID")]);
 		e.setAttribute("Bibliographic_Notes", r[index.get("Bibliographic_Notes")]);
 		e.setAttribute("Cell_Line_Used", r[index.get("Cell_Line_Used")]);
+		graph.finish(e);
 	}
 	
 	private File getLogFile() {
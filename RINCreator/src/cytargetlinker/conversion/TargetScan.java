@@ -3,29 +3,42 @@ package cytargetlinker.conversion;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bridgedb.DataSource;
-import org.bridgedb.IDMapperStack;
+import org.bridgedb.IDMapper;
+import org.bridgedb.Xref;
 
+import uk.co.flamingpenguin.jewel.cli.Option;
 import cytargetlinker.conversion.data.GeneNode;
 import cytargetlinker.conversion.data.MTI;
 import cytargetlinker.conversion.data.MiRNANode;
 import cytargetlinker.conversion.graph.Graph;
+import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.utils.ArgsParser;
 import cytargetlinker.conversion.utils.CommonAttributes;
+import cytargetlinker.conversion.utils.MappedRowReader;
+import cytargetlinker.conversion.utils.MappedRowReader.LineHandler;
+import cytargetlinker.conversion.utils.MappingPrefetcher;
+import cytargetlinker.conversion.utils.RowSource;
+import cytargetlinker.conversion.utils.RowSource.RowHandler;
+import cytargetlinker.conversion.utils.TsvTokenizer;
 import cytargetlinker.conversion.utils.Utils;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
 import cytargetlinker.conversion.utils.ArgsParser.AHelp;
-import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
+import cytargetlinker.conversion.utils.ArgsParser.StreamingGraphBuilder;
 
 /**
  * Converts predicted miRNA target files from TargetScan to a XGMML network.
@@ -41,7 +54,11 @@ import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
 public class TargetScan {
 
 	private final static Logger log = Logger.getLogger(TargetScan.class.getName());
-	private interface Args extends AHelp, AFilesIn, AFilesOut, AFilesAttributes {}
+	private interface Args extends AHelp, AFilesIn, AFilesOut, AFilesAttributes {
+		@Option(longName = "parseThreads", description = "Memory map the input file and parse it with this number of threads (0 for one per core).")
+		public Integer getParseThreads();
+		public boolean isParseThreads();
+	}
 	private static Args pargs;
 	
 	/**
@@ -52,6 +69,7 @@ public class TargetScan {
 	 * -o = output file
 	 * --bridgeDbFile = BridgeDb mapping files for source and target nodes
 	 * --organism "Homo sapiens" or "Mus musculus" 
+	 * --parseThreads = parse the input file in parallel
 	 */
 	public static void main(String[] args) throws Exception {
 		
@@ -61,16 +79,17 @@ public class TargetScan {
 
 	}
 	
-	private IDMapperStack idMapper;
+	private IDMapper idMapper;
 	private Graph graph;
 	
 	private Map<String, Integer> index;
+	private final TsvTokenizer number = new TsvTokenizer();
 	
 	private Map<String, MiRNANode> miRNAs;
 	private Map<String, GeneNode> genes;
 	private Map<String, MTI> interactions;
 	
-	private List<String> nodesNotFound;
+	private Set<String> nodesNotFound;
 	private List<String> interactionIgnored;
 	
 	public TargetScan() throws Exception {
@@ -78,7 +97,7 @@ public class TargetScan {
 		miRNAs = new HashMap<String, MiRNANode>();
 		genes = new HashMap<String, GeneNode>();
 		interactions = new HashMap<String, MTI>();
-		nodesNotFound = new ArrayList<String>();
+		nodesNotFound = new HashSet<String>();
 		interactionIgnored = new ArrayList<String>();
 	}
 	
@@ -87,19 +106,23 @@ public class TargetScan {
 		if(in != null) {
 			Utils.setUpLogger(log, getLogFile(), false);
 
-			if(pargs.isBridgeDbFiles()) idMapper = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+			if(pargs.isBridgeDbFiles()) idMapper = Utils.initIDMapper(pargs);
 			if(idMapper == null) {
 				log.severe("no bridgedb file specified");
 			} else {
 				if (pargs.getOrganism() != null) {
 					log.info("conversion of TargetScan " + pargs.getOrganism() + " file started ...\n");
 						
-					ArgsParser.convertAndWrite(pargs, pargs, new GraphBuilder() {
+					ArgsParser.convertAndWrite(pargs, pargs, new StreamingGraphBuilder() {
 						public Graph buildGraph(File in) throws Exception {
-							return importTargetScan(in);
+							return importTargetScan(in, null);
+						}
+						public Graph buildGraph(File in, Graph.Listener listener) throws Exception {
+							return importTargetScan(in, listener);
 						}
 					});
 						
+					Utils.closeIDMapper(log, idMapper);
 					log.info("conversion of TargetScan " + pargs.getOrganism() + " file finalized.\n");
 				} else {
 					log.severe("Please specify organism. --organism human or mouse.\n");
@@ -110,60 +133,70 @@ public class TargetScan {
 		}
 	}
 	
-	public Graph importTargetScan(File file) throws IOException {
+	public Graph importTargetScan(File file, Graph.Listener listener) throws IOException {
 		graph = new Graph();
+		graph.setListener(listener);
 		setNetworkAttributes(file);
 		
-		BufferedReader br = new BufferedReader(new FileReader(file));
-		String[] header = br.readLine().split("\t");
+		MappedRowReader reader = null;
+		BufferedReader br = null;
+		String[] header;
+		if(pargs.isParseThreads()) {
+			reader = new MappedRowReader(file, pargs.getParseThreads());
+			header = reader.getHeader();
+		} else {
+			br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			header = br.readLine().split("\t");
+		}
 		
 		index = new HashMap<String, Integer>();
 		for(int i = 0; i < header.length; i++) index.put(header[i], i);
 		
-		log.info("Reading file start");
-		String line = null;
-		List<String[]> rows = new ArrayList<String[]>();
-		while((line = br.readLine()) != null) {
-			String [] str = line.split("\t", header.length);
-			if(pargs.getOrganism().equals("Homo sapiens") && str[index.get("Gene Tax ID")].equals("9606")) {
-				rows.add(line.split("\t", header.length));
-			} else if(pargs.getOrganism().equals("Mus musculus") && str[index.get("Gene Tax ID")].equals("10090")) {
-				rows.add(line.split("\t", header.length));
-			}
-		}
-		log.info("Reading file finsihed");
-		
 		log.info("Create interactions start");
-		int countNotMapped = 0;
-		for(String[] row : rows) {
-			String geneId = createGeneNode(row);
-			String miRNA = createMiRNANode(row);
-			if(geneId != null && miRNA != null) {
-				if(!interactions.containsKey(miRNA + "_" + geneId)) {
-					String score = row[index.get("context+ score")];
-					try{
-						Double.valueOf(score);
-					} catch(NumberFormatException e) {
-						score = "";
-					}
-					MTI mti = new MTI(miRNAs.get(miRNA), genes.get(geneId), score);
-					interactions.put(miRNA + "_" + geneId, mti);
-				}
-			} else {
-				if(!interactionIgnored.contains(row[index.get("miRNA")] + " -> " + row[index.get("Gene ID")])) {
-					interactionIgnored.add(row[index.get("miRNA")] + " -> " + row[index.get("Gene ID")]);
+		final MappingPrefetcher prefetcher = new MappingPrefetcher(idMapper);
+		// the identifiers are only mapped for the first row of every
+		// (miRNA, gene) pair, the other rows would give the same interaction
+		final Map<String, Boolean> pairs = new HashMap<String, Boolean>();
+		final Map<String, String> geneIds = new HashMap<String, String>();
+		final Map<String, String> miRNAIds = new HashMap<String, String>();
+		final Map<String, int[]> occurrences = new HashMap<String, int[]>();
+		final int[] countNotMapped = new int[1];
+		RowHandler handler = new RowHandler() {
+			public boolean accept(TsvTokenizer line) {
+				int taxId = index.get("Gene Tax ID");
+				return (pargs.getOrganism().equals("Homo sapiens") && line.equals(taxId, "9606")) ||
+					(pargs.getOrganism().equals("Mus musculus") && line.equals(taxId, "10090"));
+			}
+			public void chunk(List<String[]> rows) {
+				prefetchMappings(rows, occurrences, prefetcher);
+			}
+			public void row(String[] row) {
+				String key = row[index.get("miRNA")] + " -> " + row[index.get("Gene ID")];
+				Boolean mapped = pairs.get(key);
+				if(mapped == null) {
+					mapped = createInteraction(row, geneIds, miRNAIds);
+					pairs.put(key, mapped);
+					if(!mapped) interactionIgnored.add(key);
 				}
-				countNotMapped++;
+				// a parsed chunk only keeps the first row of a pair
+				int[] n = occurrences.get(key);
+				if(!mapped) countNotMapped[0] += n == null ? 1 : n[0];
 			}
+		};
+		// only the columns that are read are decoded
+		int[] fields = new int[] { index.get("miRNA"), index.get("Gene ID"), index.get("Gene Symbol"), index.get("context+ score") };
+		int rows;
+		if(reader != null) {
+			rows = readParallel(reader, header.length, fields, handler, occurrences);
+		} else {
+			RowSource source = new RowSource(br, header.length);
+			source.setFields(fields);
+			rows = source.read(handler);
+			br.close();
 		}
-		log.info("Create interactions finished (" + countNotMapped + " were not created)");
-		
-		int count = 0;
-		for(String str : interactions.keySet()) {
-			MTI mti = interactions.get(str);
-			mti.createEdge(graph, "TargetScan version 6.2", count);
-			count++;
-		}
+		prefetcher.close();
+		log.info(pairs.size() + " distinct interactions in " + rows + " rows");
+		log.info("Create interactions finished (" + countNotMapped[0] + " were not created)");
 		
 		log.info(interactions.size() + " interactions have been found.\n" + genes.size() + " gene nodes.\n" + miRNAs.size() + " miRNA nodes.\n");
 		log.info(interactionIgnored.size() + " interactions were ignores because " + nodesNotFound.size() + " nodes could not be mapped");
@@ -172,6 +205,150 @@ public class TargetScan {
 		return graph;
 	}
 	
+	/**
+	 * The (miRNA, gene) pairs of a chunk of the input file in the order of
+	 * their first row, with the position of that row and the number of rows.
+	 * The rows themselves are read again when the chunks are merged.
+	 */
+	private static class Chunk {
+		Map<String, long[]> pairs = new LinkedHashMap<String, long[]>();
+		int count;
+	}
+	
+	/**
+	 * parses and filters the chunks of the file in parallel, merges the
+	 * pairs of the chunks in the order of the file and hands the first
+	 * row of every pair to the handler
+	 * @return the number of rows of the organism
+	 */
+	private int readParallel(MappedRowReader reader, final int columns, int[] fields, final RowHandler handler,
+			Map<String, int[]> occurrences) throws IOException {
+		final int miRNA = index.get("miRNA");
+		final int gene = index.get("Gene ID");
+		List<Chunk> chunks = reader.read(columns, new LineHandler<Chunk>() {
+			public Chunk chunk() {
+				return new Chunk();
+			}
+			public void line(Chunk chunk, long offset, TsvTokenizer line) {
+				if(!handler.accept(line)) return;
+				String key = line.getString(miRNA) + " -> " + line.getString(gene);
+				long[] pair = chunk.pairs.get(key);
+				if(pair == null) {
+					pair = new long[] { offset, 0 };
+					chunk.pairs.put(key, pair);
+				}
+				pair[1]++;
+				chunk.count++;
+			}
+		});
+		
+		int rows = 0;
+		long[] offsets = new long[1024];
+		int n = 0;
+		for(int i = 0; i < chunks.size(); i++) {
+			Chunk chunk = chunks.get(i);
+			for(Map.Entry<String, long[]> e : chunk.pairs.entrySet()) {
+				int[] count = occurrences.get(e.getKey());
+				if(count == null) {
+					occurrences.put(e.getKey(), new int[] { (int)e.getValue()[1] });
+					if(n == offsets.length) {
+						long[] o = new long[n * 2];
+						System.arraycopy(offsets, 0, o, 0, n);
+						offsets = o;
+					}
+					offsets[n++] = e.getValue()[0];
+				} else {
+					count[0] += e.getValue()[1];
+				}
+			}
+			rows += chunk.count;
+			chunks.set(i, null);
+		}
+		
+		long[] first = new long[n];
+		System.arraycopy(offsets, 0, first, 0, n);
+		MappedRowReader.Lines lines = reader.lines(first, columns, fields);
+		try {
+			RowSource.handle(lines, handler);
+		} finally {
+			lines.close();
+		}
+		return rows;
+	}
+	
+	/**
+	 * creates the nodes and the interaction for the first row of a pair,
+	 * the nodes and the edge are finished right away so that they can be
+	 * written while the rest of the file is parsed
+	 * @return false if the gene or the miRNA could not be mapped
+	 */
+	private boolean createInteraction(String[] row, Map<String, String> geneIds, Map<String, String> miRNAIds) {
+		String geneId = resolveGeneNode(row, geneIds);
+		String miRNA = resolveMiRNANode(row, miRNAIds);
+		if(geneId == null || miRNA == null) return false;
+		if(!interactions.containsKey(miRNA + "_" + geneId)) {
+			String score = row[index.get("context+ score")];
+			number.reset(score, 1);
+			if(!number.isNumber(0)) score = "";
+			MTI mti = new MTI(miRNAs.get(miRNA), genes.get(geneId), score);
+			graph.finish(mti.getSource().getNode(graph));
+			graph.finish(mti.getTarget().getNode(graph));
+			Edge e = mti.createEdge(graph, "TargetScan version 6.2", interactions.size());
+			graph.finish(e);
+			interactions.put(miRNA + "_" + geneId, mti);
+		}
+		return true;
+	}
+	
+	/**
+	 * hands the identifiers of a chunk of rows to the prefetcher, which maps
+	 * them in batches while the previous rows are processed, genes are mapped
+	 * to Ensembl and back to Entrez Gene. A row stands for the number of rows
+	 * of its pair in occurrences, if the file was parsed in chunks.
+	 */
+	private void prefetchMappings(List<String[]> rows, Map<String, int[]> occurrences, MappingPrefetcher prefetcher) {
+		final Set<Xref> genes = new HashSet<Xref>();
+		Set<Xref> miRNAs = new HashSet<Xref>();
+		for(String[] r : rows) {
+			int[] n = occurrences.get(r[index.get("miRNA")] + " -> " + r[index.get("Gene ID")]);
+			Xref geneRef = new Xref(r[index.get("Gene ID")], DataSource.getBySystemCode("L"));
+			genes.add(geneRef);
+			Utils.countOccurrences(idMapper, geneRef, n == null ? 1 : n[0]);
+			Xref miRNARef = new Xref(r[index.get("miRNA")], DataSource.getBySystemCode("Mb"));
+			miRNAs.add(miRNARef);
+			Utils.countOccurrences(idMapper, miRNARef, n == null ? 1 : n[0]);
+		}
+		prefetcher.submit(new Runnable() {
+			public void run() {
+				Map<Xref, Set<Xref>> ensembl = Utils.prefetch(idMapper, genes, DataSource.getBySystemCode("En"));
+				Set<Xref> ensemblIds = new HashSet<Xref>();
+				for(Set<Xref> set : ensembl.values()) ensemblIds.addAll(set);
+				Utils.prefetch(idMapper, ensemblIds, DataSource.getBySystemCode("L"));
+			}
+		});
+		prefetcher.prefetch(miRNAs, DataSource.getBySystemCode("Mbm"), DataSource.getBySystemCode("Mb"));
+	}
+	
+	/**
+	 * creates the gene node for the first row with a gene id,
+	 * later rows get the same node id
+	 */
+	private String resolveGeneNode(String[] r, Map<String, String> resolved) {
+		String raw = r[index.get("Gene ID")];
+		if(resolved.containsKey(raw)) return resolved.get(raw);
+		String id = createGeneNode(r);
+		resolved.put(raw, id);
+		return id;
+	}
+	
+	private String resolveMiRNANode(String[] r, Map<String, String> resolved) {
+		String raw = r[index.get("miRNA")];
+		if(resolved.containsKey(raw)) return resolved.get(raw);
+		String id = createMiRNANode(r);
+		resolved.put(raw, id);
+		return id;
+	}
+	
 	private String createGeneNode(String[] r) {
 		String geneName = r[index.get("Gene Symbol")];
 		String geneId = r[index.get("Gene ID")];
@@ -3,6 +3,7 @@ package cytargetlinker.conversion;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,7 +12,6 @@ import java.util.logging.Logger;
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
-import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 import org.pathvisio.core.model.Pathway;
 
@@ -25,7 +25,7 @@ import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesIn;
 import cytargetlinker.conversion.utils.ArgsParser.AFilesOut;
 import cytargetlinker.conversion.utils.ArgsParser.AHelp;
-import cytargetlinker.conversion.utils.ArgsParser.GraphBuilder;
+import cytargetlinker.conversion.utils.ArgsParser.StreamingGraphBuilder;
 
 public class WP2XgmmlConverter {
 
@@ -68,7 +68,7 @@ public class WP2XgmmlConverter {
 		foundConnections = new ArrayList<String>();
 	}
 	
-	private IDMapperStack gdb;
+	private IDMapper gdb;
 	private Graph graph;
 	private Map<String, List<String>> edges;
 	
@@ -81,19 +81,23 @@ public class WP2XgmmlConverter {
 		File in = pargs.getInput();
 		if(in != null) {
 			Utils.setUpLogger(log, getLogFile(), false);
-			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs.getBridgeDbFiles(), false);
+			if(pargs.isBridgeDbFiles()) gdb = Utils.initIDMapper(pargs);
 			if(gdb == null) {
 				mapping = false;
 				log.info("no identifier mapping");
 			}
 			log.info("Conversion of WikiPathways collection started\n");
 
-			ArgsParser.convertAndWrite(pargs, pargs, new GraphBuilder() {
+			ArgsParser.convertAndWrite(pargs, pargs, new StreamingGraphBuilder() {
 				public Graph buildGraph(File in) throws Exception {
-					return parseWikiPathways(in);
+					return parseWikiPathways(in, null);
+				}
+				public Graph buildGraph(File in, Graph.Listener listener) throws Exception {
+					return parseWikiPathways(in, listener);
 				}
 			});
 				
+			Utils.closeIDMapper(log, gdb);
 			log.info("WikiPathways association network file created.\n\n");
 		} else {
 			System.out.println("Please specify input file!");
@@ -108,8 +112,9 @@ public class WP2XgmmlConverter {
 		}
 	}
 	
-	private Graph parseWikiPathways(File in) {
+	private Graph parseWikiPathways(File in, Graph.Listener listener) {
 		graph = new Graph();
+		graph.setListener(listener);
 		
 		setNetworkAttributes(in);
 		parsePathwayCollection(in);
@@ -131,6 +136,7 @@ public class WP2XgmmlConverter {
 					
 					log.info("Start conversion of pathway " + title + "\n");
 					createPathwayNode(pathway.getSourceFile().getName(), title);
+					prefetchMappings(pathway.getDataNodeXrefs());
 					for(Xref xref : pathway.getDataNodeXrefs()) {
 						if(xref != null &&  xref.getId() != null && xref.getDataSource() != null && !xref.getId().equals("") && !xref.getDataSource().equals("")) {
 							Set<Xref> result = gdb.mapID(xref, DataSource.getBySystemCode(getSysCodeIn()));
@@ -152,16 +158,37 @@ public class WP2XgmmlConverter {
 		}
 	}
 	
+	/**
+	 * maps the xrefs of a pathway in batches before the gene nodes are created
+	 */
+	private void prefetchMappings(List<Xref> xrefs) {
+		Set<Xref> refs = new HashSet<Xref>();
+		for(Xref xref : xrefs) {
+			if(xref != null && xref.getId() != null && xref.getDataSource() != null && !xref.getId().equals("")) {
+				refs.add(xref);
+				Utils.countOccurrences(gdb, xref, 1);
+			}
+		}
+		Map<Xref, Set<Xref>> genes = Utils.prefetch(gdb, refs, DataSource.getBySystemCode(getSysCodeIn()));
+		if(mapping) {
+			Set<Xref> ensembl = new HashSet<Xref>();
+			for(Set<Xref> set : genes.values()) {
+				for(Xref x : set) ensembl.add(new Xref(x.getId(), DataSource.getBySystemCode("En")));
+			}
+			Utils.prefetch(gdb, ensembl, DataSource.getBySystemCode("L"));
+		}
+	}
+	
 	private void addEdge(String gene, String pathway) {
 		if(edges.containsKey(gene)) {
 			if(!edges.get(gene).contains(pathway)) {
-				graph.addEdge("" + countEdge, graph.getNode(pathway),graph.getNode(gene));
+				graph.finish(graph.addEdge("" + countEdge, graph.getNode(pathway),graph.getNode(gene)));
 				edges.get(gene).add(pathway);
 				foundConnections.add(gene + "\t" + pathway);
 				countEdge++;
 			}
 		} else {
-			graph.addEdge("" + countEdge, graph.getNode(pathway),graph.getNode(gene));
+			graph.finish(graph.addEdge("" + countEdge, graph.getNode(pathway),graph.getNode(gene)));
 			List<String> list = new ArrayList<String>();
 			list.add(pathway);
 			foundConnections.add(gene + "\t" + pathway);
@@ -213,6 +240,7 @@ public class WP2XgmmlConverter {
 			node.appendAttribute("ensemblID", ensembl);
 			node.appendAttribute("entrezGeneID", entrez);
 			node.appendAttribute("geneid", geneId);
+			graph.finish(node);
 			countGene++;
 		}
 	}
@@ -229,6 +257,7 @@ public class WP2XgmmlConverter {
 			node.appendAttribute("name", name);
 			
 			node.appendAttribute("biologicalType", type);
+			graph.finish(node);
 			countPathway++;
 			return node;
 		} else {
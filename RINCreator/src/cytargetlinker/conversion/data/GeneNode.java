@@ -56,8 +56,14 @@ public class GeneNode {
 		return node;
 	}
 
+	/**
+	 * @return the node in the graph, it is only created and filled once,
+	 * so a node that is already written is not changed
+	 */
 	public Node getNode(Graph graph) {
-		Node node = graph.addNode(getId());
+		Node node = graph.getNode(getId());
+		if(node != null) return node;
+		node = graph.addNode(getId());
 		node.appendAttribute("identifiers", getIdentifiers());
 		node.appendAttribute("label", getLabel());
 		node.appendAttribute("name", getLabel());
@@ -2,6 +2,7 @@ package cytargetlinker.conversion.data;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.bridgedb.DataSource;
@@ -11,6 +12,7 @@ import org.bridgedb.Xref;
 
 import cytargetlinker.conversion.graph.Graph;
 import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.utils.Utils;
 
 public class MiRNANode {
 
@@ -26,11 +28,12 @@ public class MiRNANode {
 	public static MiRNANode createMiRNANode(String name, IDMapper mapper, DataSource in) {
 		Xref xrefIn = new Xref(name, in);
 		try {
-			Set<Xref> result = mapper.mapID(xrefIn, DataSource.getBySystemCode("Mbm"));
+			Map<DataSource, Set<Xref>> mapped = Utils.mapByDataSource(mapper, xrefIn, DataSource.getBySystemCode("Mbm"), DataSource.getBySystemCode("Mb"));
+			Set<Xref> result = mapped.get(DataSource.getBySystemCode("Mbm"));
 			if(result.size() == 1) {
 				MiRNANode node = new MiRNANode();
 				node.setId(result.iterator().next().getId());
-				Set<Xref> names = mapper.mapID(xrefIn, DataSource.getBySystemCode("Mb"));
+				Set<Xref> names = mapped.get(DataSource.getBySystemCode("Mb"));
 				for(Xref x : names) {
 					if(!node.getNames().contains(x.getId())) node.getNames().add(x.getId());
 				}
@@ -43,8 +46,14 @@ public class MiRNANode {
 		return null;
 	}
 	
+	/**
+	 * @return the node in the graph, it is only created and filled once,
+	 * so a node that is already written is not changed
+	 */
 	public Node getNode(Graph graph) {
-		Node node = graph.addNode(getId());
+		Node node = graph.getNode(getId());
+		if(node != null) return node;
+		node = graph.addNode(getId());
 		node.appendAttribute("identifiers", getIdentifiers());
 		node.appendAttribute("label", getLabel());
 		node.appendAttribute("name", getLabel());
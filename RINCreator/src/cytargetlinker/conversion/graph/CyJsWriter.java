@@ -0,0 +1,115 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes a graph in the Cytoscape.js JSON format
+ * ({"data": {...}, "elements": {"nodes": [...], "edges": [...]}}),
+ * which can be loaded by Cytoscape.js and imported by Cytoscape 3.
+ * @author Thomas
+ */
+public class CyJsWriter implements GraphWriter {
+	final static String NL = "\n";
+
+	private boolean firstNode = true;
+	private boolean firstEdge = true;
+
+	public String getFormat() {
+		return "cyjs";
+	}
+
+	public String[] getExtensions() {
+		return new String[] { "cyjs", "json" };
+	}
+
+	public boolean needsCompleteGraph() {
+		return false;
+	}
+
+	public boolean writesNodes() {
+		return true;
+	}
+
+	public void startGraph(Graph graph, PrintWriter out) throws IOException {
+		out.write("{" + NL);
+		out.write("  \"data\" : {");
+		writeString(out, "name", graph.getTitle(), true);
+		writeAttributes(out, graph, "name");
+		out.write("}," + NL);
+		out.write("  \"elements\" : {" + NL);
+		out.write("    \"nodes\" : [");
+	}
+
+	public void writeNode(Node node, PrintWriter out) throws IOException {
+		out.write(firstNode ? NL : "," + NL);
+		firstNode = false;
+		out.write("      { \"data\" : {");
+		writeString(out, "id", node.getId(), true);
+		writeAttributes(out, node, "id");
+		out.write("} }");
+	}
+
+	public void startEdges(PrintWriter out) {
+		out.write(NL + "    ]," + NL);
+		out.write("    \"edges\" : [");
+	}
+
+	public void writeEdge(Edge edge, PrintWriter out) throws IOException {
+		out.write(firstEdge ? NL : "," + NL);
+		firstEdge = false;
+		out.write("      { \"data\" : {");
+		writeString(out, "id", edge.getId(), true);
+		writeString(out, "source", edge.getSrc().getId(), false);
+		writeString(out, "target", edge.getTgt().getId(), false);
+		writeAttributes(out, edge, "id", "source", "target");
+		out.write("} }");
+	}
+
+	public void endGraph(Graph graph, PrintWriter out) {
+		out.write(NL + "    ]" + NL);
+		out.write("  }" + NL);
+		out.write("}" + NL);
+	}
+
+	/**
+	 * Writes the attributes after the keys that are already written,
+	 * attributes with the name of such a key are skipped. JSON has no
+	 * NaN or infinity, those numbers are written as strings.
+	 */
+	private static void writeAttributes(PrintWriter out, AttributeHolder attr, String... written) throws IOException {
+		for(String a : attr.getAttributeNames()) {
+			Object v = attr.getAttribute(a);
+			if(v == null || Arrays.asList(written).contains(a)) continue;
+			if(v instanceof Number && isFinite((Number)v)) {
+				out.write(", ");
+				writeQuoted(out, a);
+				out.write(" : " + v);
+			} else {
+				writeString(out, a, v.toString(), false);
+			}
+		}
+	}
+
+	private static boolean isFinite(Number n) {
+		double d = n.doubleValue();
+		return !Double.isNaN(d) && !Double.isInfinite(d);
+	}
+
+	private static void writeString(PrintWriter out, String name, String value, boolean first) throws IOException {
+		if(!first) out.write(", ");
+		writeQuoted(out, name);
+		out.write(" : ");
+		writeQuoted(out, value);
+	}
+
+	private static void writeQuoted(PrintWriter out, String s) throws IOException {
+		out.write('"');
+		Escaper.JSON.write(out, s);
+		out.write('"');
+	}
+}
@@ -0,0 +1,204 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Loads a graph into a new embedded Derby database with the tables
+ * NODES (NID, ID), EDGES (EID, ID, SRC, TGT), GRAPH_ATTRIBUTES (NAME, VAL),
+ * NODE_ATTRIBUTES (NID, NAME, VAL) and EDGE_ATTRIBUTES (EID, NAME, VAL).
+ * SRC and TGT refer to NODES.NID. For example the targets of a miRNA are
+ * found with:
+ *
+ * SELECT t.ID FROM NODES s JOIN EDGES e ON e.SRC = s.NID
+ * JOIN NODES t ON t.NID = e.TGT WHERE s.ID = 'hsa-miR-22'
+ *
+ * The rows are inserted and committed in batches, the keys and indexes
+ * are created after all rows are loaded. Attribute values are CLOBs, ids
+ * and attribute names that are too long for their column are truncated
+ * (with a warning), so NODES.ID is only unique for ids up to 512
+ * characters. If the load fails the incomplete database is deleted.
+ * @author Thomas
+ */
+public class DerbyExporter {
+	private final static Logger log = Logger.getLogger(DerbyExporter.class.getName());
+
+	public static final int BATCH_SIZE = 5000;
+
+	private static final int MAX_ID = 512;
+	private static final int MAX_NAME = 256;
+
+	private static final String[] TABLES = {
+		"CREATE TABLE NODES (NID INTEGER NOT NULL, ID VARCHAR(" + MAX_ID + ") NOT NULL)",
+		"CREATE TABLE EDGES (EID INTEGER NOT NULL, ID VARCHAR(" + MAX_ID + ") NOT NULL, SRC INTEGER NOT NULL, TGT INTEGER NOT NULL)",
+		"CREATE TABLE GRAPH_ATTRIBUTES (NAME VARCHAR(" + MAX_NAME + ") NOT NULL, VAL CLOB)",
+		"CREATE TABLE NODE_ATTRIBUTES (NID INTEGER NOT NULL, NAME VARCHAR(" + MAX_NAME + ") NOT NULL, VAL CLOB)",
+		"CREATE TABLE EDGE_ATTRIBUTES (EID INTEGER NOT NULL, NAME VARCHAR(" + MAX_NAME + ") NOT NULL, VAL CLOB)",
+	};
+
+	private static final String[] INDEXES = {
+		"ALTER TABLE NODES ADD PRIMARY KEY (NID)",
+		"ALTER TABLE EDGES ADD PRIMARY KEY (EID)",
+		"CREATE INDEX NODES_ID ON NODES (ID)",
+		"CREATE INDEX EDGES_SRC ON EDGES (SRC)",
+		"CREATE INDEX EDGES_TGT ON EDGES (TGT)",
+		"CREATE INDEX NODE_ATTRIBUTES_NID ON NODE_ATTRIBUTES (NID)",
+		"CREATE INDEX NODE_ATTRIBUTES_NAME ON NODE_ATTRIBUTES (NAME)",
+		"CREATE INDEX EDGE_ATTRIBUTES_EID ON EDGE_ATTRIBUTES (EID)",
+		"CREATE INDEX EDGE_ATTRIBUTES_NAME ON EDGE_ATTRIBUTES (NAME)",
+	};
+
+	/**
+	 * Writes the graph to a new database in the given directory.
+	 */
+	public void export(Graph graph, File dir) throws IOException, SQLException {
+		if(dir.exists()) throw new IOException("Database " + dir + " already exists");
+
+		String url = "jdbc:derby:" + dir.getAbsolutePath();
+		Connection con = DriverManager.getConnection(url + ";create=true");
+		boolean done = false;
+		truncated = 0;
+		try {
+			con.setAutoCommit(false);
+			execute(con, TABLES);
+			con.commit();
+			load(con, graph);
+			execute(con, INDEXES);
+			con.commit();
+			done = true;
+		} finally {
+			if(!done) con.rollback();
+			con.close();
+			shutdown(url);
+			if(!done) FileUtils.deleteQuietly(dir);
+		}
+		if(truncated > 0) {
+			log.warning(truncated + " ids or attribute names were longer than their column (" + MAX_ID + " or " + MAX_NAME + " characters) and were truncated");
+		}
+	}
+
+	private int truncated;
+
+	/**
+	 * @return the value, truncated to max characters
+	 */
+	private String truncate(String value, int max) {
+		if(value.length() <= max) return value;
+		truncated++;
+		return value.substring(0, max);
+	}
+
+	private void load(Connection con, Graph graph) throws SQLException {
+		Batch graphAttr = new Batch(con, "INSERT INTO GRAPH_ATTRIBUTES VALUES (?, ?)");
+		for(String name : graph.getAttributeNames()) {
+			Object v = graph.getAttribute(name);
+			if(v == null) continue;
+			graphAttr.statement.setString(1, truncate(name, MAX_NAME));
+			graphAttr.statement.setString(2, v.toString());
+			graphAttr.add();
+		}
+		graphAttr.close();
+
+		Map<Node, Integer> nids = new HashMap<Node, Integer>();
+		Batch nodes = new Batch(con, "INSERT INTO NODES VALUES (?, ?)");
+		Batch nodeAttr = new Batch(con, "INSERT INTO NODE_ATTRIBUTES VALUES (?, ?, ?)");
+		for(Node n : graph.getNodes()) {
+			int nid = nids.size();
+			nids.put(n, nid);
+			nodes.statement.setInt(1, nid);
+			nodes.statement.setString(2, truncate(n.getId(), MAX_ID));
+			nodes.add();
+			writeAttributes(nodeAttr, nid, n);
+		}
+		nodes.close();
+		nodeAttr.close();
+
+		Batch edges = new Batch(con, "INSERT INTO EDGES VALUES (?, ?, ?, ?)");
+		Batch edgeAttr = new Batch(con, "INSERT INTO EDGE_ATTRIBUTES VALUES (?, ?, ?)");
+		int eid = 0;
+		for(Edge e : graph.getEdges()) {
+			edges.statement.setInt(1, eid);
+			edges.statement.setString(2, truncate(e.getId(), MAX_ID));
+			edges.statement.setInt(3, nids.get(e.getSrc()));
+			edges.statement.setInt(4, nids.get(e.getTgt()));
+			edges.add();
+			writeAttributes(edgeAttr, eid, e);
+			eid++;
+		}
+		edges.close();
+		edgeAttr.close();
+	}
+
+	private void writeAttributes(Batch batch, int id, AttributeHolder attr) throws SQLException {
+		for(String name : attr.getAttributeNames()) {
+			Object v = attr.getAttribute(name);
+			if(v == null) continue;
+			batch.statement.setInt(1, id);
+			batch.statement.setString(2, truncate(name, MAX_NAME));
+			batch.statement.setString(3, v.toString());
+			batch.add();
+		}
+	}
+
+	private static void execute(Connection con, String[] sql) throws SQLException {
+		Statement st = con.createStatement();
+		try {
+			for(String s : sql) st.execute(s);
+		} finally {
+			st.close();
+		}
+	}
+
+	private static void shutdown(String url) {
+		try {
+			DriverManager.getConnection(url + ";shutdown=true");
+		} catch(SQLException e) {
+			// Derby always reports a shutdown with an exception
+		}
+	}
+
+	/**
+	 * A prepared insert that is executed and committed every BATCH_SIZE
+	 * rows, so the transaction log stays small.
+	 */
+	private static class Batch {
+		final Connection con;
+		final PreparedStatement statement;
+		int size = 0;
+
+		Batch(Connection con, String sql) throws SQLException {
+			this.con = con;
+			statement = con.prepareStatement(sql);
+		}
+
+		void add() throws SQLException {
+			statement.addBatch();
+			if(++size == BATCH_SIZE) {
+				statement.executeBatch();
+				con.commit();
+				size = 0;
+			}
+		}
+
+		void close() throws SQLException {
+			if(size > 0) {
+				statement.executeBatch();
+				con.commit();
+			}
+			statement.close();
+		}
+	}
+}
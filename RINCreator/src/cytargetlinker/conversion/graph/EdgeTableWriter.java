@@ -0,0 +1,79 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes the edges of a graph as a tab separated table with a header line:
+ * source, target and one column per edge attribute.
+ *
+ * The attribute columns are taken from all edges in the graph when the
+ * first edge is written, so the table is only written for complete graphs.
+ * @author Thomas
+ */
+public class EdgeTableWriter implements GraphWriter {
+	private Graph graph;
+	private List<String> columns;
+
+	public String getFormat() {
+		return "edges";
+	}
+
+	public String[] getExtensions() {
+		return new String[] { "tsv", "tab" };
+	}
+
+	public boolean needsCompleteGraph() {
+		return true;
+	}
+
+	public boolean writesNodes() {
+		return false;
+	}
+
+	public void startGraph(Graph graph, PrintWriter out) {
+		this.graph = graph;
+	}
+
+	public void writeNode(Node node, PrintWriter out) {
+	}
+
+	public void startEdges(PrintWriter out) {
+	}
+
+	public void writeEdge(Edge edge, PrintWriter out) {
+		if(columns == null) writeHeader(edge, out);
+
+		out.print(Escaper.TSV.escape(edge.getSrc().getId()));
+		out.print('\t');
+		out.print(Escaper.TSV.escape(edge.getTgt().getId()));
+		for(String c : columns) {
+			Object v = edge.getAttribute(c);
+			out.print('\t');
+			if(v != null) out.print(Escaper.TSV.escape(v.toString()));
+		}
+		out.print('\n');
+	}
+
+	public void endGraph(Graph graph, PrintWriter out) {
+	}
+
+	private void writeHeader(Edge first, PrintWriter out) {
+		Set<String> names = new TreeSet<String>(first.getAttributeNames());
+		for(Edge e : graph.getEdges()) names.addAll(e.getAttributeNames());
+		columns = new ArrayList<String>(names);
+
+		out.print("source\ttarget");
+		for(String c : columns) {
+			out.print('\t');
+			out.print(Escaper.TSV.escape(c));
+		}
+		out.print('\n');
+	}
+}
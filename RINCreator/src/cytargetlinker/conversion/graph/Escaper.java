@@ -0,0 +1,137 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Table-driven sanitizer and escaper shared by all network writers.
+ *
+ * Each instance holds a replacement table for the ASCII range: a null entry
+ * keeps the character, an empty entry drops it and any other entry replaces
+ * it. Characters outside the ASCII range are only checked for XML validity
+ * (http://www.w3.org/TR/2000/REC-xml-20001006#NT-Char), invalid ones are
+ * dropped. Strings that do not need any change are returned as they are.
+ *
+ * @author Thomas
+ */
+public final class Escaper {
+	/** Only removes characters that are not allowed in XML documents. */
+	public static final Escaper SANITIZE = new Escaper(new String[][] {});
+
+	/** Escapes XML attribute values (the same way JDOM does). */
+	public static final Escaper XML = new Escaper(new String[][] {
+		{ "&", "&amp;" }, { "<", "&lt;" }, { ">", "&gt;" }, { "\"", "&quot;" },
+		{ "\t", "&#x9;" }, { "\n", "&#xA;" }, { "\r", "&#xD;" }
+	});
+
+	/** GML strings can't contain quotes, they are removed. */
+	public static final Escaper GML = new Escaper(new String[][] {
+		{ "\"", "" }
+	});
+
+	/** Tab separated fields can't contain tabs or line breaks. */
+	public static final Escaper TSV = new Escaper(new String[][] {
+		{ "\t", " " }, { "\n", " " }, { "\r", " " }
+	});
+
+	/** Escapes JSON string contents. */
+	public static final Escaper JSON = new Escaper(new String[][] {
+		{ "\"", "\\\"" }, { "\\", "\\\\" }, { "\t", "\\t" }, { "\n", "\\n" }, { "\r", "\\r" }
+	});
+
+	private final String[] ascii = new String[128];
+
+	private Escaper(String[][] replacements) {
+		for(int c = 0; c < 0x20; c++) {
+			if(c != 0x9 && c != 0xA && c != 0xD) ascii[c] = "";
+		}
+		for(String[] r : replacements) {
+			ascii[r[0].charAt(0)] = r[1];
+		}
+	}
+
+	/**
+	 * @return the escaped string, or s itself if no character
+	 * needed to be changed
+	 */
+	public String escape(String s) {
+		if(s == null) return null;
+		int n = s.length();
+		int i = firstChange(s, 0, n);
+		if(i == n) return s;
+
+		StringBuilder out = new StringBuilder(n + 16);
+		out.append(s, 0, i);
+		while(i < n) {
+			char c = s.charAt(i);
+			if(c < 128) {
+				String r = ascii[c];
+				if(r == null) out.append(c);
+				else out.append(r);
+				i++;
+			} else {
+				int len = validLength(s, i, n);
+				if(len > 0) out.append(s, i, i + len);
+				i += len == 0 ? 1 : len;
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes the escaped string to out without creating an intermediate
+	 * string, unchanged runs of characters are written in one call.
+	 */
+	public void write(Writer out, String s) throws IOException {
+		if(s == null) return;
+		int n = s.length();
+		int start = 0;
+		while(start < n) {
+			int i = firstChange(s, start, n);
+			if(i > start) out.write(s, start, i - start);
+			if(i == n) break;
+			char c = s.charAt(i);
+			if(c < 128) {
+				out.write(ascii[c]);
+				start = i + 1;
+			} else {
+				// invalid character outside the ASCII range, drop it
+				start = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * Finds the position of the first character that needs to be changed.
+	 * @return end if the string does not need to be changed
+	 */
+	private int firstChange(String s, int start, int end) {
+		int i = start;
+		while(i < end) {
+			char c = s.charAt(i);
+			if(c < 128) {
+				if(ascii[c] != null) return i;
+				i++;
+			} else {
+				int len = validLength(s, i, end);
+				if(len == 0) return i;
+				i += len;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * @return the number of chars of the valid non-ASCII character at i
+	 * (2 for a surrogate pair), or 0 if it is not allowed in XML
+	 */
+	private static int validLength(String s, int i, int end) {
+		char c = s.charAt(i);
+		if(c < 0xD800) return 1;
+		if(c <= 0xDBFF) {
+			return i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1)) ? 2 : 0;
+		}
+		if(c <= 0xDFFF) return 0;
+		return c == 0xFFFE || c == 0xFFFF ? 0 : 1;
+	}
+}
@@ -1,70 +1,103 @@
 package cytargetlinker.conversion.graph;
 
+import java.io.IOException;
 import java.io.PrintWriter;
-
-import org.freehep.util.io.IndentPrintWriter;
+import java.util.HashMap;
+import java.util.Map;
 
 import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.graph.Graph.Node;
 
 /**
- * 
+ * Writes a graph as GML. Nodes get dense sequential integer ids (0, 1, 2, ...)
+ * in the order they are first seen, edges refer to the same ids.
  * @author Thomas
  *
  */
-public class GmlWriter {
-	public static void write(Graph graph, PrintWriter out) {
-		IndentPrintWriter iout = new IndentPrintWriter(out);
-		iout.setIndentString("\t");
-		int indent = 0;
-		
-		iout.println("graph [");
-		iout.setIndent(++indent);
+public class GmlWriter implements GraphWriter {
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
 
-		//Print nodes and attributes
-		for(Node n : graph.getNodes()) {
-			iout.println("node [");
-			iout.setIndent(++indent);
-			iout.println("id\t" + n.hashCode());
-			iout.println("identifier\t" + '"' + n.getId() + '"');
-			printAttributes(iout, n);
-			iout.setIndent(--indent);
-			iout.println("]");
-		}
-		//Print edges and attributes
-		for(Edge e : graph.getEdges()) {
-			iout.println("edge [");
-			iout.setIndent(++indent);
-			String srcS = e.getSrc().getId();
-			String tgtS = e.getTgt().getId();
-			int src = srcS.hashCode();
-			int tgt = tgtS.hashCode();
-			iout.println("source\t"  + src);
-			iout.println("target\t"  + tgt);
-			iout.println("id\t" + '"' + (src > tgt ? tgt + "," + src : src + "," + tgt) + '"');
-			iout.println("identifier\t" + '"' + (src > tgt ? tgtS + "," + srcS : srcS + "," + tgtS) + '"');
-			printAttributes(iout, e);
-			iout.setIndent(--indent);
-			iout.println("]");
+	public static void write(Graph graph, PrintWriter out) throws IOException {
+		GraphWriters.write(new GmlWriter(), graph, out);
+	}
+
+	public String getFormat() {
+		return "gml";
+	}
+
+	public String[] getExtensions() {
+		return new String[] { "gml" };
+	}
+
+	public boolean needsCompleteGraph() {
+		return false;
+	}
+
+	public boolean writesNodes() {
+		return true;
+	}
+
+	public void startGraph(Graph graph, PrintWriter out) {
+		out.println("graph [");
+	}
+
+	//Print nodes and attributes
+	public void writeNode(Node n, PrintWriter out) {
+		out.println("\tnode [");
+		out.println("\t\tid\t" + getOrdinal(n.getId()));
+		out.println("\t\tidentifier\t" + '"' + Escaper.GML.escape(n.getId()) + '"');
+		printAttributes(out, n, "\t\t");
+		out.println("\t]");
+	}
+
+	public void startEdges(PrintWriter out) {
+	}
+
+	//Print edges and attributes
+	public void writeEdge(Edge e, PrintWriter out) {
+		out.println("\tedge [");
+		String srcS = e.getSrc().getId();
+		String tgtS = e.getTgt().getId();
+		int src = getOrdinal(srcS);
+		int tgt = getOrdinal(tgtS);
+		srcS = Escaper.GML.escape(srcS);
+		tgtS = Escaper.GML.escape(tgtS);
+		out.println("\t\tsource\t"  + src);
+		out.println("\t\ttarget\t"  + tgt);
+		out.println("\t\tid\t" + '"' + (src > tgt ? tgt + "," + src : src + "," + tgt) + '"');
+		out.println("\t\tidentifier\t" + '"' + (src > tgt ? tgtS + "," + srcS : srcS + "," + tgtS) + '"');
+		printAttributes(out, e, "\t\t");
+		out.println("\t]");
+	}
+
+	//Print network attributes
+	public void endGraph(Graph graph, PrintWriter out) {
+		printAttributes(out, graph, "\t");
+		out.println("]");
+	}
+
+	/**
+	 * @return the id of the node, a new one if the node wasn't seen yet
+	 */
+	private int getOrdinal(String nodeId) {
+		Integer id = ids.get(nodeId);
+		if(id == null) {
+			id = ids.size();
+			ids.put(nodeId, id);
 		}
-		//Print network attributes
-		printAttributes(iout, graph);
-		iout.setIndent(--indent);
-		iout.println("]");
+		return id;
 	}
-	
-	private static void printAttributes(PrintWriter out, AttributeHolder attributes) {
+
+	private static void printAttributes(PrintWriter out, AttributeHolder attributes, String indent) {
 		for(String k : attributes.getAttributeNames()) {
 			//Find out if this is a number
 			Object v = attributes.getAttribute(k);
 			if(v == null || "".equals(v)) continue; //Skip empty attributes
 			boolean isNumber = v instanceof Number;
 			if(!isNumber) {
-				String s = v.toString();
-				s = s.replaceAll("\"", "");
-				v = '"' + s + '"';
+				v = '"' + Escaper.GML.escape(v.toString()) + '"';
 			}
-			out.println(k + "\t" + v);
+			out.println(indent + k + "\t" + v);
 		}
 	}
 }
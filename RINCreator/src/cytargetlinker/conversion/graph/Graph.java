@@ -14,6 +14,36 @@ public class Graph extends AttributeHolder {
 	
 	Map<String, Node> nodes = new HashMap<String, Node>();
 	Map<String, Edge> edges = new HashMap<String, Edge>();
+	
+	Listener listener;
+	
+	/**
+	 * Gets notified when a converter is done with a node or edge,
+	 * so it can be written while the rest of the graph is built.
+	 */
+	public interface Listener {
+		public void nodeFinished(Graph graph, Node node);
+		public void edgeFinished(Graph graph, Edge edge);
+	}
+	
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Marks the node as complete: its attributes will not change anymore.
+	 * Nodes that are never marked are handled when the graph is complete.
+	 */
+	public void finish(Node node) {
+		if(listener != null) listener.nodeFinished(this, node);
+	}
+	
+	/**
+	 * Marks the edge as complete: its attributes will not change anymore.
+	 */
+	public void finish(Edge edge) {
+		if(listener != null) listener.edgeFinished(this, edge);
+	}
 
 	public void setTitle(String title) {
 		this.title = title;
@@ -0,0 +1,113 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes a graph as GraphML (http://graphml.graphdrawing.org).
+ *
+ * GraphML needs all attribute keys to be declared before the graph, they
+ * are collected from the graph when writing starts, so it is only written
+ * for complete graphs.
+ * @author Thomas
+ */
+public class GraphMLWriter implements GraphWriter {
+	final static String NS = "http://graphml.graphdrawing.org/xmlns";
+	final static String NL = "\n";
+
+	private Map<String, String> graphKeys = new LinkedHashMap<String, String>();
+	private Map<String, String> nodeKeys = new LinkedHashMap<String, String>();
+	private Map<String, String> edgeKeys = new LinkedHashMap<String, String>();
+
+	public String getFormat() {
+		return "graphml";
+	}
+
+	public String[] getExtensions() {
+		return new String[] { "graphml" };
+	}
+
+	public boolean needsCompleteGraph() {
+		return true;
+	}
+
+	public boolean writesNodes() {
+		return true;
+	}
+
+	public void startGraph(Graph graph, PrintWriter out) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + NL);
+		out.write("<graphml xmlns=\"" + NS + "\">" + NL);
+
+		addKeys(graphKeys, "g", graph);
+		for(Node n : graph.getNodes()) addKeys(nodeKeys, "n", n);
+		for(Edge e : graph.getEdges()) addKeys(edgeKeys, "e", e);
+		writeKeys(out, graphKeys, "graph");
+		writeKeys(out, nodeKeys, "node");
+		writeKeys(out, edgeKeys, "edge");
+
+		out.write("  <graph");
+		XGMMLWriter.writeAttribute(out, "id", graph.getTitle());
+		out.write(" edgedefault=\"directed\">" + NL);
+		writeData(out, graphKeys, graph, "    ");
+	}
+
+	public void writeNode(Node node, PrintWriter out) throws IOException {
+		out.write("    <node");
+		XGMMLWriter.writeAttribute(out, "id", node.getId());
+		out.write(">" + NL);
+		writeData(out, nodeKeys, node, "      ");
+		out.write("    </node>" + NL);
+	}
+
+	public void startEdges(PrintWriter out) {
+	}
+
+	public void writeEdge(Edge edge, PrintWriter out) throws IOException {
+		out.write("    <edge");
+		XGMMLWriter.writeAttribute(out, "id", edge.getId());
+		XGMMLWriter.writeAttribute(out, "source", edge.getSrc().getId());
+		XGMMLWriter.writeAttribute(out, "target", edge.getTgt().getId());
+		out.write(">" + NL);
+		writeData(out, edgeKeys, edge, "      ");
+		out.write("    </edge>" + NL);
+	}
+
+	public void endGraph(Graph graph, PrintWriter out) {
+		out.write("  </graph>" + NL);
+		out.write("</graphml>" + NL);
+	}
+
+	private static void addKeys(Map<String, String> keys, String prefix, AttributeHolder attr) {
+		for(String a : attr.getAttributeNames()) {
+			if(!keys.containsKey(a)) keys.put(a, prefix + keys.size());
+		}
+	}
+
+	private static void writeKeys(PrintWriter out, Map<String, String> keys, String domain) throws IOException {
+		for(String a : keys.keySet()) {
+			out.write("  <key");
+			XGMMLWriter.writeAttribute(out, "id", keys.get(a));
+			XGMMLWriter.writeAttribute(out, "for", domain);
+			XGMMLWriter.writeAttribute(out, "attr.name", a);
+			XGMMLWriter.writeAttribute(out, "attr.type", "string");
+			out.write("/>" + NL);
+		}
+	}
+
+	private static void writeData(PrintWriter out, Map<String, String> keys, AttributeHolder attr, String indent) throws IOException {
+		for(String a : attr.getAttributeNames()) {
+			Object v = attr.getAttribute(a);
+			String key = keys.get(a);
+			if(v == null || key == null) continue;
+			out.write(indent + "<data key=\"" + key + "\">");
+			Escaper.XML.write(out, v.toString());
+			out.write("</data>" + NL);
+		}
+	}
+}
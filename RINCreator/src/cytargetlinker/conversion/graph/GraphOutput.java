@@ -0,0 +1,118 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * One output file together with the {@link GraphWriter} that encodes it.
+ * Several outputs can be fed from a single iteration over a graph,
+ * see {@link GraphWriters#write(Graph, java.util.List)}.
+ *
+ * The output is written to a temporary file next to the output file,
+ * which is opened when the graph starts and renamed to the output file
+ * when the graph ends. If the conversion fails the output is aborted and
+ * an existing output file is left as it was.
+ * @author Thomas
+ */
+public class GraphOutput {
+	private final GraphWriter writer;
+	private final File file;
+	private File partFile;
+	private PrintWriter out;
+	private boolean edgesStarted = false;
+	private boolean done = false;
+	
+	private List<Edge> spool;
+
+	public GraphOutput(GraphWriter writer, File file) {
+		this.writer = writer;
+		this.file = file;
+	}
+
+	public GraphWriter getWriter() {
+		return writer;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public void startGraph(Graph graph) throws IOException {
+		partFile = File.createTempFile(file.getName() + ".", ".part", file.getAbsoluteFile().getParentFile());
+		out = GraphWriters.openWriter(partFile);
+		writer.startGraph(graph, out);
+	}
+
+	public void writeNode(Node node) throws IOException {
+		writer.writeNode(node, out);
+	}
+
+	public void writeEdge(Edge edge) throws IOException {
+		if(spool != null) {
+			spool.add(edge);
+			return;
+		}
+		if(!edgesStarted) startEdges();
+		writer.writeEdge(edge, out);
+	}
+
+	/**
+	 * Holds back all following edges, they are written after the nodes
+	 * when the graph ends. Used when nodes and edges arrive mixed but the
+	 * format needs all nodes first. The edges are only encoded then, so
+	 * writers that number the nodes as they see them (GML) write the same
+	 * file as from the complete graph. The edges are part of the graph
+	 * anyway, only the references are kept.
+	 */
+	public void spoolEdges() {
+		spool = new ArrayList<Edge>();
+	}
+
+	/**
+	 * Writes the rest of the file, closes it and replaces the output file.
+	 */
+	public void endGraph(Graph graph) throws IOException {
+		if(!edgesStarted) startEdges();
+		if(spool != null) {
+			for(Edge e : spool) writer.writeEdge(e, out);
+			spool = null;
+		}
+		writer.endGraph(graph, out);
+		close();
+		if(out.checkError()) throw new IOException("Could not write " + file);
+		if(file.exists() && !file.delete()) throw new IOException("Could not replace " + file);
+		if(!partFile.renameTo(file)) throw new IOException("Could not rename " + partFile + " to " + file);
+		done = true;
+	}
+
+	/**
+	 * Closes and deletes the temporary files if the graph was not
+	 * completely written, the output file is not changed.
+	 */
+	public void abort() {
+		if(done) return;
+		close();
+		if(partFile != null) partFile.delete();
+		partFile = null;
+	}
+
+	private void close() {
+		if(out != null) out.close();
+		spool = null;
+	}
+
+	private void startEdges() throws IOException {
+		writer.startEdges(out);
+		edgesStarted = true;
+	}
+
+	public String toString() {
+		return file + " (" + writer.getFormat() + ")";
+	}
+}
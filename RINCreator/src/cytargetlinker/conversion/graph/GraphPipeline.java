@@ -0,0 +1,178 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes a graph while it is being built. Nodes and edges the converter
+ * marks as finished (see {@link Graph#finish(Node)}) are passed through a
+ * bounded queue to a writer thread, so the conversion and the output
+ * overlap. Formats that need all nodes before the first edge hold back
+ * their edges until all nodes are known.
+ *
+ * Outputs whose writer needs the complete graph are written from
+ * {@link #finish(Graph)} as before. If the writer thread fails, the next
+ * node or edge the converter finishes throws, so the conversion stops.
+ * @author Thomas
+ */
+public class GraphPipeline implements Graph.Listener {
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private static final Object NODES_DONE = new Object();
+	private static final Object END = new Object();
+
+	private final List<GraphOutput> streaming = new ArrayList<GraphOutput>();
+	private final List<GraphOutput> complete = new ArrayList<GraphOutput>();
+	private final BlockingQueue<Object> queue;
+	private final Set<Object> emitted = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	private Thread thread;
+	private volatile Exception error;
+
+	public GraphPipeline(List<GraphOutput> outputs) {
+		this(outputs, DEFAULT_CAPACITY);
+	}
+
+	public GraphPipeline(List<GraphOutput> outputs, int capacity) {
+		for(GraphOutput o : outputs) {
+			if(o.getWriter().needsCompleteGraph()) complete.add(o);
+			else streaming.add(o);
+		}
+		queue = new ArrayBlockingQueue<Object>(capacity);
+	}
+
+	public void nodeFinished(Graph graph, Node node) {
+		checkError();
+		emit(graph, node);
+	}
+
+	public void edgeFinished(Graph graph, Edge edge) {
+		checkError();
+		emit(graph, edge);
+	}
+
+	/**
+	 * Writes the nodes and edges that were never marked as finished,
+	 * waits for the writer thread and writes the outputs that need
+	 * the complete graph.
+	 */
+	public void finish(Graph graph) throws IOException {
+		for(Node n : graph.getNodes()) emit(graph, n);
+		emit(graph, NODES_DONE);
+		for(Edge e : graph.getEdges()) emit(graph, e);
+		emit(graph, END);
+		try {
+			thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing " + streaming);
+		}
+		emitted.clear();
+
+		if(error instanceof IOException) throw (IOException)error;
+		if(error != null) throw new IOException("Could not write " + streaming, error);
+
+		GraphWriters.write(graph, complete);
+	}
+
+	/**
+	 * Stops the writer thread if the graph could not be built, the
+	 * outputs are not ended and have to be aborted by the caller.
+	 * Does nothing after {@link #finish(Graph)}.
+	 */
+	public void abort() {
+		if(thread == null) return;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		emitted.clear();
+	}
+
+	/**
+	 * Stops the converter once the outputs can't be written anymore.
+	 */
+	private void checkError() {
+		if(error != null) throw new RuntimeException("Could not write " + streaming, error);
+	}
+
+	private void emit(Graph graph, Object o) {
+		if(!emitted.add(o)) return;
+		if(thread == null) start(graph);
+		try {
+			queue.put(o);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void start(final Graph graph) {
+		thread = new Thread("graph writer") {
+			public void run() {
+				write(graph);
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Runs on the writer thread. After an error the queue is still
+	 * drained, so a converter waiting for space in the queue is not
+	 * blocked and sees the error with its next node or edge.
+	 */
+	private void write(Graph graph) {
+		boolean nodesDone = false;
+		boolean spooling = false;
+		try {
+			for(GraphOutput o : streaming) o.startGraph(graph);
+		} catch(Exception e) {
+			error = e;
+		}
+		while(true) {
+			Object o;
+			try {
+				o = queue.take();
+			} catch(InterruptedException e) {
+				if(error == null) error = e;
+				return;
+			}
+			if(o == END) break;
+			if(error != null) continue;
+			try {
+				if(o == NODES_DONE) {
+					nodesDone = true;
+				} else if(o instanceof Node) {
+					for(GraphOutput out : streaming) out.writeNode((Node)o);
+				} else {
+					if(!nodesDone && !spooling) {
+						for(GraphOutput out : streaming) {
+							if(out.getWriter().writesNodes()) out.spoolEdges();
+						}
+						spooling = true;
+					}
+					for(GraphOutput out : streaming) out.writeEdge((Edge)o);
+				}
+			} catch(Exception e) {
+				error = e;
+			}
+		}
+		if(error != null) return;
+		try {
+			for(GraphOutput out : streaming) out.endGraph(graph);
+		} catch(Exception e) {
+			error = e;
+		}
+	}
+}
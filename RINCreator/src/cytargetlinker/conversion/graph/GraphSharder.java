@@ -0,0 +1,162 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Splits a network into many small networks (shards) by the source node of
+ * the edges (the miRNA, TF, drug or pathway), either one shard per source
+ * node or a fixed number of hash buckets. Every shard is a complete network
+ * file with the edges of its sources and all nodes they connect. Nodes
+ * without edges are put in one shared shard (unconnected) with one shard
+ * per source node, and in the bucket they would have as a source node
+ * with hash buckets.
+ *
+ * A manifest (manifest.tsv) maps every source identifier to the shard
+ * file(s) it is in, so only the needed shards have to be loaded. The
+ * shared shard of the nodes without edges is not in the manifest.
+ * @author Thomas
+ */
+public class GraphSharder {
+	private final static Logger log = Logger.getLogger(GraphSharder.class.getName());
+
+	public static final String MANIFEST = "manifest.tsv";
+	public static final String UNCONNECTED = "unconnected";
+
+	private final List<String> formats;
+	private final int buckets;
+
+	/**
+	 * @param formats the formats to write every shard in
+	 * @param buckets the number of hash buckets, 0 for one shard per source node
+	 */
+	public GraphSharder(List<String> formats, int buckets) {
+		this.formats = formats;
+		this.buckets = buckets;
+	}
+
+	public void write(Graph graph, File dir) throws IOException {
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create output directory " + dir);
+		}
+
+		// group the edges by shard, and the sources by shard for the manifest
+		Map<String, List<Edge>> shardEdges = new LinkedHashMap<String, List<Edge>>();
+		Map<String, List<Node>> shardNodes = new HashMap<String, List<Node>>();
+		Map<String, String> sourceShard = new TreeMap<String, String>();
+		Set<String> usedNames = new HashSet<String>();
+		usedNames.add("manifest");
+		String unconnected = buckets > 0 ? null : UNCONNECTED;
+		if(unconnected != null) usedNames.add(unconnected);
+		Set<Node> connected = new HashSet<Node>();
+		for(Edge e : graph.getEdges()) {
+			String shard = getShard(e.getSrc().getId(), sourceShard, usedNames, shardEdges);
+			shardEdges.get(shard).add(e);
+			connected.add(e.getSrc());
+			connected.add(e.getTgt());
+		}
+		int isolated = 0;
+		for(Node n : graph.getNodes()) {
+			if(connected.contains(n)) continue;
+			String shard = unconnected;
+			if(shard == null) shard = getShard(n.getId(), sourceShard, usedNames, shardEdges);
+			else if(!shardEdges.containsKey(shard)) shardEdges.put(shard, new ArrayList<Edge>());
+			List<Node> nodes = shardNodes.get(shard);
+			if(nodes == null) {
+				nodes = new ArrayList<Node>();
+				shardNodes.put(shard, nodes);
+			}
+			nodes.add(n);
+			isolated++;
+		}
+		if(isolated > 0 && unconnected != null) log.info(isolated + " nodes without edges are in the shard " + unconnected);
+		else if(isolated > 0) log.info(isolated + " nodes without edges are sharded like source nodes");
+
+		for(String shard : shardEdges.keySet()) {
+			Graph g = createShard(graph, shard, shardEdges.get(shard), shardNodes.get(shard));
+			List<GraphOutput> outputs = new ArrayList<GraphOutput>();
+			for(String f : formats) {
+				GraphWriter writer = GraphWriters.forFormat(f);
+				outputs.add(new GraphOutput(writer, new File(dir, shard + "." + writer.getExtensions()[0])));
+			}
+			try {
+				GraphWriters.write(g, outputs);
+			} finally {
+				for(GraphOutput o : outputs) o.abort();
+			}
+		}
+
+		PrintWriter manifest = GraphWriters.openWriter(new File(dir, MANIFEST));
+		manifest.print("source\tshard\n");
+		for(String src : sourceShard.keySet()) {
+			for(String f : formats) {
+				String ext = GraphWriters.forFormat(f).getExtensions()[0];
+				manifest.print(Escaper.TSV.escape(src) + "\t" + sourceShard.get(src) + "." + ext + "\n");
+			}
+		}
+		manifest.close();
+
+		log.info("Wrote " + sourceShard.size() + " source nodes in " + shardEdges.size() + " shards to " + dir);
+	}
+
+	/**
+	 * @return the shard of a source node, a new shard is added to shardEdges
+	 */
+	private String getShard(String src, Map<String, String> sourceShard, Set<String> usedNames, Map<String, List<Edge>> shardEdges) {
+		String shard = sourceShard.get(src);
+		if(shard == null) {
+			shard = buckets > 0 ? bucketName(src) : uniqueName(src, usedNames);
+			sourceShard.put(src, shard);
+			if(!shardEdges.containsKey(shard)) shardEdges.put(shard, new ArrayList<Edge>());
+		}
+		return shard;
+	}
+
+	/**
+	 * Creates a network that shares the nodes and edges of the full network.
+	 * @param nodes the nodes without edges in the shard, may be null
+	 */
+	private Graph createShard(Graph graph, String shard, List<Edge> edges, List<Node> nodes) {
+		Graph g = new Graph();
+		g.setTitle(graph.getTitle() + " (" + shard + ")");
+		g.attributes.putAll(graph.attributes);
+		if(nodes != null) {
+			for(Node n : nodes) g.nodes.put(n.getId(), n);
+		}
+		for(Edge e : edges) {
+			g.nodes.put(e.getSrc().getId(), e.getSrc());
+			g.nodes.put(e.getTgt().getId(), e.getTgt());
+			g.edges.put(e.getId(), e);
+		}
+		return g;
+	}
+
+	private String bucketName(String src) {
+		return "shard-" + ((src.hashCode() & 0x7fffffff) % buckets);
+	}
+
+	/**
+	 * @return a file name for the source identifier that is not used yet
+	 */
+	private static String uniqueName(String src, Set<String> used) {
+		String name = src.replaceAll("[^A-Za-z0-9._-]", "_");
+		String unique = name;
+		for(int i = 1; !used.add(unique.toLowerCase()); i++) {
+			unique = name + "_" + i;
+		}
+		return unique;
+	}
+}
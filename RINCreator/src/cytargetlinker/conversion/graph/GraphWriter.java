@@ -0,0 +1,53 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes a network in one output format. Writers are streaming: they are
+ * called once for the start of the graph, once per node, once before the
+ * first edge, once per edge and once at the end. A writer instance keeps
+ * the state of one output, use a new instance per output file.
+ *
+ * Implementations are registered in
+ * META-INF/services/cytargetlinker.conversion.graph.GraphWriter and are
+ * looked up with {@link GraphWriters}.
+ * @author Thomas
+ */
+public interface GraphWriter {
+	/**
+	 * @return the name of the format, as it is given with --format
+	 */
+	public String getFormat();
+
+	/**
+	 * @return the file extensions (without dot) this writer is chosen for,
+	 * the first one is used for default file names
+	 */
+	public String[] getExtensions();
+
+	/**
+	 * @return true if the writer has to see the complete graph in
+	 * {@link #startGraph(Graph, PrintWriter)}, so it can't be written
+	 * while the graph is still being built
+	 */
+	public boolean needsCompleteGraph();
+
+	/**
+	 * @return false if the format only contains edges
+	 */
+	public boolean writesNodes();
+
+	public void startGraph(Graph graph, PrintWriter out) throws IOException;
+
+	public void writeNode(Node node, PrintWriter out) throws IOException;
+
+	public void startEdges(PrintWriter out) throws IOException;
+
+	public void writeEdge(Edge edge, PrintWriter out) throws IOException;
+
+	public void endGraph(Graph graph, PrintWriter out) throws IOException;
+}
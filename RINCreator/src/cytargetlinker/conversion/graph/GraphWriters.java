@@ -0,0 +1,91 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Looks up the available {@link GraphWriter}s and writes complete graphs.
+ * @author Thomas
+ */
+public class GraphWriters {
+	public static final String DEFAULT_FORMAT = "xgmml";
+
+	/**
+	 * Writes the whole graph: all nodes first, then all edges.
+	 */
+	public static void write(GraphWriter writer, Graph graph, PrintWriter out) throws IOException {
+		writer.startGraph(graph, out);
+		for(Node n : graph.getNodes()) writer.writeNode(n, out);
+		writer.startEdges(out);
+		for(Edge e : graph.getEdges()) writer.writeEdge(e, out);
+		writer.endGraph(graph, out);
+	}
+
+	/**
+	 * Writes the graph to several outputs at once: the graph is iterated
+	 * only once and every node and edge is handed to all writers.
+	 */
+	public static void write(Graph graph, List<GraphOutput> outputs) throws IOException {
+		for(GraphOutput o : outputs) o.startGraph(graph);
+		for(Node n : graph.getNodes()) {
+			for(GraphOutput o : outputs) o.writeNode(n);
+		}
+		for(Edge e : graph.getEdges()) {
+			for(GraphOutput o : outputs) o.writeEdge(e);
+		}
+		for(GraphOutput o : outputs) o.endGraph(graph);
+	}
+
+	/**
+	 * @return a new writer instance for the given format name,
+	 * or null if there is no such writer
+	 */
+	public static GraphWriter forFormat(String format) {
+		for(GraphWriter w : ServiceLoader.load(GraphWriter.class)) {
+			if(w.getFormat().equalsIgnoreCase(format)) return w;
+		}
+		return null;
+	}
+
+	/**
+	 * @return a new writer instance chosen by the file extension,
+	 * the default format (XGMML) if no writer claims the extension
+	 */
+	public static GraphWriter forFile(File file) {
+		String name = file.getName().toLowerCase();
+		for(GraphWriter w : ServiceLoader.load(GraphWriter.class)) {
+			for(String ext : w.getExtensions()) {
+				if(name.endsWith("." + ext)) return w;
+			}
+		}
+		return forFormat(DEFAULT_FORMAT);
+	}
+
+	/**
+	 * @return the names of all available formats
+	 */
+	public static List<String> getFormats() {
+		List<String> formats = new ArrayList<String>();
+		for(GraphWriter w : ServiceLoader.load(GraphWriter.class)) {
+			formats.add(w.getFormat());
+		}
+		return formats;
+	}
+
+	/**
+	 * Opens a buffered UTF-8 writer for an output file.
+	 */
+	public static PrintWriter openWriter(File file) throws IOException {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+	}
+}
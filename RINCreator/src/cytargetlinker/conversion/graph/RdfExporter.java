@@ -0,0 +1,160 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjena.riot.out.NodeToLabel;
+import org.openjena.riot.out.OutputLangUtils;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.ReadWrite;
+import com.hp.hpl.jena.tdb.TDBFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Exports a graph as RDF, either as (gzipped) N-Triples or into a TDB store.
+ * The triples are streamed from the graph, no Jena model is built.
+ *
+ * Nodes are resources &lt;base&gt;node/id, edges are reified interactions
+ * &lt;base&gt;edge/id with rdf:subject, rdf:predicate and rdf:object.
+ * Attributes are literals with the predicate &lt;base&gt;vocab/name.
+ * @author Thomas
+ */
+public class RdfExporter {
+	public static final String DEFAULT_BASE = "http://cytargetlinker.org/rin/";
+	public static final int BATCH_SIZE = 50000;
+
+	private final String base;
+	private final Node network;
+	private final Node nodeType;
+	private final Node interactionType;
+	private final Node interacts;
+	private final Node inNetwork;
+
+	public RdfExporter() {
+		this(DEFAULT_BASE);
+	}
+
+	public RdfExporter(String base) {
+		this.base = base;
+		network = Node.createURI(base + "network");
+		nodeType = vocab("Node");
+		interactionType = vocab("Interaction");
+		interacts = vocab("interactsWith");
+		inNetwork = vocab("network");
+	}
+
+	/**
+	 * Writes the graph as N-Triples, gzipped if the file name ends with .gz.
+	 */
+	public void exportNTriples(Graph graph, File file) throws IOException {
+		OutputStream os = new FileOutputStream(file);
+		if(file.getName().endsWith(".gz")) os = new GZIPOutputStream(os, 65536);
+		final Writer out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+		final NodeToLabel labels = NodeToLabel.createBNodeByLabelAsGiven();
+		try {
+			export(graph, new TripleSink() {
+				public void add(Triple t) {
+					OutputLangUtils.output(out, t, null, labels);
+				}
+			});
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads the graph into the default graph of a TDB store in the given
+	 * directory, committing a write transaction every BATCH_SIZE triples.
+	 */
+	public void exportTdb(Graph graph, File dir) throws IOException {
+		if(!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+		final Dataset dataset = TDBFactory.createDataset(dir.getAbsolutePath());
+		try {
+			TripleSink sink = new TripleSink() {
+				int count = 0;
+				public void add(Triple t) {
+					if(count == 0) dataset.begin(ReadWrite.WRITE);
+					dataset.asDatasetGraph().getDefaultGraph().add(t);
+					if(++count == BATCH_SIZE) {
+						dataset.commit();
+						dataset.end();
+						count = 0;
+					}
+				}
+			};
+			export(graph, sink);
+			if(dataset.isInTransaction()) {
+				dataset.commit();
+				dataset.end();
+			}
+		} finally {
+			if(dataset.isInTransaction()) dataset.end();
+			dataset.close();
+		}
+	}
+
+	private interface TripleSink {
+		public void add(Triple t) throws IOException;
+	}
+
+	private void export(Graph graph, TripleSink sink) throws IOException {
+		sink.add(Triple.create(network, RDF.Nodes.type, vocab("Network")));
+		sink.add(Triple.create(network, RDFS.Nodes.label, Node.createLiteral(graph.getTitle())));
+		addAttributes(sink, network, graph);
+
+		for(Graph.Node n : graph.getNodes()) {
+			Node s = node(n);
+			sink.add(Triple.create(s, RDF.Nodes.type, nodeType));
+			sink.add(Triple.create(s, RDFS.Nodes.label, Node.createLiteral(n.getId())));
+			sink.add(Triple.create(s, inNetwork, network));
+			addAttributes(sink, s, n);
+		}
+
+		for(Graph.Edge e : graph.getEdges()) {
+			Node s = Node.createURI(base + "edge/" + encode(e.getId()));
+			sink.add(Triple.create(s, RDF.Nodes.type, RDF.Nodes.Statement));
+			sink.add(Triple.create(s, RDF.Nodes.type, interactionType));
+			sink.add(Triple.create(s, RDF.Nodes.subject, node(e.getSrc())));
+			sink.add(Triple.create(s, RDF.Nodes.predicate, interacts));
+			sink.add(Triple.create(s, RDF.Nodes.object, node(e.getTgt())));
+			sink.add(Triple.create(s, inNetwork, network));
+			addAttributes(sink, s, e);
+		}
+	}
+
+	private void addAttributes(TripleSink sink, Node s, AttributeHolder attr) throws IOException {
+		for(String name : attr.getAttributeNames()) {
+			Object v = attr.getAttribute(name);
+			if(v == null) continue;
+			sink.add(Triple.create(s, vocab(name), Node.createLiteral(Escaper.SANITIZE.escape(v.toString()))));
+		}
+	}
+
+	private Node node(Graph.Node n) {
+		return Node.createURI(base + "node/" + encode(n.getId()));
+	}
+
+	private Node vocab(String name) {
+		return Node.createURI(base + "vocab/" + encode(name));
+	}
+
+	private static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
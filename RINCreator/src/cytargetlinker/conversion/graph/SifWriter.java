@@ -0,0 +1,58 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.PrintWriter;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes the edges of a graph in the simple interaction format (SIF),
+ * one tab separated "source interaction target" line per edge.
+ * Nodes and attributes are not written.
+ * @author Thomas
+ */
+public class SifWriter implements GraphWriter {
+	public String getFormat() {
+		return "sif";
+	}
+
+	public String[] getExtensions() {
+		return new String[] { "sif" };
+	}
+
+	public boolean needsCompleteGraph() {
+		return false;
+	}
+
+	public boolean writesNodes() {
+		return false;
+	}
+
+	public void startGraph(Graph graph, PrintWriter out) {
+	}
+
+	public void writeNode(Node node, PrintWriter out) {
+	}
+
+	public void startEdges(PrintWriter out) {
+	}
+
+	public void writeEdge(Edge edge, PrintWriter out) {
+		out.print(Escaper.TSV.escape(edge.getSrc().getId()));
+		out.print('\t');
+		out.print(Escaper.TSV.escape(getInteraction(edge)));
+		out.print('\t');
+		out.print(Escaper.TSV.escape(edge.getTgt().getId()));
+		out.print('\n');
+	}
+
+	public void endGraph(Graph graph, PrintWriter out) {
+	}
+
+	static String getInteraction(Edge edge) {
+		Object type = edge.getAttribute("interactionType");
+		if(type == null || "".equals(type)) type = edge.getAttribute("interaction");
+		if(type == null || "".equals(type)) type = edge.getAttribute("Interaction");
+		return type == null || "".equals(type) ? "interacts" : type.toString();
+	}
+}
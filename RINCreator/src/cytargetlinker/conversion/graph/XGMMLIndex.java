@@ -0,0 +1,271 @@
+package cytargetlinker.conversion.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import cytargetlinker.conversion.utils.ExternalSorter;
+
+/**
+ * Random access to the nodes and edges of an XGMML file written with an
+ * index (--xgmmlIndex). The index is a binary file next to the XGMML file
+ * that is memory mapped, a lookup is a binary search in the index and a
+ * read of the requested element from the XGMML file.
+ *
+ * Layout: magic, number of edge records, number of node records, the
+ * edge records sorted by the source node id, the node records sorted by
+ * node id and the ids. A record is the position of its id, the byte
+ * offset of the element and the byte offset after the element, an id is
+ * written as length and UTF-8 bytes. Ids are sorted as unsigned bytes,
+ * edges with the same source node are in the order of the XGMML file.
+ * @author Thomas
+ */
+public class XGMMLIndex {
+	public static final String EXTENSION = ".idx";
+
+	static final int MAGIC = 0x58474931;
+	static final byte NODE = 'N';
+	static final byte EDGE = 'E';
+	private static final int HEADER = 12;
+	private static final int RECORD = 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer index;
+	private final int edgeCount;
+	private final int nodeCount;
+
+	/**
+	 * @return the index file that belongs to an XGMML file
+	 */
+	public static File getIndexFile(File xgmml) {
+		return new File(xgmml.getAbsolutePath() + EXTENSION);
+	}
+
+	/**
+	 * Opens an XGMML file and its index.
+	 */
+	public static XGMMLIndex open(File xgmml) throws IOException {
+		return new XGMMLIndex(xgmml, getIndexFile(xgmml));
+	}
+
+	public XGMMLIndex(File xgmml, File indexFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			if(raf.length() > Integer.MAX_VALUE) throw new IOException(indexFile + " is too large to be mapped");
+			index = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		if(index.limit() < HEADER || index.getInt(0) != MAGIC) {
+			throw new IOException(indexFile + " is not an XGMML index, write it again with --xgmmlIndex");
+		}
+		edgeCount = index.getInt(4);
+		nodeCount = index.getInt(8);
+		file = new RandomAccessFile(xgmml, "r");
+		channel = file.getChannel();
+	}
+
+	/**
+	 * Collects the entries while the XGMML file is written and writes
+	 * the sorted index when it is closed. The entries are sorted on disk,
+	 * so only a part of them is kept in memory.
+	 */
+	static class Writer {
+		private final File file;
+		private final ExternalSorter sorter;
+		private int edges;
+		private int nodes;
+
+		Writer(File file, int bufferSize) {
+			this.file = file;
+			sorter = new ExternalSorter(file.getAbsoluteFile().getParentFile(), bufferSize);
+		}
+
+		void add(byte type, String id, long start, long end) throws IOException {
+			byte[] b = utf8(id);
+			byte[] key = new byte[b.length + 1];
+			key[0] = type;
+			System.arraycopy(b, 0, key, 1, b.length);
+			ByteBuffer value = ByteBuffer.allocate(16);
+			value.putLong(start).putLong(end);
+			sorter.add(key, value.array());
+			if(type == NODE) nodes++;
+			else edges++;
+			if(edges < 0 || nodes < 0) throw new IOException("Too many elements for the XGMML index " + file);
+		}
+
+		/**
+		 * Writes the index to a temporary file that replaces the index file.
+		 * The edge records sort before the node records (E before N).
+		 */
+		void close() throws IOException {
+			File dir = file.getAbsoluteFile().getParentFile();
+			File part = File.createTempFile(file.getName() + ".", ".part", dir);
+			File ids = File.createTempFile(file.getName() + ".", ".ids", dir);
+			try {
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(part), 65536));
+				final DataOutputStream idOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(ids), 65536));
+				try {
+					out.writeInt(MAGIC);
+					out.writeInt(edges);
+					out.writeInt(nodes);
+					final long idStart = HEADER + (long)RECORD * (edges + nodes);
+					sorter.read(new ExternalSorter.RecordHandler() {
+						byte[] last;
+						long pos = idStart;
+						long lastPos;
+						public void record(byte[] key, byte[] value) throws IOException {
+							if(last == null || !Arrays.equals(key, last)) {
+								lastPos = pos;
+								idOut.writeInt(key.length - 1);
+								idOut.write(key, 1, key.length - 1);
+								pos += 4 + key.length - 1;
+								last = key;
+								if(pos > Integer.MAX_VALUE) throw new IOException("XGMML index " + file + " is too large");
+							}
+							out.writeInt((int)lastPos);
+							out.write(value);
+						}
+					});
+					idOut.close();
+					append(out, ids);
+				} finally {
+					out.close();
+					idOut.close();
+				}
+				if(file.exists() && !file.delete()) throw new IOException("Could not replace " + file);
+				if(!part.renameTo(file)) throw new IOException("Could not rename " + part + " to " + file);
+			} finally {
+				sorter.close();
+				ids.delete();
+				part.delete();
+			}
+		}
+
+		private static void append(DataOutputStream out, File f) throws IOException {
+			InputStream in = new BufferedInputStream(new FileInputStream(f), 65536);
+			try {
+				byte[] buf = new byte[65536];
+				int n;
+				while((n = in.read(buf)) != -1) out.write(buf, 0, n);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * @return all node ids, in the order of their UTF-8 bytes
+	 */
+	public Set<String> getNodeIds() {
+		Set<String> ids = new LinkedHashSet<String>();
+		int base = HEADER + RECORD * edgeCount;
+		for(int i = 0; i < nodeCount; i++) ids.add(readId(index.getInt(base + RECORD * i)));
+		return Collections.unmodifiableSet(ids);
+	}
+
+	/**
+	 * @return the &lt;node&gt; element of the node, or null if there is no such node
+	 */
+	public String getNode(String id) throws IOException {
+		int base = HEADER + RECORD * edgeCount;
+		byte[] key = utf8(id);
+		int i = lowerBound(base, nodeCount, key);
+		if(i == nodeCount || compare(index.getInt(base + RECORD * i), key) != 0) return null;
+		return read(base + RECORD * i);
+	}
+
+	/**
+	 * @return the &lt;edge&gt; elements of all edges starting at the node
+	 */
+	public List<String> getEdges(String source) throws IOException {
+		byte[] key = utf8(source);
+		int i = lowerBound(HEADER, edgeCount, key);
+		List<String> result = new ArrayList<String>();
+		for(; i < edgeCount && compare(index.getInt(HEADER + RECORD * i), key) == 0; i++) {
+			result.add(read(HEADER + RECORD * i));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the first record in [0, count) whose id is not less than key
+	 */
+	private int lowerBound(int base, int count, byte[] key) {
+		int lo = 0;
+		int hi = count;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(compare(index.getInt(base + RECORD * mid), key) < 0) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Compares the id at pos with the key, as unsigned bytes.
+	 */
+	private int compare(int pos, byte[] key) {
+		int len = index.getInt(pos);
+		int n = Math.min(len, key.length);
+		for(int i = 0; i < n; i++) {
+			int c = (index.get(pos + 4 + i) & 0xff) - (key[i] & 0xff);
+			if(c != 0) return c;
+		}
+		return len - key.length;
+	}
+
+	private String readId(int pos) {
+		byte[] b = new byte[index.getInt(pos)];
+		for(int i = 0; i < b.length; i++) b[i] = index.get(pos + 4 + i);
+		try {
+			return new String(b, "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads the element of the record at pos from the XGMML file.
+	 */
+	private String read(int record) throws IOException {
+		long start = index.getLong(record + 4);
+		long end = index.getLong(record + 12);
+		ByteBuffer buf = ByteBuffer.allocate((int)(end - start));
+		long pos = start;
+		while(buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if(n < 0) throw new IOException("Index does not match the XGMML file");
+			pos += n;
+		}
+		return new String(buf.array(), "UTF-8");
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
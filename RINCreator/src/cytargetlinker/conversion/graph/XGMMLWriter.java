@@ -1,113 +1,226 @@
 package cytargetlinker.conversion.graph;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
+import java.io.Writer;
 
 import cytargetlinker.conversion.graph.Graph.Edge;
 import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.utils.ExternalSorter;
 
 /**
- * 
+ * Writes a graph as XGMML. The XML is streamed directly to the writer
+ * (in the layout JDOM's pretty format used to produce) so every value
+ * is sanitized and escaped exactly once.
+ *
+ * Optionally a side index with the byte range of every node and edge
+ * is written next to the file, see {@link XGMMLIndex}.
  * @author Thomas
  *
  */
-public class XGMMLWriter {
+public class XGMMLWriter implements GraphWriter {
 	final static String NS = "http://www.cs.rpi.edu/XGMML";
-	
-	public static <N, E> void write(Graph graph, PrintWriter out) throws IOException {
-		Document doc = new Document();
-
-		Element root = new Element("graph", NS);
-		doc.setRootElement(root);
-		
-		root.setAttribute("id", "" + System.currentTimeMillis());
-		root.setAttribute("label", graph.getTitle());
-		
-		//Print the graph attributes
-		printAttributes(graph, root);
-		
-		//Create the nodes
-		for(Node n : graph.getNodes()) {
-			Element e = new Element("node");
-			e.setAttribute("id", n.getId());
-			e.setAttribute("label", n.getId());
-
-			printAttributes(n, e);
-			
-			root.addContent(e);
+	final static String NL = "\r\n";
+
+	private File indexFile;
+	private int indexBuffer = ExternalSorter.DEFAULT_BUFFER_SIZE;
+	private XGMMLIndex.Writer index;
+	private PrintWriter target;
+	private CountingWriter counter;
+	private PrintWriter counted;
+
+	public static void write(Graph graph, PrintWriter out) throws IOException {
+		GraphWriters.write(new XGMMLWriter(), graph, out);
+	}
+
+	public String getFormat() {
+		return "xgmml";
+	}
+
+	public String[] getExtensions() {
+		return new String[] { "xgmml", "xml" };
+	}
+
+	public boolean needsCompleteGraph() {
+		return false;
+	}
+
+	public boolean writesNodes() {
+		return true;
+	}
+
+	/**
+	 * Also write the byte ranges of nodes and edges to the given file.
+	 */
+	public void setIndexFile(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * @param bufferSize the memory for sorting the index entries, see
+	 * {@link ExternalSorter}
+	 */
+	void setIndexFile(File indexFile, int bufferSize) {
+		this.indexFile = indexFile;
+		this.indexBuffer = bufferSize;
+	}
+
+	public void startGraph(Graph graph, PrintWriter out) throws IOException {
+		if(indexFile != null) {
+			target = out;
+			counter = new CountingWriter(out);
+			counted = new PrintWriter(counter);
+			index = new XGMMLIndex.Writer(indexFile, indexBuffer);
+			out = counted;
 		}
-		
-		//Create the edges
-		for(Edge edge : graph.getEdges()) {
-			Node src = edge.getSrc();
-			Node tgt = edge.getTgt();
-			
-			Element e = new Element("edge");
-			e.setAttribute("id", edge.getId());
-			e.setAttribute("label", edge.getId());
-			e.setAttribute("source", src.getId());
-			e.setAttribute("target", tgt.getId());
-			
-			Object interaction = edge.getAttribute("interaction");
-			Element ie = new Element("att");
-			
-			ie.setAttribute("label", "interaction");
-			ie.setAttribute("name", "interaction");
-			ie.setAttribute("value", interaction == null ? "" : interaction.toString());	
-			ie.setAttribute("type", "string");
-			
-			e.addContent(ie);
-			
-			printAttributes(edge, e);
-			
-			root.addContent(e);
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + NL);
+		out.write("<graph xmlns=\"" + NS + "\"");
+		writeAttribute(out, "id", "" + System.currentTimeMillis());
+		writeAttribute(out, "label", graph.getTitle());
+		out.write(">" + NL);
+
+		//Print the graph attributes
+		printAttributes(out, graph, "  ", true);
+	}
+
+	public void writeNode(Node n, PrintWriter out) throws IOException {
+		out = counted(out);
+		long start = index == null ? 0 : counter.getCount();
+		out.write("  <node xmlns=\"\"");
+		writeAttribute(out, "id", n.getId());
+		writeAttribute(out, "label", n.getId());
+		if(n.getAttributeNames().isEmpty()) {
+			out.write(" />" + NL);
+		} else {
+			out.write(">" + NL);
+			printAttributes(out, n, "    ", false);
+			out.write("  </node>" + NL);
 		}
-		
-		XMLOutputter xmlcode = new XMLOutputter(Format.getPrettyFormat());
-		Format f = xmlcode.getFormat();
-		f.setEncoding("UTF-8");
-		f.setTextMode(Format.TextMode.PRESERVE);
-		xmlcode.setFormat(f);
-		xmlcode.output(doc, out);
-	}
-	
-	private static void printAttributes(AttributeHolder attr, Element elm) {
+		if(index != null) index.add(XGMMLIndex.NODE, n.getId(), start, counter.getCount());
+	}
+
+	public void startEdges(PrintWriter out) {
+	}
+
+	public void writeEdge(Edge edge, PrintWriter out) throws IOException {
+		out = counted(out);
+		long start = index == null ? 0 : counter.getCount();
+		out.write("  <edge xmlns=\"\"");
+		writeAttribute(out, "id", edge.getId());
+		writeAttribute(out, "label", edge.getId());
+		writeAttribute(out, "source", edge.getSrc().getId());
+		writeAttribute(out, "target", edge.getTgt().getId());
+		out.write(">" + NL);
+
+		Object interaction = edge.getAttribute("interaction");
+		out.write("    <att");
+		writeAttribute(out, "label", "interaction");
+		writeAttribute(out, "name", "interaction");
+		writeAttribute(out, "value", interaction == null ? "" : interaction.toString());
+		writeAttribute(out, "type", "string");
+		out.write(" />" + NL);
+
+		printAttributes(out, edge, "    ", false);
+		out.write("  </edge>" + NL);
+		if(index != null) index.add(XGMMLIndex.EDGE, edge.getSrc().getId(), start, counter.getCount());
+	}
+
+	public void endGraph(Graph graph, PrintWriter out) throws IOException {
+		out = counted(out);
+		out.write("</graph>" + NL + NL);
+		if(index != null) index.close();
+	}
+
+	/**
+	 * @return the writer that counts the bytes written when the index
+	 * is written. Offsets are only known when the whole file is written
+	 * in one pass to the same writer.
+	 */
+	private PrintWriter counted(PrintWriter out) throws IOException {
+		if(index == null) return out;
+		if(out != target) throw new IOException("The XGMML index can only be written in one pass");
+		return counted;
+	}
+
+	private static void printAttributes(PrintWriter out, AttributeHolder attr, String indent, boolean resetNs) throws IOException {
+		String open = indent + (resetNs ? "<att xmlns=\"\"" : "<att");
 		for(String a : attr.getAttributeNames()) {
 			Object o = attr.getAttribute(a);
 			if(o == null) continue;
-			
+
 			String type =  o instanceof Number ? "real" : "string";
-			
-			Element e = new Element("att");
-			if(o.toString().contains("[") && o.toString().contains("]")) {
-				type = "list";
-				e.setAttribute("type", "list");
-				e.setAttribute("name", "identifiers");
-				String [] str = ((String)o).replace("[", "").replace("]", "").split(",");
+			String value = o.toString();
+
+			out.write(open);
+			if(value.contains("[") && value.contains("]")) {
+				writeAttribute(out, "type", "list");
+				writeAttribute(out, "name", "identifiers");
+				out.write(">" + NL);
+				String [] str = value.replace("[", "").replace("]", "").split(",");
 				for(int i = 0; i < str.length; i++) {
-					Element child = new Element("att");
-					child.setAttribute("type", "string");
-					child.setAttribute("name", "identifiers");
-					child.setAttribute("value", str[i]);
-					e.addContent(child);
+					out.write(indent + "  <att");
+					writeAttribute(out, "type", "string");
+					writeAttribute(out, "name", "identifiers");
+					writeAttribute(out, "value", str[i]);
+					out.write(" />" + NL);
 				}
+				out.write(indent + "</att>" + NL);
 			} else {
-				e.setAttribute("label", a);
-				e.setAttribute("name", a);
-				e.setAttribute("value", "" + o);
+				writeAttribute(out, "label", a);
+				writeAttribute(out, "name", a);
+				writeAttribute(out, "value", value);
 				if(a.equals("context+ score") || a.equals("score") || a.equals("pvalue")) {
-					e.setAttribute("type", "real");
+					writeAttribute(out, "type", "real");
 				} else {
-					e.setAttribute("type", type);
+					writeAttribute(out, "type", type);
 				}
+				out.write(" />" + NL);
 			}
+		}
+	}
+
+	static void writeAttribute(PrintWriter out, String name, String value) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		Escaper.XML.write(out, value);
+		out.write('"');
+	}
+
+	/**
+	 * Counts the UTF-8 encoded length of everything written through it.
+	 */
+	private static class CountingWriter extends Writer {
+		private final Writer out;
+		private long count = 0;
+
+		CountingWriter(Writer out) {
+			this.out = out;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			for(int i = off; i < off + len; i++) {
+				char c = cbuf[i];
+				if(c < 0x80) count += 1;
+				else if(c < 0x800) count += 2;
+				else if(Character.isHighSurrogate(c)) count += 4;
+				else if(Character.isLowSurrogate(c)) continue;
+				else count += 3;
+			}
+			out.write(cbuf, off, len);
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
 
-			elm.addContent(e);
+		public void close() throws IOException {
+			out.close();
 		}
 	}
-}
\ No newline at end of file
+}
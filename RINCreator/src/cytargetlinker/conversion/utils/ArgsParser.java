@@ -1,15 +1,23 @@
 package cytargetlinker.conversion.utils;
 
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
 import uk.co.flamingpenguin.jewel.cli.ArgumentValidationException;
 import uk.co.flamingpenguin.jewel.cli.CliFactory;
 import uk.co.flamingpenguin.jewel.cli.Option;
-import cytargetlinker.conversion.graph.GmlWriter;
+import cytargetlinker.conversion.graph.DerbyExporter;
 import cytargetlinker.conversion.graph.Graph;
+import cytargetlinker.conversion.graph.GraphOutput;
+import cytargetlinker.conversion.graph.GraphPipeline;
+import cytargetlinker.conversion.graph.GraphSharder;
+import cytargetlinker.conversion.graph.GraphWriter;
+import cytargetlinker.conversion.graph.GraphWriters;
+import cytargetlinker.conversion.graph.RdfExporter;
+import cytargetlinker.conversion.graph.XGMMLIndex;
 import cytargetlinker.conversion.graph.XGMMLWriter;
 
 /**
@@ -35,9 +43,38 @@ public class ArgsParser {
 	}
 	
 	public interface AFilesOut {
-		@Option(shortName = "o", description = "The output GML file or directory to write the network(s) to.")
-		public File getOutput();
+		@Option(shortName = "o", description = "The output file(s) to write the network to. Several files are written from one conversion.")
+		public List<File> getOutput();
 		public boolean isOutput();
+		
+		@Option(longName = "format", description = "The output format(s) (xgmml, gml, sif, edges, graphml or cyjs). By default it is chosen by the extension of the output file.")
+		public List<String> getFormat();
+		public boolean isFormat();
+		
+		@Option(longName = "shards", description = "Split the network by source node into this number of hash buckets, written to the output directory with a manifest.")
+		public Integer getShards();
+		public boolean isShards();
+		
+		@Option(longName = "shardBySource", description = "Split the network into one file per source node, written to the output directory with a manifest.")
+		public boolean getShardBySource();
+		
+		@Option(longName = "pipeline", description = "Write the network while it is being converted (for converters that support it).")
+		public boolean getPipeline();
+		
+		@Option(longName = "xgmmlIndex", description = "Write an index with the byte ranges of all nodes and edges next to XGMML output files.")
+		public boolean getXgmmlIndex();
+		
+		@Option(longName = "derby", description = "Also load the network into a new embedded Derby database in this directory.")
+		public File getDerby();
+		public boolean isDerby();
+		
+		@Option(longName = "rdf", description = "Also export the network as N-Triples to this file (gzipped if it ends with .gz).")
+		public File getRdf();
+		public boolean isRdf();
+		
+		@Option(longName = "tdb", description = "Also load the network as RDF into the Jena TDB store in this directory.")
+		public File getTdb();
+		public boolean isTdb();
 	}
 
 	public interface AFilesAttributes {
@@ -53,6 +90,33 @@ public class ArgsParser {
 		public List<File> getBridgeDbFiles();
 		public boolean isBridgeDbFiles();
 		
+		@Option(longName = "mappingCacheSize", description = "Number of identifier mappings to keep in memory (0 to disable the cache, default 100000).")
+		public Integer getMappingCacheSize();
+		public boolean isMappingCacheSize();
+		
+		@Option(longName = "mappingThreads", description = "Number of connections per mapping file used to map identifiers in parallel (default 1).")
+		public Integer getMappingThreads();
+		public boolean isMappingThreads();
+		
+		@Option(longName = "derbyPageCacheSize", description = "Number of pages in the Derby page cache of the mapping files (Derby default 1000).")
+		public Integer getDerbyPageCacheSize();
+		public boolean isDerbyPageCacheSize();
+		
+		@Option(longName = "warmUpMappings", description = "Read the mapping tables and their indexes once at startup to fill the Derby page cache.")
+		public boolean getWarmUpMappings();
+		
+		@Option(longName = "mappingCacheDir", description = "Directory for the persistent mapping cache, reused by later runs with the same mapping files.")
+		public File getMappingCacheDir();
+		public boolean isMappingCacheDir();
+		
+		@Option(longName = "unmappedReport", description = "Write the identifiers that could not be mapped, with the number of occurrences, to this file (requires the mapping cache).")
+		public File getUnmappedReport();
+		public boolean isUnmappedReport();
+		
+		@Option(longName = "preloadMappings", description = "Load the mappings between these data sources (system codes, e.g. L En S Mb Mbm) into memory at startup.")
+		public List<String> getPreloadMappings();
+		public boolean isPreloadMappings();
+		
 		@Option(longName = "organism", description = "BridgeDb mapping file")
 		public String getOrganism();
 		public boolean isOrganism();
@@ -91,20 +155,17 @@ public class ArgsParser {
 		public Graph buildGraph(File in) throws Exception;
 	}
 	
-	private interface GraphWriter {
-		public void write(Graph g, PrintWriter out) throws Exception;
-	}
-	
-	private static class XGMML implements GraphWriter {
-		public void write(Graph g, PrintWriter out) throws Exception { XGMMLWriter.write(g, out); }
-	}
-	
-	private static class GML implements GraphWriter {
-		public void write(Graph g, PrintWriter out) throws Exception { GmlWriter.write(g, out); }
+	/**
+	 * A graph builder that can report finished nodes and edges
+	 * while it builds the graph, used for --pipeline.
+	 */
+	public interface StreamingGraphBuilder extends GraphBuilder {
+		public Graph buildGraph(File in, Graph.Listener listener) throws Exception;
 	}
 	
 	/**
-	 * writes xgmml file
+	 * writes the network file(s). All outputs are written from
+	 * one conversion and one iteration over the network.
 	 * @param fi
 	 * @param fo
 	 * @param gb
@@ -112,18 +173,134 @@ public class ArgsParser {
 	 */
 	public static void convertAndWrite(AFilesIn fi, AFilesOut fo, GraphBuilder gb) throws Exception {
 		File input = fi == null ? null : fi.getInput();
-		File output = fo.isOutput() ? fo.getOutput() : new File(fi.getInput().getAbsolutePath() + ".xgmml");
+		if(fo.isShards() || fo.getShardBySource()) {
+			convertAndWriteShards(fi, fo, gb);
+			return;
+		}
+		List<GraphOutput> outputs = createOutputs(fi, fo);
 		
-		log.info("Converting " + input + " to " + output + "\n");
+		log.info("Converting " + input + " to " + outputs + "\n");
+		
+		boolean streaming = fo.getPipeline();
+		if(streaming && fo.getXgmmlIndex()) {
+			log.info("The XGMML index is written in one pass, the network is written when it is complete.\n");
+			streaming = false;
+		}
+		GraphPipeline pipeline = null;
+		try {
+			if(streaming && gb instanceof StreamingGraphBuilder) {
+				pipeline = new GraphPipeline(outputs);
+				Graph g = ((StreamingGraphBuilder)gb).buildGraph(input, pipeline);
+				pipeline.finish(g);
+				export(fo, g);
+			} else {
+				if(streaming) log.info("The converter can not write while converting, the network is written when it is complete.\n");
+				Graph g = gb.buildGraph(input);
+				GraphWriters.write(g, outputs);
+				export(fo, g);
+			}
+		} finally {
+			// leaves the previous output files if the conversion failed
+			if(pipeline != null) pipeline.abort();
+			for(GraphOutput o : outputs) o.abort();
+		}
+	}
+	
+	/**
+	 * writes the network to the requested databases
+	 */
+	private static void export(AFilesOut fo, Graph g) throws Exception {
+		if(fo.isDerby()) {
+			log.info("Loading network into Derby database " + fo.getDerby() + "\n");
+			new DerbyExporter().export(g, fo.getDerby());
+		}
+		if(fo.isRdf()) {
+			log.info("Writing network as N-Triples to " + fo.getRdf() + "\n");
+			new RdfExporter().exportNTriples(g, fo.getRdf());
+		}
+		if(fo.isTdb()) {
+			log.info("Loading network into TDB store " + fo.getTdb() + "\n");
+			new RdfExporter().exportTdb(g, fo.getTdb());
+		}
+	}
+	
+	/**
+	 * writes the network split into shards, the output (-o) is the
+	 * directory to write the shards and the manifest to
+	 */
+	private static void convertAndWriteShards(AFilesIn fi, AFilesOut fo, GraphBuilder gb) throws Exception {
+		File input = fi == null ? null : fi.getInput();
+		if(fo.isOutput() && fo.getOutput().size() > 1) {
+			throw new IllegalArgumentException("Sharded output is written to one directory, specify only one output (-o).");
+		}
+		File dir = fo.isOutput() ? fo.getOutput().get(0) : new File(fi.getInput().getAbsolutePath() + ".shards");
+		if(fo.getXgmmlIndex()) log.warning("--xgmmlIndex is not supported for sharded output, no index is written.\n");
+		if(fo.getPipeline()) log.warning("--pipeline is not supported for sharded output, the shards are written when the network is complete.\n");
+		
+		List<String> formats = new ArrayList<String>();
+		if(fo.isFormat()) {
+			for(String f : fo.getFormat()) {
+				if(GraphWriters.forFormat(f) == null) {
+					throw new IllegalArgumentException("Unknown output format " + f + ", use one of " + GraphWriters.getFormats());
+				}
+				formats.add(f);
+			}
+		} else {
+			formats.add(GraphWriters.DEFAULT_FORMAT);
+		}
+		int buckets = fo.isShards() ? fo.getShards() : 0;
+		
+		log.info("Converting " + input + " to shards in " + dir + " " + formats + "\n");
 		
 		Graph g = gb.buildGraph(input);
+		new GraphSharder(formats, buckets).write(g, dir);
+		export(fo, g);
+	}
+	
+	/**
+	 * Pairs the output files with their writers:
+	 * - no output file: one file per format next to the input file
+	 * - as many files as formats: pairwise
+	 * - one file and several formats: the extension is replaced per format
+	 * - no format: the format is chosen by the file extension
+	 */
+	private static List<GraphOutput> createOutputs(AFilesIn fi, AFilesOut fo) {
+		List<GraphWriter> writers = new ArrayList<GraphWriter>();
+		if(fo.isFormat()) {
+			for(String f : fo.getFormat()) {
+				GraphWriter writer = GraphWriters.forFormat(f);
+				if(writer == null) {
+					throw new IllegalArgumentException("Unknown output format " + f + ", use one of " + GraphWriters.getFormats());
+				}
+				writers.add(writer);
+			}
+		}
+		
+		List<File> files = new ArrayList<File>();
+		if(fo.isOutput()) files.addAll(fo.getOutput());
+		
+		if(files.isEmpty()) {
+			String base = fi.getInput().getAbsolutePath();
+			if(writers.isEmpty()) writers.add(GraphWriters.forFormat(GraphWriters.DEFAULT_FORMAT));
+			for(GraphWriter w : writers) files.add(new File(base + "." + w.getExtensions()[0]));
+		} else if(files.size() == 1 && writers.size() > 1) {
+			String base = files.get(0).getAbsolutePath();
+			if(base.lastIndexOf('.') > base.lastIndexOf(File.separatorChar)) base = base.substring(0, base.lastIndexOf('.'));
+			files.clear();
+			for(GraphWriter w : writers) files.add(new File(base + "." + w.getExtensions()[0]));
+		} else if(writers.isEmpty()) {
+			for(File f : files) writers.add(GraphWriters.forFile(f));
+		} else if(writers.size() != files.size()) {
+			throw new IllegalArgumentException("Specify one format per output file or one output file for all formats.");
+		}
 		
-		GraphWriter writer = new XGMML();
-		if(output.getName().endsWith(".gml")) {
-			writer = new GML();
+		List<GraphOutput> outputs = new ArrayList<GraphOutput>();
+		for(int i = 0; i < files.size(); i++) {
+			if(fo.getXgmmlIndex() && writers.get(i) instanceof XGMMLWriter) {
+				((XGMMLWriter)writers.get(i)).setIndexFile(XGMMLIndex.getIndexFile(files.get(i)));
+			}
+			outputs.add(new GraphOutput(writers.get(i), files.get(i)));
 		}
-		PrintWriter po = new PrintWriter(output);
-		writer.write(g, po);
-		po.close();
+		return outputs;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,235 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Maps identifiers with one BridgeDb Derby file (.bridge). The collection
+ * form of mapID asks the database for up to BATCH_SIZE identifiers in one
+ * query, where BridgeDb itself runs a query per identifier. Everything
+ * else is passed to the BridgeDb mapper for the same file.
+ *
+ * The file is opened read-only (jar subprotocol), so Derby does no
+ * recovery or locking. The time spent in lookups is logged on close.
+ * @author Thomas
+ */
+public class BatchIDMapper implements IDMapper {
+	private final static Logger log = Logger.getLogger(BatchIDMapper.class.getName());
+
+	public static final int BATCH_SIZE = 500;
+
+	private static final String QUERY =
+		"SELECT src.idRight, dest.idRight, dest.codeRight FROM link AS src " +
+		"JOIN link AS dest ON src.idLeft = dest.idLeft AND src.codeLeft = dest.codeLeft " +
+		"WHERE src.codeRight = ? AND src.idRight IN ";
+
+	private final IDMapper mapper;
+	private final Connection con;
+	private final Map<Integer, PreparedStatement> statements = new HashMap<Integer, PreparedStatement>();
+	private final String name;
+
+	private long lookups = 0;
+	private long lookupTime = 0;
+
+	public BatchIDMapper(File file) throws IDMapperException {
+		name = file.getName();
+		mapper = BridgeDb.connect("idmapper-pgdb:" + file.getAbsolutePath());
+		try {
+			con = DriverManager.getConnection("jdbc:derby:jar:(" + file.getAbsolutePath() + ")database");
+			con.setReadOnly(true);
+		} catch(SQLException e) {
+			throw new IDMapperException(e);
+		}
+	}
+
+	Connection getConnection() {
+		return con;
+	}
+
+	/**
+	 * Reads the mapping tables and their indexes once, so the following
+	 * lookups find their pages in the Derby page cache. The tables are
+	 * read with a full scan, every index with a count that is forced to
+	 * use the index.
+	 */
+	public void warmUp() throws IDMapperException {
+		long start = System.currentTimeMillis();
+		long rows = 0;
+		int indexes = 0;
+		try {
+			Statement st = con.createStatement();
+			try {
+				for(String sql : new String[] { "SELECT idLeft, codeLeft, idRight, codeRight FROM link", "SELECT id, code FROM datanode" }) {
+					ResultSet r = st.executeQuery(sql);
+					while(r.next()) rows++;
+					r.close();
+				}
+				for(String[] index : getIndexes(st)) {
+					try {
+						ResultSet r = st.executeQuery("SELECT COUNT(*) FROM " + index[0] + " --DERBY-PROPERTIES index=" + index[1] + "\n");
+						r.close();
+						indexes++;
+					} catch(SQLException e) {
+						// an index that backs a constraint can't be named
+						log.fine("Could not warm up index " + index[1] + " of " + name + ": " + e.getMessage());
+					}
+				}
+			} finally {
+				st.close();
+			}
+		} catch(SQLException e) {
+			throw new IDMapperException(e);
+		}
+		log.info("Warmed up " + name + " (" + rows + " rows, " + indexes + " indexes) in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @return the table and name of the indexes of the mapping tables
+	 */
+	private static List<String[]> getIndexes(Statement st) throws SQLException {
+		List<String[]> result = new ArrayList<String[]>();
+		ResultSet r = st.executeQuery("SELECT t.TABLENAME, g.CONGLOMERATENAME FROM SYS.SYSCONGLOMERATES g " +
+			"JOIN SYS.SYSTABLES t ON g.TABLEID = t.TABLEID WHERE g.ISINDEX AND t.TABLENAME IN ('LINK', 'DATANODE')");
+		try {
+			while(r.next()) result.add(new String[] { r.getString(1), r.getString(2) });
+		} finally {
+			r.close();
+		}
+		return result;
+	}
+
+	private synchronized void count(long start) {
+		lookups++;
+		lookupTime += System.nanoTime() - start;
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		long start = System.nanoTime();
+		try {
+			return mapper.mapID(ref, tgtDataSources);
+		} finally {
+			count(start);
+		}
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Set<DataSource> tgt = new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+
+		// group by data source, the query is for one source code
+		Map<DataSource, List<String>> bySource = new HashMap<DataSource, List<String>>();
+		for(Xref ref : srcXrefs) {
+			if(ref.getId() == null || ref.getDataSource() == null) continue;
+			List<String> ids = bySource.get(ref.getDataSource());
+			if(ids == null) {
+				ids = new ArrayList<String>();
+				bySource.put(ref.getDataSource(), ids);
+			}
+			ids.add(ref.getId());
+		}
+
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		try {
+			for(DataSource ds : bySource.keySet()) {
+				List<String> ids = bySource.get(ds);
+				for(int i = 0; i < ids.size(); i += BATCH_SIZE) {
+					query(ds, ids.subList(i, Math.min(ids.size(), i + BATCH_SIZE)), tgt, result);
+				}
+			}
+		} catch(SQLException e) {
+			throw new IDMapperException(e);
+		}
+		return result;
+	}
+
+	private synchronized void query(DataSource ds, List<String> ids, Set<DataSource> tgt, Map<Xref, Set<Xref>> result) throws SQLException {
+		PreparedStatement ps = getStatement(ids.size());
+		ps.setString(1, ds.getSystemCode());
+		for(int i = 0; i < ids.size(); i++) ps.setString(i + 2, ids.get(i));
+		long start = System.nanoTime();
+		ResultSet r = ps.executeQuery();
+		try {
+			while(r.next()) {
+				DataSource code = DataSource.getBySystemCode(r.getString(3));
+				if(!tgt.isEmpty() && !tgt.contains(code)) continue;
+				Xref src = new Xref(r.getString(1), ds);
+				Set<Xref> set = result.get(src);
+				if(set == null) {
+					set = new HashSet<Xref>();
+					result.put(src, set);
+				}
+				set.add(new Xref(r.getString(2), code));
+			}
+		} finally {
+			r.close();
+			count(start);
+		}
+	}
+
+	private PreparedStatement getStatement(int size) throws SQLException {
+		PreparedStatement ps = statements.get(size);
+		if(ps == null) {
+			StringBuilder sql = new StringBuilder(QUERY).append('(');
+			for(int i = 0; i < size; i++) sql.append(i == 0 ? "?" : ", ?");
+			ps = con.prepareStatement(sql.append(')').toString());
+			statements.put(size, ps);
+		}
+		return ps;
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		return mapper.xrefExists(xref);
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		return mapper.freeSearch(text, limit);
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return mapper.getCapabilities();
+	}
+
+	public void close() throws IDMapperException {
+		synchronized(this) {
+			if(lookups > 0) {
+				log.info(name + ": " + lookups + " queries in " + (lookupTime / 1000000) + " ms (" +
+					(lookupTime / lookups / 1000) + " us per query)");
+			}
+		}
+		try {
+			synchronized(this) {
+				for(PreparedStatement ps : statements.values()) ps.close();
+				statements.clear();
+				con.close();
+			}
+		} catch(SQLException e) {
+			throw new IDMapperException(e);
+		} finally {
+			mapper.close();
+		}
+	}
+
+	public boolean isConnected() {
+		return mapper.isConnected();
+	}
+}
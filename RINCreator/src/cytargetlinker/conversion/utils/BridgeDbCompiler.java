@@ -0,0 +1,742 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import uk.co.flamingpenguin.jewel.cli.Option;
+import cytargetlinker.conversion.utils.ArgsParser.AHelp;
+
+/**
+ * Compiles BridgeDb Derby files (.bridge) into a mapping file for
+ * {@link CompiledIDMapper}, with a sorted section per source and target
+ * data source. The compiled file can be given as --bridgeDbFile instead
+ * of the .bridge files.
+ *
+ * Without --transitive the compiled file maps like a non-transitive stack
+ * of the input files. The --transitive pairs are mapped like a transitive
+ * IDMapperStack: over a chain of mapping groups of different files, every
+ * file is used at most once, so a multi-hop mapping becomes a single
+ * lookup. Groups of the same file are never joined, so with one file the
+ * closure is the direct mapping.
+ *
+ * The mappings are not collected in memory: every (source, target) xref
+ * pair is handed to an {@link ExternalSorter}, which sorts them on disk
+ * in the order of the sections, and the sections are written from the
+ * sorted pairs. The groups for the transitive mappings are kept on disk
+ * as well, with only the xrefs whose code can start, continue or end a
+ * chain.
+ * @author Thomas
+ */
+public class BridgeDbCompiler {
+	private final static Logger log = Logger.getLogger(BridgeDbCompiler.class.getName());
+
+	private interface Args extends AHelp {
+		@Option(shortName = "i", description = "The BridgeDb file(s) to compile.")
+		public List<File> getInput();
+		public boolean isInput();
+
+		@Option(shortName = "o", description = "The compiled mapping file (default: input file with " + CompiledIDMapper.EXTENSION + ").")
+		public File getOutput();
+		public boolean isOutput();
+
+		@Option(longName = "dataSources", description = "Only compile the mappings between these data sources (system codes, e.g. L En S).")
+		public List<String> getDataSources();
+		public boolean isDataSources();
+
+		@Option(longName = "transitive", description = "Source and target data sources to map transitively over all input files (system codes, e.g. Mb:En L:Mbm).")
+		public List<String> getTransitive();
+		public boolean isTransitive();
+	}
+
+	/**
+	 * Receives the groups of the link table, a group is the list of
+	 * (code, id) of the xrefs that map to each other.
+	 */
+	private interface GroupHandler {
+		public void group(List<String[]> group) throws IOException;
+	}
+
+	/**
+	 * MAIN METHOD
+	 * USAGE: java -cp conversion.jar cytargetlinker.conversion.utils.BridgeDbCompiler
+	 * ARGUMENTS:
+	 * -i = BridgeDb file(s)
+	 * -o = compiled mapping file
+	 * --dataSources = system codes of the data sources to compile (default all)
+	 * --transitive = source:target pairs to map transitively
+	 */
+	public static void main(String argv[]) throws Exception {
+		Args pargs = ArgsParser.parse(argv, Args.class);
+		if(!pargs.isInput()) {
+			log.severe("Please specify the BridgeDb file with -i.");
+			return;
+		}
+		List<File> in = pargs.getInput();
+		File out = pargs.isOutput() ? pargs.getOutput() : new File(in.get(0).getPath() + CompiledIDMapper.EXTENSION);
+		Set<String> codes = new HashSet<String>();
+		if(pargs.isDataSources()) codes.addAll(pargs.getDataSources());
+		List<String[]> transitive = new ArrayList<String[]>();
+		if(pargs.isTransitive()) {
+			for(String pair : pargs.getTransitive()) {
+				String[] p = pair.split(":");
+				if(p.length != 2) {
+					log.severe("Invalid data source pair " + pair + ", use source:target.");
+					return;
+				}
+				transitive.add(p);
+			}
+		}
+		compile(in, out, codes, transitive);
+	}
+
+	/**
+	 * Compiles the mappings between the given data sources (all if empty).
+	 */
+	public static void compile(File bridge, File out, Set<String> codes) throws SQLException, IOException, ClassNotFoundException {
+		compile(Arrays.asList(bridge), out, codes, new ArrayList<String[]>());
+	}
+
+	/**
+	 * Compiles the direct mappings of all files between the given data
+	 * sources (all if empty) and the transitive closure for the given
+	 * source and target codes.
+	 */
+	public static void compile(List<File> bridges, File out, Set<String> codes, List<String[]> transitive) throws SQLException, IOException, ClassNotFoundException {
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+		long start = System.currentTimeMillis();
+		File dir = out.getAbsoluteFile().getParentFile();
+		final ExternalSorter pairs = new ExternalSorter(dir);
+		final Set<String> direct = codes;
+		final boolean closure = !transitive.isEmpty();
+
+		int sections;
+		Closure c = null;
+		try {
+			Set<String> read = codes;
+			if(closure) {
+				Set<String> keep = chainCodes(bridges, transitive);
+				c = new Closure(dir, keep);
+				if(!codes.isEmpty()) {
+					read = new HashSet<String>(codes);
+					read.addAll(keep);
+				}
+			}
+			final Closure groups = c;
+			for(int i = 0; i < bridges.size(); i++) {
+				final int file = i;
+				Connection con = connect(bridges.get(i));
+				try {
+					readGroups(con, read, new GroupHandler() {
+						public void group(List<String[]> group) throws IOException {
+							addGroup(pairs, group, direct);
+							if(groups != null) groups.add(file, group);
+						}
+					});
+				} finally {
+					con.close();
+				}
+			}
+			if(closure) c.write(pairs, transitive);
+
+			sections = write(out, pairs);
+		} finally {
+			if(c != null) c.close();
+			pairs.close();
+		}
+		log.info("Compiled " + bridges.size() + " file(s) to " + out.getName() + " (" + sections + " data source pairs) in " +
+			(System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static Connection connect(File bridge) throws SQLException {
+		Connection con = DriverManager.getConnection("jdbc:derby:jar:(" + bridge.getAbsolutePath() + ")database");
+		con.setReadOnly(true);
+		return con;
+	}
+
+	/**
+	 * A chain goes from one file to the next over an xref that is in
+	 * both, so only codes of more than one file can continue a chain.
+	 * @return these codes and the source and target codes
+	 */
+	private static Set<String> chainCodes(List<File> bridges, List<String[]> transitive) throws SQLException {
+		Set<String> codes = new HashSet<String>();
+		for(String[] p : transitive) codes.addAll(Arrays.asList(p));
+		Set<String> seen = new HashSet<String>();
+		for(File bridge : bridges) {
+			Connection con = connect(bridge);
+			try {
+				Statement st = con.createStatement();
+				try {
+					ResultSet r = st.executeQuery("SELECT DISTINCT codeRight FROM link");
+					while(r.next()) {
+						if(!seen.add(r.getString(1))) codes.add(r.getString(1));
+					}
+					r.close();
+				} finally {
+					st.close();
+				}
+			} finally {
+				con.close();
+			}
+		}
+		return codes;
+	}
+
+	/**
+	 * Reads the link table, every two xrefs in the same group map to each other.
+	 */
+	private static void readGroups(Connection con, Set<String> codes, GroupHandler handler) throws SQLException, IOException {
+		StringBuilder sql = new StringBuilder("SELECT idLeft, codeLeft, idRight, codeRight FROM link");
+		if(!codes.isEmpty()) {
+			sql.append(" WHERE codeRight IN (");
+			boolean first = true;
+			for(String code : codes) {
+				sql.append(first ? "'" : ", '").append(code.replace("'", "''")).append("'");
+				first = false;
+			}
+			sql.append(")");
+		}
+		sql.append(" ORDER BY codeLeft, idLeft");
+
+		Statement st = con.createStatement();
+		try {
+			ResultSet r = st.executeQuery(sql.toString());
+			String left = null;
+			List<String[]> group = new ArrayList<String[]>();
+			while(r.next()) {
+				String l = r.getString(2) + ":" + r.getString(1);
+				if(!l.equals(left)) {
+					if(!group.isEmpty()) handler.group(group);
+					group.clear();
+					left = l;
+				}
+				group.add(new String[] { r.getString(4), r.getString(3) });
+			}
+			if(!group.isEmpty()) handler.group(group);
+			r.close();
+		} finally {
+			st.close();
+		}
+	}
+
+	private static void addGroup(ExternalSorter pairs, List<String[]> group, Set<String> codes) throws IOException {
+		for(String[] a : group) {
+			if(!codes.isEmpty() && !codes.contains(a[0])) continue;
+			for(String[] b : group) {
+				if(!codes.isEmpty() && !codes.contains(b[0])) continue;
+				add(pairs, a[0], a[1], b[0], b[1]);
+			}
+		}
+	}
+
+	/**
+	 * The groups of all files, for the transitive mappings. The groups are
+	 * written to a temporary file in the order they are read and numbered
+	 * in that order, the groups of every xref are sorted on disk.
+	 *
+	 * The chains are followed one group at a time. A chain is its source
+	 * xref, the files it used and the xref it ended in. Every step sorts
+	 * the chains by that xref to join them with the groups of the xref,
+	 * and sorts the groups reached by number to join them with their
+	 * xrefs, so no step holds more than one group and one xref in memory.
+	 */
+	private static class Closure {
+		private final File dir;
+		private final Set<String> keep;
+		private final File groupFile;
+		private final DataOutputStream groupOut;
+		private final ExternalSorter members;
+		private File memberFile;
+		private long groups;
+		private int files;
+
+		/**
+		 * @param keep the codes of the xrefs that can start, continue or
+		 * end a chain, the other xrefs are left out of the groups
+		 */
+		Closure(File dir, Set<String> keep) throws IOException {
+			this.dir = dir;
+			this.keep = keep;
+			groupFile = File.createTempFile("closure", ".groups", dir);
+			groupOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(groupFile), 65536));
+			members = new ExternalSorter(dir);
+		}
+
+		void add(int file, List<String[]> group) throws IOException {
+			if(file >= 63) throw new IllegalArgumentException("Transitive mappings over more than 63 files are not supported");
+			files = Math.max(files, file + 1);
+			List<byte[]> xrefs = new ArrayList<byte[]>();
+			for(String[] x : group) {
+				if(keep.contains(x[0])) xrefs.add(xref(x[0], x[1]));
+			}
+			if(xrefs.isEmpty()) return;
+			groupOut.writeInt(xrefs.size());
+			for(byte[] x : xrefs) {
+				groupOut.writeInt(x.length);
+				groupOut.write(x);
+				members.add(x, ByteBuffer.allocate(9).putLong(groups).put((byte)file).array());
+			}
+			groups++;
+		}
+
+		/**
+		 * Maps every xref of a source code to the xrefs of the target code
+		 * that are reached over groups of different files.
+		 */
+		void write(final ExternalSorter pairs, List<String[]> transitive) throws IOException {
+			groupOut.close();
+			final Map<String, Set<String>> targets = new HashMap<String, Set<String>>();
+			for(String[] p : transitive) {
+				if(!targets.containsKey(p[0])) targets.put(p[0], new HashSet<String>());
+				targets.get(p[0]).add(p[1]);
+			}
+
+			// the groups of every xref, sorted by xref
+			memberFile = File.createTempFile("closure", ".members", dir);
+			final DataOutputStream memberOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(memberFile), 65536));
+			try {
+				members.read(new ExternalSorter.RecordHandler() {
+					public void record(byte[] key, byte[] value) throws IOException {
+						memberOut.writeInt(key.length);
+						memberOut.write(key);
+						memberOut.write(value);
+					}
+				});
+			} finally {
+				memberOut.close();
+			}
+
+			// the chains start with the groups of the xrefs of a source code
+			ExternalSorter reached = new ExternalSorter(dir);
+			Members m = new Members(memberFile);
+			try {
+				while(m.next()) {
+					if(targets.containsKey(code(m.xref))) reached.add(number(m.group), chain(1L << m.file, m.xref));
+				}
+			} finally {
+				m.close();
+			}
+
+			while(true) {
+				ExternalSorter chains = new ExternalSorter(dir);
+				try {
+					expand(reached, targets, pairs, chains);
+				} finally {
+					reached.close();
+				}
+				if(chains.size() == 0) break;
+				reached = new ExternalSorter(dir);
+				try {
+					join(chains, reached);
+				} finally {
+					chains.close();
+				}
+			}
+		}
+
+		/**
+		 * Joins the reached groups with their xrefs: adds the mappings of the
+		 * source xrefs and the chains that can use another file.
+		 * @param reached the chains by the number of the group they reached
+		 * @param chains receives the chains by the xref they end in
+		 */
+		private void expand(ExternalSorter reached, final Map<String, Set<String>> targets, final ExternalSorter pairs, final ExternalSorter chains) throws IOException {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(groupFile), 65536));
+			try {
+				reached.read(new ExternalSorter.RecordHandler() {
+					private long current = -1;
+					private List<byte[]> xrefs = new ArrayList<byte[]>();
+					private final Set<ByteBuffer> seen = new HashSet<ByteBuffer>();
+
+					public void record(byte[] key, byte[] value) throws IOException {
+						long n = ByteBuffer.wrap(key).getLong();
+						if(n != current) seen.clear();
+						while(current < n) {
+							xrefs = readGroup(in);
+							current++;
+						}
+						if(!seen.add(ByteBuffer.wrap(value))) return;
+						long used = ByteBuffer.wrap(value).getLong();
+						byte[] src = Arrays.copyOfRange(value, 8, value.length);
+						String[] s = split(src);
+						Set<String> tgt = targets.get(s[0]);
+						for(byte[] x : xrefs) {
+							String[] t = split(x);
+							if(tgt.contains(t[0])) BridgeDbCompiler.add(pairs, s[0], s[1], t[0], t[1]);
+							if(Long.bitCount(used) < files) chains.add(x, value);
+						}
+					}
+				});
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * Joins the chains with the groups of the xref they end in, the
+		 * groups of files the chain already used are skipped.
+		 * @param reached receives the chains by the number of the group
+		 */
+		private void join(ExternalSorter chains, final ExternalSorter reached) throws IOException {
+			final Members m = new Members(memberFile);
+			try {
+				chains.read(new ExternalSorter.RecordHandler() {
+					private byte[] current;
+					private final List<long[]> groupsOf = new ArrayList<long[]>();
+					private final Set<ByteBuffer> seen = new HashSet<ByteBuffer>();
+					private boolean more = m.next();
+
+					public void record(byte[] key, byte[] value) throws IOException {
+						if(current == null || !Arrays.equals(key, current)) {
+							current = key;
+							groupsOf.clear();
+							seen.clear();
+							while(more && CompiledIDMapper.compare(m.xref, key) < 0) more = m.next();
+							while(more && Arrays.equals(m.xref, key)) {
+								groupsOf.add(new long[] { m.group, m.file });
+								more = m.next();
+							}
+						}
+						if(!seen.add(ByteBuffer.wrap(value))) return;
+						long used = ByteBuffer.wrap(value).getLong();
+						for(long[] g : groupsOf) {
+							if((used & (1L << g[1])) != 0) continue;
+							ByteBuffer next = ByteBuffer.wrap(value.clone());
+							next.putLong(0, used | (1L << g[1]));
+							reached.add(number(g[0]), next.array());
+						}
+					}
+				});
+			} finally {
+				m.close();
+			}
+		}
+
+		void close() {
+			members.close();
+			try {
+				groupOut.close();
+			} catch(IOException e) {
+				// only deleted
+			}
+			groupFile.delete();
+			if(memberFile != null) memberFile.delete();
+		}
+
+		private static List<byte[]> readGroup(DataInputStream in) throws IOException {
+			int n = in.readInt();
+			List<byte[]> xrefs = new ArrayList<byte[]>(n);
+			for(int i = 0; i < n; i++) {
+				byte[] x = new byte[in.readInt()];
+				in.readFully(x);
+				xrefs.add(x);
+			}
+			return xrefs;
+		}
+
+		/**
+		 * @return the code and id separated by a 0 byte
+		 */
+		private static byte[] xref(String code, String id) throws IOException {
+			if(id.indexOf(0) >= 0) throw new IOException("Identifier with a 0 character: " + id);
+			byte[] c = CompiledIDMapper.utf8(code);
+			byte[] i = CompiledIDMapper.utf8(id);
+			byte[] x = new byte[c.length + i.length + 1];
+			System.arraycopy(c, 0, x, 0, c.length);
+			System.arraycopy(i, 0, x, c.length + 1, i.length);
+			return x;
+		}
+
+		private static String[] split(byte[] xref) throws IOException {
+			String s = new String(xref, "UTF-8");
+			int sep = s.indexOf(0);
+			return new String[] { s.substring(0, sep), s.substring(sep + 1) };
+		}
+
+		private static String code(byte[] xref) throws IOException {
+			return split(xref)[0];
+		}
+
+		/**
+		 * @return the group number as key, big-endian so the keys sort
+		 * like the numbers
+		 */
+		private static byte[] number(long group) {
+			return ByteBuffer.allocate(8).putLong(group).array();
+		}
+
+		/**
+		 * @return the files used by a chain and its source xref
+		 */
+		private static byte[] chain(long used, byte[] src) {
+			return ByteBuffer.allocate(8 + src.length).putLong(used).put(src).array();
+		}
+	}
+
+	/**
+	 * Reads the groups of the xrefs in the order of the xrefs.
+	 */
+	private static class Members {
+		private final DataInputStream in;
+		byte[] xref;
+		long group;
+		int file;
+
+		Members(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		}
+
+		boolean next() throws IOException {
+			int n;
+			try {
+				n = in.readInt();
+			} catch(EOFException e) {
+				return false;
+			}
+			xref = new byte[n];
+			in.readFully(xref);
+			group = in.readLong();
+			file = in.readByte();
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Adds the mapping of a source xref to a target xref. The key is the
+	 * source code, target code and source id separated by 0 bytes, so the
+	 * pairs sort by section and then by source id (as unsigned bytes, like
+	 * the records of a section), the value is the target id.
+	 */
+	static void add(ExternalSorter pairs, String srcCode, String srcId, String tgtCode, String tgtId) throws IOException {
+		byte[] src = CompiledIDMapper.utf8(srcCode);
+		byte[] tgt = CompiledIDMapper.utf8(tgtCode);
+		byte[] id = CompiledIDMapper.utf8(srcId);
+		if(srcId.indexOf(0) >= 0) throw new IOException("Identifier with a 0 character: " + srcId);
+		byte[] key = new byte[src.length + tgt.length + id.length + 2];
+		System.arraycopy(src, 0, key, 0, src.length);
+		System.arraycopy(tgt, 0, key, src.length + 1, tgt.length);
+		System.arraycopy(id, 0, key, src.length + tgt.length + 2, id.length);
+		pairs.add(key, CompiledIDMapper.utf8(tgtId));
+	}
+
+	/**
+	 * Writes the sorted mappings in the format of {@link CompiledIDMapper}.
+	 * @return the number of sections
+	 */
+	static int write(File file, ExternalSorter pairs) throws IOException {
+		Output out = new Output(file);
+		SectionWriter sections = new SectionWriter(out, file.getAbsoluteFile().getParentFile());
+		long dir;
+		try {
+			out.writeInt(CompiledIDMapper.MAGIC);
+			out.writeLong(0);
+			pairs.read(sections);
+			sections.endSection();
+
+			dir = out.pos;
+			out.writeInt(sections.directory.size());
+			for(Object[] e : sections.directory) {
+				out.writeString((String)e[0]);
+				out.writeString((String)e[1]);
+				out.writeLong((Long)e[2]);
+				out.writeInt((Integer)e[3]);
+			}
+		} finally {
+			sections.close();
+			out.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(4);
+			raf.writeLong(dir);
+		} finally {
+			raf.close();
+		}
+		return sections.directory.size();
+	}
+
+	/**
+	 * A DataOutputStream with its position as long, the size of the
+	 * stream stops at Integer.MAX_VALUE. The compiled file is memory
+	 * mapped with int offsets, so a larger file is an error.
+	 */
+	private static class Output {
+		private final File file;
+		private final DataOutputStream out;
+		long pos = 0;
+
+		Output(File file) throws IOException {
+			this.file = file;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		}
+
+		private void advance(int n) throws IOException {
+			pos += n;
+			if(pos > Integer.MAX_VALUE) throw new IOException("Compiled mapping file " + file + " is too large");
+		}
+
+		void writeInt(int v) throws IOException {
+			out.writeInt(v);
+			advance(4);
+		}
+
+		void writeLong(long v) throws IOException {
+			out.writeLong(v);
+			advance(8);
+		}
+
+		void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			advance(len);
+		}
+
+		void writeString(String s) throws IOException {
+			byte[] b = CompiledIDMapper.utf8(s);
+			writeInt(b.length);
+			write(b, 0, b.length);
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Receives the sorted pairs and writes a section per source and target
+	 * code. The records of a section are written to a temporary file, as
+	 * the offset table before them is only known at the end of the section.
+	 */
+	private static class SectionWriter implements ExternalSorter.RecordHandler {
+		private final Output out;
+		private final File records;
+		private final File offsets;
+		private DataOutputStream recordOut;
+		private DataOutputStream offsetOut;
+		private long recordPos;
+		private int count;
+
+		/** source code, target code, offset and number of ids per section */
+		final List<Object[]> directory = new ArrayList<Object[]>();
+		private byte[] section;
+		private byte[] id;
+		private final Set<String> targets = new TreeSet<String>();
+
+		SectionWriter(Output out, File dir) throws IOException {
+			this.out = out;
+			records = File.createTempFile("section", ".records", dir);
+			offsets = File.createTempFile("section", ".offsets", dir);
+		}
+
+		public void record(byte[] key, byte[] value) throws IOException {
+			int codes = key.length;
+			for(int i = 0, zeros = 0; i < key.length; i++) {
+				if(key[i] == 0 && ++zeros == 2) {
+					codes = i;
+					break;
+				}
+			}
+			byte[] s = Arrays.copyOf(key, codes);
+			byte[] i = Arrays.copyOfRange(key, codes + 1, key.length);
+			if(section == null || !Arrays.equals(s, section)) {
+				endSection();
+				section = s;
+				recordOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(records), 65536));
+				offsetOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsets), 65536));
+				recordPos = 0;
+				count = 0;
+			} else if(!Arrays.equals(i, id)) {
+				endRecord();
+			}
+			id = i;
+			targets.add(new String(value, "UTF-8"));
+		}
+
+		private void endRecord() throws IOException {
+			if(id == null) return;
+			offsetOut.writeLong(recordPos);
+			recordOut.writeInt(id.length);
+			recordOut.write(id);
+			recordOut.writeInt(targets.size());
+			recordPos += 8 + id.length;
+			for(String t : targets) {
+				byte[] b = CompiledIDMapper.utf8(t);
+				recordOut.writeInt(b.length);
+				recordOut.write(b);
+				recordPos += 4 + b.length;
+			}
+			targets.clear();
+			id = null;
+			count++;
+		}
+
+		/**
+		 * Writes the offset table and the records of the current section.
+		 */
+		void endSection() throws IOException {
+			if(section == null) return;
+			endRecord();
+			recordOut.close();
+			offsetOut.close();
+
+			String codes = new String(section, "UTF-8");
+			int sep = codes.indexOf(0);
+			directory.add(new Object[] { codes.substring(0, sep), codes.substring(sep + 1), out.pos, count });
+			long base = out.pos + 4L * count;
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(offsets), 65536));
+			try {
+				for(int n = 0; n < count; n++) {
+					long pos = base + in.readLong();
+					if(pos > Integer.MAX_VALUE) throw new IOException("Compiled mapping file is too large");
+					out.writeInt((int)pos);
+				}
+			} finally {
+				in.close();
+			}
+			InputStream records = new BufferedInputStream(new FileInputStream(this.records), 65536);
+			try {
+				byte[] buf = new byte[65536];
+				int n;
+				while((n = records.read(buf)) != -1) out.write(buf, 0, n);
+			} finally {
+				records.close();
+			}
+			section = null;
+		}
+
+		void close() throws IOException {
+			if(recordOut != null) recordOut.close();
+			if(offsetOut != null) offsetOut.close();
+			records.delete();
+			offsets.delete();
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Caches the results of mapID for (xref, target data sources) in a
+ * bounded LRU map, so an identifier that occurs in many rows is only
+ * looked up once in the mapping database.
+ *
+ * The converters modify the returned sets, so every call returns a copy.
+ *
+ * Lookups without result are kept apart from the LRU map and are never
+ * evicted, so an unmappable identifier is only looked up once. They can
+ * be written as a report with the number of input rows of every xref,
+ * which the converters count with {@link #countOccurrences(Xref, int)}
+ * (a converter looks up an identifier once, however often it occurs).
+ * @author Thomas
+ */
+public class CachingIDMapper implements IDMapper {
+	public static final int DEFAULT_SIZE = 100000;
+
+	private final IDMapper mapper;
+	private final Map<Key, Set<Xref>> cache;
+	private final Set<Key> unmapped = new HashSet<Key>();
+	private final Map<Xref, int[]> occurrences = new HashMap<Xref, int[]>();
+	private File unmappedReport;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long unmappedHits = 0;
+
+	public CachingIDMapper(IDMapper mapper) {
+		this(mapper, DEFAULT_SIZE);
+	}
+
+	public CachingIDMapper(IDMapper mapper, final int maxSize) {
+		this.mapper = mapper;
+		this.cache = new LinkedHashMap<Key, Set<Xref>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, Set<Xref>> eldest) {
+				if(size() > maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public IDMapper getMapper() {
+		return mapper;
+	}
+
+	/**
+	 * Sets the file the unmapped identifiers are written to when the
+	 * mapper is closed.
+	 */
+	public void setUnmappedReport(File file) {
+		this.unmappedReport = file;
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		Key key = new Key(ref, tgtDataSources);
+		Set<Xref> result = get(key);
+		if(result == null) {
+			result = mapper.mapID(ref, tgtDataSources);
+			put(key, result);
+		}
+		return new HashSet<Xref>(result);
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		Set<Xref> missing = new HashSet<Xref>();
+		for(Xref ref : srcXrefs) {
+			Set<Xref> cached = get(new Key(ref, tgtDataSources));
+			if(cached == null) missing.add(ref);
+			else if(!cached.isEmpty()) result.put(ref, new HashSet<Xref>(cached));
+		}
+		if(!missing.isEmpty()) {
+			Map<Xref, Set<Xref>> mapped = mapper.mapID(missing, tgtDataSources);
+			for(Xref ref : missing) {
+				Set<Xref> set = mapped.get(ref);
+				if(set == null) set = new HashSet<Xref>();
+				put(new Key(ref, tgtDataSources), set);
+				if(!set.isEmpty()) result.put(ref, new HashSet<Xref>(set));
+			}
+		}
+		return result;
+	}
+
+	private synchronized Set<Xref> get(Key key) {
+		if(unmapped.contains(key)) {
+			unmappedHits++;
+			return Collections.emptySet();
+		}
+		Set<Xref> result = cache.get(key);
+		if(result == null) misses++;
+		else hits++;
+		return result;
+	}
+
+	private synchronized void put(Key key, Set<Xref> result) {
+		if(result.isEmpty()) unmapped.add(key);
+		else cache.put(key, new HashSet<Xref>(result));
+	}
+
+	/**
+	 * Counts n input rows with the xref, only if the unmapped report is
+	 * written.
+	 */
+	public synchronized void countOccurrences(Xref ref, int n) {
+		if(unmappedReport == null) return;
+		int[] count = occurrences.get(ref);
+		if(count == null) occurrences.put(ref, new int[] { n });
+		else count[0] += n;
+	}
+
+	private synchronized int getOccurrences(Xref ref) {
+		int[] count = occurrences.get(ref);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @return the number of distinct lookups without result
+	 */
+	public synchronized int getUnmappedCount() {
+		return unmapped.size();
+	}
+
+	/**
+	 * Writes the xrefs that were looked up without result, with the target
+	 * data sources and the number of input rows, most frequent first. Xrefs
+	 * that are not in the input (the intermediate xrefs of a mapping in two
+	 * steps) have 0 rows.
+	 */
+	public synchronized void writeUnmapped(File file) throws IOException {
+		List<Key> entries = new ArrayList<Key>(unmapped);
+		Collections.sort(entries, new Comparator<Key>() {
+			public int compare(Key a, Key b) {
+				return getOccurrences(b.xref) - getOccurrences(a.xref);
+			}
+		});
+
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.println("id\tsource\ttarget\toccurrences");
+			for(Key k : entries) {
+				StringBuilder tgt = new StringBuilder();
+				for(DataSource ds : k.tgt) {
+					if(tgt.length() > 0) tgt.append(',');
+					tgt.append(ds.getSystemCode());
+				}
+				out.println(k.xref.getId() + "\t" + k.xref.getDataSource().getSystemCode() + "\t" + tgt + "\t" + getOccurrences(k.xref));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized String getStatistics() {
+		long total = hits + unmappedHits + misses;
+		return "mapping cache: " + hits + " hits, " + unmappedHits + " unmapped hits, " + misses + " misses, " + evictions + " evictions" +
+			(total == 0 ? "" : " (" + (100 * (hits + unmappedHits) / total) + "% hit rate)");
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		return mapper.xrefExists(xref);
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		return mapper.freeSearch(text, limit);
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return mapper.getCapabilities();
+	}
+
+	public void close() throws IDMapperException {
+		try {
+			synchronized(this) {
+				if(unmappedReport != null) writeUnmapped(unmappedReport);
+				cache.clear();
+				unmapped.clear();
+				occurrences.clear();
+			}
+		} catch(IOException e) {
+			throw new IDMapperException(e);
+		} finally {
+			mapper.close();
+		}
+	}
+
+	public boolean isConnected() {
+		return mapper.isConnected();
+	}
+
+	/**
+	 * An xref with the data sources it is mapped to. The result of mapID
+	 * does not depend on the order of the data sources, so they are kept
+	 * sorted by system code and without duplicates: a prefetch of (Mb, Mbm)
+	 * is found by a lookup of (Mbm, Mb).
+	 */
+	private static class Key {
+		private static final Comparator<DataSource> ORDER = new Comparator<DataSource>() {
+			public int compare(DataSource a, DataSource b) {
+				return (a.getSystemCode() + "\t" + a.getFullName()).compareTo(b.getSystemCode() + "\t" + b.getFullName());
+			}
+		};
+
+		private final Xref xref;
+		private final DataSource[] tgt;
+		private final int hash;
+
+		Key(Xref xref, DataSource[] tgt) {
+			this.xref = xref;
+			this.tgt = normalize(tgt);
+			this.hash = 31 * xref.hashCode() + Arrays.hashCode(this.tgt);
+		}
+
+		private static DataSource[] normalize(DataSource[] tgt) {
+			if(tgt.length < 2) return tgt;
+			Set<DataSource> set = new TreeSet<DataSource>(ORDER);
+			set.addAll(Arrays.asList(tgt));
+			return set.toArray(new DataSource[set.size()]);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return xref.equals(k.xref) && Arrays.equals(tgt, k.tgt);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Maps identifiers with a mapping file written by {@link BridgeDbCompiler}.
+ * The file is memory mapped and a lookup is a binary search in the section
+ * of the source and target data source, so no database is involved.
+ *
+ * Layout: magic, offset of the directory, the sections and the directory
+ * (number of sections, then source code, target code, offset and number
+ * of ids per section). A section starts with the offsets of its records
+ * in the order of the source ids (unsigned UTF-8 bytes), a record is the
+ * source id, the number of target ids and the target ids. Strings are
+ * written as length and UTF-8 bytes.
+ * @author Thomas
+ */
+public class CompiledIDMapper implements IDMapper {
+	public static final String EXTENSION = ".mapidx";
+	static final int MAGIC = 0x524d4931;
+
+	private final File file;
+	private ByteBuffer buf;
+	private final Map<DataSource, Map<DataSource, Section>> sections = new HashMap<DataSource, Map<DataSource, Section>>();
+	private final Set<DataSource> dataSources = new HashSet<DataSource>();
+
+	public CompiledIDMapper(File file) throws IDMapperException {
+		this.file = file;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				if(raf.length() > Integer.MAX_VALUE) throw new IOException(file + " is too large to be mapped");
+				buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			} finally {
+				raf.close();
+			}
+			if(buf.getInt(0) != MAGIC) throw new IOException(file + " is not a compiled mapping file");
+			readDirectory((int)buf.getLong(4));
+		} catch(IOException e) {
+			throw new IDMapperException(e);
+		}
+	}
+
+	public static boolean isCompiled(File file) {
+		return file.getName().endsWith(EXTENSION);
+	}
+
+	private void readDirectory(int pos) {
+		int n = buf.getInt(pos);
+		pos += 4;
+		for(int i = 0; i < n; i++) {
+			String src = readString(buf, pos);
+			pos += 4 + buf.getInt(pos);
+			String tgt = readString(buf, pos);
+			pos += 4 + buf.getInt(pos);
+			Section s = new Section((int)buf.getLong(pos), buf.getInt(pos + 8));
+			pos += 12;
+
+			DataSource srcDs = DataSource.getBySystemCode(src);
+			DataSource tgtDs = DataSource.getBySystemCode(tgt);
+			Map<DataSource, Section> bySrc = sections.get(srcDs);
+			if(bySrc == null) {
+				bySrc = new HashMap<DataSource, Section>();
+				sections.put(srcDs, bySrc);
+			}
+			bySrc.put(tgtDs, s);
+			dataSources.add(srcDs);
+			dataSources.add(tgtDs);
+		}
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		Set<Xref> result = new HashSet<Xref>();
+		if(ref.getId() == null || ref.getDataSource() == null) return result;
+		Map<DataSource, Section> bySrc = sections.get(ref.getDataSource());
+		if(bySrc == null) return result;
+
+		byte[] key = utf8(ref.getId());
+		if(tgtDataSources.length == 0) {
+			for(Map.Entry<DataSource, Section> e : bySrc.entrySet()) e.getValue().map(key, e.getKey(), result);
+		} else {
+			for(DataSource ds : tgtDataSources) {
+				Section s = bySrc.get(ds);
+				if(s != null) s.map(key, ds, result);
+			}
+		}
+		return result;
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for(Xref ref : srcXrefs) {
+			Set<Xref> set = mapID(ref, tgtDataSources);
+			if(!set.isEmpty()) result.put(ref, set);
+		}
+		return result;
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		Map<DataSource, Section> bySrc = sections.get(xref.getDataSource());
+		if(bySrc == null) return false;
+		byte[] key = utf8(xref.getId());
+		for(Section s : bySrc.values()) {
+			if(s.find(key) >= 0) return true;
+		}
+		return false;
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		throw new IDMapperException("Free search is not supported by " + file);
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return new AbstractIDMapperCapabilities(dataSources, false, null) {};
+	}
+
+	public void close() throws IDMapperException {
+		buf = null;
+	}
+
+	public boolean isConnected() {
+		return buf != null;
+	}
+
+	/**
+	 * The sorted records of one source and target data source.
+	 */
+	private class Section {
+		private final int offset;
+		private final int count;
+
+		Section(int offset, int count) {
+			this.offset = offset;
+			this.count = count;
+		}
+
+		/**
+		 * @return the position of the record of the key, or -1
+		 */
+		int find(byte[] key) {
+			int lo = 0;
+			int hi = count - 1;
+			while(lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int pos = buf.getInt(offset + 4 * mid);
+				int c = compare(buf, pos, key);
+				if(c < 0) lo = mid + 1;
+				else if(c > 0) hi = mid - 1;
+				else return pos;
+			}
+			return -1;
+		}
+
+		void map(byte[] key, DataSource tgt, Set<Xref> result) {
+			int pos = find(key);
+			if(pos < 0) return;
+			pos += 4 + key.length;
+			int n = buf.getInt(pos);
+			pos += 4;
+			for(int i = 0; i < n; i++) {
+				result.add(new Xref(readString(buf, pos), tgt));
+				pos += 4 + buf.getInt(pos);
+			}
+		}
+	}
+
+	/**
+	 * Compares the string at pos with the key, as unsigned bytes.
+	 */
+	private static int compare(ByteBuffer buf, int pos, byte[] key) {
+		int len = buf.getInt(pos);
+		int n = Math.min(len, key.length);
+		for(int i = 0; i < n; i++) {
+			int c = (buf.get(pos + 4 + i) & 0xff) - (key[i] & 0xff);
+			if(c != 0) return c;
+		}
+		return len - key.length;
+	}
+
+	static int compare(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if(c != 0) return c;
+		}
+		return a.length - b.length;
+	}
+
+	private static String readString(ByteBuffer buf, int pos) {
+		byte[] b = new byte[buf.getInt(pos)];
+		ByteBuffer d = buf.duplicate();
+		d.position(pos + 4);
+		d.get(b);
+		try {
+			return new String(b, "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts (key, value) records by their key bytes (unsigned, like
+ * {@link CompiledIDMapper}) without keeping all of them in memory. The
+ * records are collected until the buffer is full, sorted and written to a
+ * temporary run file, and the runs are merged when the records are read.
+ * Records with the same key are returned in the order they were added.
+ * @author Thomas
+ */
+public class ExternalSorter {
+	public static final int DEFAULT_BUFFER_SIZE = 64 << 20;
+
+	/**
+	 * Receives the records in the order of their keys.
+	 */
+	public interface RecordHandler {
+		public void record(byte[] key, byte[] value) throws IOException;
+	}
+
+	private static final Comparator<byte[][]> ORDER = new Comparator<byte[][]>() {
+		public int compare(byte[][] a, byte[][] b) {
+			return CompiledIDMapper.compare(a[0], b[0]);
+		}
+	};
+
+	private final File dir;
+	private final int bufferSize;
+	private final List<byte[][]> buffer = new ArrayList<byte[][]>();
+	private final List<File> runs = new ArrayList<File>();
+	private long buffered;
+	private long count;
+
+	/**
+	 * @param dir the directory for the run files, null for the default
+	 * temporary directory
+	 */
+	public ExternalSorter(File dir) {
+		this(dir, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize the approximate number of bytes kept in memory
+	 */
+	public ExternalSorter(File dir, int bufferSize) {
+		this.dir = dir;
+		this.bufferSize = bufferSize;
+	}
+
+	public void add(byte[] key, byte[] value) throws IOException {
+		buffer.add(new byte[][] { key, value });
+		// arrays and list entry
+		buffered += key.length + value.length + 64;
+		count++;
+		if(buffered >= bufferSize) spill();
+	}
+
+	/**
+	 * @return the number of records added
+	 */
+	public long size() {
+		return count;
+	}
+
+	private void spill() throws IOException {
+		if(buffer.isEmpty()) return;
+		byte[][][] records = buffer.toArray(new byte[buffer.size()][][]);
+		// stable, so equal keys keep their order
+		Arrays.sort(records, ORDER);
+		File run = File.createTempFile("sort", ".run", dir);
+		run.deleteOnExit();
+		runs.add(run);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 65536));
+		try {
+			for(byte[][] r : records) {
+				out.writeInt(r[0].length);
+				out.write(r[0]);
+				out.writeInt(r[1].length);
+				out.write(r[1]);
+			}
+		} finally {
+			out.close();
+		}
+		buffer.clear();
+		buffered = 0;
+	}
+
+	/**
+	 * Hands all records to the handler in the order of their keys and
+	 * deletes the run files.
+	 */
+	public void read(RecordHandler handler) throws IOException {
+		if(runs.isEmpty()) {
+			byte[][][] records = buffer.toArray(new byte[buffer.size()][][]);
+			Arrays.sort(records, ORDER);
+			for(byte[][] r : records) handler.record(r[0], r[1]);
+			buffer.clear();
+			return;
+		}
+		spill();
+		List<Run> open = new ArrayList<Run>();
+		try {
+			PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size(), new Comparator<Run>() {
+				public int compare(Run a, Run b) {
+					int c = CompiledIDMapper.compare(a.key, b.key);
+					return c != 0 ? c : a.index - b.index;
+				}
+			});
+			for(int i = 0; i < runs.size(); i++) {
+				Run r = new Run(runs.get(i), i);
+				open.add(r);
+				if(r.next()) queue.add(r);
+			}
+			while(!queue.isEmpty()) {
+				Run r = queue.poll();
+				handler.record(r.key, r.value);
+				if(r.next()) queue.add(r);
+			}
+		} finally {
+			for(Run r : open) r.in.close();
+			close();
+		}
+	}
+
+	/**
+	 * Deletes the run files.
+	 */
+	public void close() {
+		for(File run : runs) run.delete();
+		runs.clear();
+		buffer.clear();
+	}
+
+	private static class Run {
+		final DataInputStream in;
+		final int index;
+		byte[] key;
+		byte[] value;
+
+		Run(File file, int index) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+			this.index = index;
+		}
+
+		boolean next() throws IOException {
+			int n;
+			try {
+				n = in.readInt();
+			} catch(EOFException e) {
+				return false;
+			}
+			key = new byte[n];
+			in.readFully(key);
+			value = new byte[in.readInt()];
+			in.readFully(value);
+			return true;
+		}
+	}
+}
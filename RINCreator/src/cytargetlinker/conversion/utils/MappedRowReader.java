@@ -0,0 +1,267 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads a large tab separated file in parallel. The lines after the header
+ * are split into line aligned chunks, one per thread (more if a chunk
+ * would be larger than 1 GB), every chunk is memory mapped and its lines
+ * are tokenized and handed to a {@link LineHandler} on its own thread.
+ * The results of the chunks are returned in the order of the file, so the
+ * caller can merge them as if the file was read line by line. Chunk
+ * results can keep the positions of lines instead of their fields and
+ * read them again with {@link #lines(long[], int)}.
+ * @author Thomas
+ */
+public class MappedRowReader {
+	private static final long MAX_CHUNK = 1 << 30;
+
+	private final File file;
+	private final int threads;
+	private String[] header;
+	private long bodyStart;
+
+	public interface LineHandler<T> {
+		/**
+		 * Creates the result of a chunk.
+		 */
+		public T chunk();
+
+		/**
+		 * Called for every line of a chunk, on the thread of the chunk.
+		 * @param offset the position of the line in the file
+		 * @param line the fields of the line, only valid during the call
+		 */
+		public void line(T chunk, long offset, TsvTokenizer line);
+	}
+
+	/**
+	 * @param threads the number of threads, one per core if less than 1
+	 */
+	public MappedRowReader(File file, int threads) throws IOException {
+		this.file = file;
+		this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+		readHeader();
+	}
+
+	public String[] getHeader() {
+		return header;
+	}
+
+	private void readHeader() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			bodyStart = nextLine(raf, 0);
+			int len = (int)bodyStart;
+			byte[] b = new byte[len];
+			raf.seek(0);
+			raf.readFully(b);
+			while(len > 0 && (b[len - 1] == '\n' || b[len - 1] == '\r')) len--;
+			header = new String(b, 0, len, "UTF-8").split("\t");
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the position after the first line feed at or after pos
+	 */
+	private static long nextLine(RandomAccessFile raf, long pos) throws IOException {
+		byte[] b = new byte[8192];
+		long length = raf.length();
+		while(pos < length) {
+			raf.seek(pos);
+			int n = raf.read(b);
+			for(int i = 0; i < n; i++) {
+				if(b[i] == '\n') return pos + i + 1;
+			}
+			pos += n;
+		}
+		return length;
+	}
+
+	/**
+	 * Reads the lines after the header.
+	 * @param columns the maximal number of fields of a line
+	 * @return the results of the chunks in the order of the file
+	 */
+	public <T> List<T> read(final int columns, final LineHandler<T> handler) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "parse " + file.getName());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			final FileChannel channel = raf.getChannel();
+			List<Future<T>> futures = new ArrayList<Future<T>>();
+			long[] bounds = chunks(raf);
+			for(int i = 0; i + 1 < bounds.length; i++) {
+				final long start = bounds[i];
+				final long end = bounds[i + 1];
+				futures.add(executor.submit(new Callable<T>() {
+					public T call() throws IOException {
+						MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+						return parse(buf, start, columns, handler);
+					}
+				}));
+			}
+
+			List<T> result = new ArrayList<T>();
+			for(Future<T> f : futures) result.add(f.get());
+			return result;
+		} catch(InterruptedException e) {
+			throw new IOException("Reading " + file + " was interrupted", e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException("Could not read " + file, e.getCause());
+		} finally {
+			executor.shutdownNow();
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the start positions of the chunks and the end of the file
+	 */
+	private long[] chunks(RandomAccessFile raf) throws IOException {
+		long length = raf.length();
+		long size = length - bodyStart;
+		int n = (int)Math.max(threads, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(bodyStart);
+		for(int i = 1; i < n; i++) {
+			long pos = nextLine(raf, bodyStart + size * i / n);
+			if(pos > bounds.get(bounds.size() - 1) && pos < length) bounds.add(pos);
+		}
+		bounds.add(length);
+
+		long[] result = new long[bounds.size()];
+		for(int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+		return result;
+	}
+
+	private static <T> T parse(MappedByteBuffer buf, long start, int columns, LineHandler<T> handler) {
+		T chunk = handler.chunk();
+		TsvTokenizer tokenizer = new TsvTokenizer();
+		int size = buf.limit();
+		int pos = 0;
+		while(pos < size) {
+			int end = pos;
+			while(end < size && buf.get(end) != '\n') end++;
+			int lineEnd = end;
+			if(lineEnd > pos && buf.get(lineEnd - 1) == '\r') lineEnd--;
+			tokenizer.reset(buf, pos, lineEnd, columns);
+			handler.line(chunk, start + pos, tokenizer);
+			pos = end + 1;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Reads the lines at the given positions again, in one pass over the
+	 * file, and splits them like {@link #read(int, LineHandler)}.
+	 * @param offsets the ascending positions of the lines
+	 * @param columns the maximal number of fields of a line
+	 */
+	public Lines lines(long[] offsets, int columns) throws IOException {
+		return new Lines(offsets, columns, null);
+	}
+
+	/**
+	 * Like {@link #lines(long[], int)}, but only decodes the given fields,
+	 * the other elements of the rows are null.
+	 */
+	public Lines lines(long[] offsets, int columns, int[] fields) throws IOException {
+		return new Lines(offsets, columns, fields);
+	}
+
+	/**
+	 * The fields of the lines at the given positions, only one line is in
+	 * memory at a time. The file is closed at the end or by {@link #close()}.
+	 */
+	public class Lines implements Iterator<String[]>, Closeable {
+		private final long[] offsets;
+		private final int columns;
+		private final int[] fields;
+		private final InputStream in;
+		private final TsvTokenizer tokenizer = new TsvTokenizer();
+		private byte[] line = new byte[1024];
+		private long pos;
+		private int next;
+
+		private Lines(long[] offsets, int columns, int[] fields) throws IOException {
+			this.offsets = offsets;
+			this.columns = columns;
+			this.fields = fields;
+			in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+			if(offsets.length == 0) close();
+		}
+
+		public boolean hasNext() {
+			return next < offsets.length;
+		}
+
+		public String[] next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			try {
+				long offset = offsets[next++];
+				if(offset < pos) throw new IllegalArgumentException("The lines are not in the order of the file");
+				while(pos < offset) {
+					long n = in.skip(offset - pos);
+					if(n <= 0) throw new IOException("Unexpected end of " + file);
+					pos += n;
+				}
+				int len = 0;
+				int b;
+				while((b = in.read()) != -1) {
+					pos++;
+					if(b == '\n') break;
+					if(len == line.length) {
+						byte[] l = new byte[len * 2];
+						System.arraycopy(line, 0, l, 0, len);
+						line = l;
+					}
+					line[len++] = (byte)b;
+				}
+				if(len > 0 && line[len - 1] == '\r') len--;
+				tokenizer.reset(ByteBuffer.wrap(line), 0, len, columns);
+				String[] row = fields == null ? tokenizer.toArray(columns) : tokenizer.toArray(columns, fields);
+				if(!hasNext()) close();
+				return row;
+			} catch(IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
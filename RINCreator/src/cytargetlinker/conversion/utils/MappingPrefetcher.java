@@ -0,0 +1,69 @@
+package cytargetlinker.conversion.utils;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.Xref;
+
+/**
+ * Fills the mapping cache on a background thread while the converter
+ * builds the graph. The converter hands over the identifiers of its rows
+ * in chunks (see {@link RowSource}), in the order it will process them,
+ * and the prefetcher maps them chunk by chunk with {@link Utils#prefetch},
+ * so the lookups of the converter are usually answered from the cache. A
+ * lookup that comes before its chunk is mapped just goes to the database.
+ *
+ * Does nothing if the mapper has no cache.
+ * @author Thomas
+ */
+public class MappingPrefetcher {
+	public static final int CHUNK_SIZE = 1000;
+
+	private final IDMapper mapper;
+	private final ExecutorService executor;
+
+	public MappingPrefetcher(IDMapper mapper) {
+		this.mapper = mapper;
+		if(mapper instanceof CachingIDMapper) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "mapping prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else {
+			executor = null;
+		}
+	}
+
+	/**
+	 * Maps the xrefs in the background.
+	 */
+	public void prefetch(final Collection<Xref> refs, final DataSource... tgt) {
+		submit(new Runnable() {
+			public void run() {
+				Utils.prefetch(mapper, refs, tgt);
+			}
+		});
+	}
+
+	/**
+	 * Runs a prefetch that needs more than one step in the background,
+	 * after the prefetches that were submitted before.
+	 */
+	public void submit(Runnable job) {
+		if(executor != null) executor.execute(job);
+	}
+
+	/**
+	 * Drops the chunks that are not mapped yet.
+	 */
+	public void close() {
+		if(executor != null) executor.shutdownNow();
+	}
+}
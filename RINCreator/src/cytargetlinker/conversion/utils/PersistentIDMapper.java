@@ -0,0 +1,414 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Keeps the results of mapID in files that are reused by later runs.
+ * There is one file per source data source and target data sources,
+ * named after a checksum of the path, size and modification time of the
+ * BridgeDb files, so a changed mapping file automatically gets new cache
+ * files without reading the (large) mapping files at every start.
+ *
+ * A cache file is a hash table that is memory mapped and read in place:
+ * a header (magic, number of entries, number of slots, offset of the
+ * slots), the entries (id and the mapped xrefs) and the slots with the
+ * offset of the entry (0 for an empty slot, linear probing).
+ *
+ * New results are collected in memory and merged into the file when the
+ * mapper is closed. The merged file is written next to the old one and
+ * renamed, so other processes keep reading a consistent file. The merge
+ * holds a lock on a sibling .lock file, so the results of processes that
+ * close at the same time are all kept. Cache files of the same source
+ * data source with another checksum are deleted when a source data
+ * source is first used, as their BridgeDb files have changed.
+ * @author Thomas
+ */
+public class PersistentIDMapper implements IDMapper {
+	private final static Logger log = Logger.getLogger(PersistentIDMapper.class.getName());
+
+	private static final int MAGIC = 0x524d4331;
+	private static final int HEADER_SIZE = 20;
+
+	private final IDMapper mapper;
+	private final File dir;
+	private final String checksum;
+	private final Map<String, CacheFile> files = new HashMap<String, CacheFile>();
+	private final Set<String> cleaned = new HashSet<String>();
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public PersistentIDMapper(IDMapper mapper, List<File> bridgeFiles, File dir) throws IOException {
+		this.mapper = mapper;
+		this.dir = dir;
+		if(!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+		this.checksum = checksum(bridgeFiles);
+	}
+
+	/**
+	 * @return the MD5 of the canonical path, size and modification time
+	 * of all files, as hex string
+	 */
+	static String checksum(List<File> files) throws IOException {
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		for(File f : files) {
+			if(!f.isFile()) throw new IOException("Mapping file " + f + " does not exist");
+			String key = f.getCanonicalPath() + "\t" + f.length() + "\t" + f.lastModified() + "\n";
+			md5.update(utf8(key));
+		}
+		return new BigInteger(1, md5.digest()).toString(16);
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		if(ref.getDataSource() == null || ref.getId() == null) return mapper.mapID(ref, tgtDataSources);
+		CacheFile file = getFile(ref.getDataSource(), tgtDataSources);
+		Set<Xref> result = file.get(ref.getId());
+		count(result != null);
+		if(result == null) {
+			result = mapper.mapID(ref, tgtDataSources);
+			file.put(ref.getId(), result);
+		}
+		return result;
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		List<Xref> missing = new ArrayList<Xref>();
+		for(Xref ref : srcXrefs) {
+			if(ref.getDataSource() == null || ref.getId() == null) continue;
+			Set<Xref> set = getFile(ref.getDataSource(), tgtDataSources).get(ref.getId());
+			count(set != null);
+			if(set == null) missing.add(ref);
+			else if(!set.isEmpty()) result.put(ref, set);
+		}
+		if(!missing.isEmpty()) {
+			Map<Xref, Set<Xref>> mapped = mapper.mapID(missing, tgtDataSources);
+			for(Xref ref : missing) {
+				Set<Xref> set = mapped.get(ref);
+				if(set == null) set = new HashSet<Xref>();
+				getFile(ref.getDataSource(), tgtDataSources).put(ref.getId(), set);
+				if(!set.isEmpty()) result.put(ref, set);
+			}
+		}
+		return result;
+	}
+
+	private synchronized void count(boolean hit) {
+		if(hit) hits++;
+		else misses++;
+	}
+
+	public synchronized String getStatistics() {
+		return "persistent mapping cache: " + hits + " hits, " + misses + " misses";
+	}
+
+	private synchronized CacheFile getFile(DataSource src, DataSource[] tgt) throws IDMapperException {
+		StringBuilder name = new StringBuilder(checksum).append('-').append(src.getSystemCode());
+		for(DataSource ds : tgt) name.append('-').append(ds.getSystemCode());
+		String key = name.toString();
+		CacheFile file = files.get(key);
+		if(file == null) {
+			try {
+				if(cleaned.add(src.getSystemCode())) deleteStale(src);
+				file = new CacheFile(new File(dir, fileName(key) + ".map"));
+			} catch(IOException e) {
+				throw new IDMapperException(e);
+			}
+			files.put(key, file);
+		}
+		return file;
+	}
+
+	private static String fileName(String key) {
+		return key.replaceAll("[^A-Za-z0-9_-]", "_");
+	}
+
+	/**
+	 * Deletes the cache files (and their lock files) of the source data
+	 * source that were written for other BridgeDb files.
+	 */
+	private void deleteStale(DataSource src) {
+		String code = "-" + fileName(src.getSystemCode());
+		File[] list = dir.listFiles();
+		if(list == null) return;
+		for(File f : list) {
+			String name = f.getName();
+			if(!name.endsWith(".map") && !name.endsWith(".map.lock")) continue;
+			int sep = name.indexOf('-');
+			if(sep < 0 || name.substring(0, sep).equals(checksum)) continue;
+			String rest = name.substring(sep);
+			if(!rest.startsWith(code + "-") && !rest.startsWith(code + ".map")) continue;
+			if(f.delete()) log.info("Deleted the outdated mapping cache " + f);
+		}
+	}
+
+	/**
+	 * Writes the new results to the cache files.
+	 */
+	public synchronized void flush() throws IOException {
+		int added = 0;
+		for(CacheFile file : files.values()) added += file.flush();
+		if(added > 0) log.info("Added " + added + " mappings to the cache in " + dir);
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		return mapper.xrefExists(xref);
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		return mapper.freeSearch(text, limit);
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return mapper.getCapabilities();
+	}
+
+	public void close() throws IDMapperException {
+		try {
+			flush();
+		} catch(IOException e) {
+			throw new IDMapperException(e);
+		} finally {
+			mapper.close();
+		}
+	}
+
+	public boolean isConnected() {
+		return mapper.isConnected();
+	}
+
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * One memory mapped cache file and the results that are not written yet.
+	 */
+	private static class CacheFile {
+		private final File file;
+		private MappedByteBuffer buf;
+		private int slots;
+		private long slotOffset;
+		private final Map<String, Set<Xref>> pending = new LinkedHashMap<String, Set<Xref>>();
+
+		CacheFile(File file) throws IOException {
+			this.file = file;
+			if(file.exists()) open();
+		}
+
+		private void open() throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				if(raf.length() < HEADER_SIZE || raf.length() > Integer.MAX_VALUE) return;
+				MappedByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				if(b.getInt(0) != MAGIC) return;
+				slots = b.getInt(8);
+				slotOffset = b.getLong(12);
+				buf = b;
+			} finally {
+				raf.close();
+			}
+		}
+
+		synchronized Set<Xref> get(String id) {
+			Set<Xref> result = pending.get(id);
+			if(result == null && buf != null) result = read(buf, slots, slotOffset, id);
+			return result == null ? null : new HashSet<Xref>(result);
+		}
+
+		synchronized void put(String id, Set<Xref> result) {
+			pending.put(id, new HashSet<Xref>(result));
+		}
+
+		/**
+		 * Merges the pending results with the current file on disk. Other
+		 * processes wait on the lock file, other mappers of this process on
+		 * the class, as a FileLock is held by the whole process.
+		 * @return the number of results that were added
+		 */
+		synchronized int flush() throws IOException {
+			if(pending.isEmpty()) return 0;
+			int added = pending.size();
+
+			synchronized(PersistentIDMapper.class) {
+				RandomAccessFile lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+				try {
+					FileLock lock = lockFile.getChannel().lock();
+					try {
+						merge();
+					} finally {
+						lock.release();
+					}
+				} finally {
+					lockFile.close();
+				}
+			}
+			pending.clear();
+			open();
+			return added;
+		}
+
+		/**
+		 * Reads the file again, as another process may have written it
+		 * since it was opened, and replaces it with the merged file.
+		 */
+		private void merge() throws IOException {
+			buf = null;
+			if(file.exists()) open();
+			Map<String, Set<Xref>> entries = new LinkedHashMap<String, Set<Xref>>();
+			if(buf != null) readAll(buf, slots, slotOffset, entries);
+			entries.putAll(pending);
+
+			File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			write(tmp, entries);
+			if(!tmp.renameTo(file)) {
+				file.delete();
+				if(!tmp.renameTo(file)) throw new IOException("Could not write " + file);
+			}
+		}
+	}
+
+	private static Set<Xref> read(ByteBuffer buf, int slots, long slotOffset, String id) {
+		byte[] key = utf8(id);
+		int i = hash(id) & (slots - 1);
+		while(true) {
+			int off = (int)buf.getLong((int)slotOffset + 8 * i);
+			if(off == 0) return null;
+			if(keyEquals(buf, off, key)) return readValue(buf, off + 4 + key.length);
+			i = (i + 1) & (slots - 1);
+		}
+	}
+
+	private static boolean keyEquals(ByteBuffer buf, int off, byte[] key) {
+		if(buf.getInt(off) != key.length) return false;
+		for(int i = 0; i < key.length; i++) {
+			if(buf.get(off + 4 + i) != key[i]) return false;
+		}
+		return true;
+	}
+
+	private static Set<Xref> readValue(ByteBuffer buf, int off) {
+		int n = buf.getInt(off);
+		off += 4;
+		Set<Xref> result = new HashSet<Xref>();
+		for(int i = 0; i < n; i++) {
+			String code = readString(buf, off);
+			off += 4 + buf.getInt(off);
+			String id = readString(buf, off);
+			off += 4 + buf.getInt(off);
+			result.add(new Xref(id, DataSource.getBySystemCode(code)));
+		}
+		return result;
+	}
+
+	private static String readString(ByteBuffer buf, int off) {
+		byte[] b = new byte[buf.getInt(off)];
+		ByteBuffer d = buf.duplicate();
+		d.position(off + 4);
+		d.get(b);
+		try {
+			return new String(b, "UTF-8");
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void readAll(ByteBuffer buf, int slots, long slotOffset, Map<String, Set<Xref>> entries) {
+		for(int i = 0; i < slots; i++) {
+			int off = (int)buf.getLong((int)slotOffset + 8 * i);
+			if(off == 0) continue;
+			String id = readString(buf, off);
+			entries.put(id, readValue(buf, off + 4 + buf.getInt(off)));
+		}
+	}
+
+	private static void write(File file, Map<String, Set<Xref>> entries) throws IOException {
+		int slots = 16;
+		while(slots < entries.size() * 2) slots <<= 1;
+		long[] table = new long[slots];
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		long pos = HEADER_SIZE;
+		try {
+			out.write(new byte[HEADER_SIZE]);
+			for(Map.Entry<String, Set<Xref>> e : entries.entrySet()) {
+				int i = hash(e.getKey()) & (slots - 1);
+				while(table[i] != 0) i = (i + 1) & (slots - 1);
+				table[i] = pos;
+
+				pos += writeString(out, e.getKey());
+				out.writeInt(e.getValue().size());
+				pos += 4;
+				for(Xref x : e.getValue()) {
+					pos += writeString(out, x.getDataSource() == null ? "" : x.getDataSource().getSystemCode());
+					pos += writeString(out, x.getId());
+				}
+			}
+			for(long t : table) out.writeLong(t);
+		} finally {
+			out.close();
+		}
+		if(pos + 8L * slots > Integer.MAX_VALUE) {
+			file.delete();
+			throw new IOException("Mapping cache " + file + " is too large");
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.writeInt(MAGIC);
+			raf.writeInt(entries.size());
+			raf.writeInt(slots);
+			raf.writeLong(pos);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static int writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = utf8(s);
+		out.writeInt(b.length);
+		out.write(b);
+		return 4 + b.length;
+	}
+
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
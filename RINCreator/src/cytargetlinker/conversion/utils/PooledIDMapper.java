@@ -0,0 +1,172 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Opens a BridgeDb file several times, each with its own read-only
+ * connection, and spreads the lookups over these connections. The
+ * collection form of mapID is split in batches of
+ * {@link BatchIDMapper#BATCH_SIZE} that are mapped by a pool of worker
+ * threads, single lookups use whichever connection is free.
+ * @author Thomas
+ */
+public class PooledIDMapper implements IDMapper {
+	private final List<BatchIDMapper> mappers = new ArrayList<BatchIDMapper>();
+	private final BlockingQueue<BatchIDMapper> idle;
+	private final ExecutorService executor;
+
+	public PooledIDMapper(File file, int size) throws IDMapperException {
+		idle = new ArrayBlockingQueue<BatchIDMapper>(size);
+		try {
+			for(int i = 0; i < size; i++) {
+				BatchIDMapper mapper = new BatchIDMapper(file);
+				mappers.add(mapper);
+				idle.add(mapper);
+			}
+		} catch(IDMapperException e) {
+			for(BatchIDMapper mapper : mappers) mapper.close();
+			throw e;
+		}
+		executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "mapping worker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public int getSize() {
+		return mappers.size();
+	}
+
+	/**
+	 * @return the connection of the first mapper, for reading the whole database
+	 */
+	Connection getConnection() {
+		return mappers.get(0).getConnection();
+	}
+
+	/**
+	 * Fills the page cache, which is shared by all connections to the file.
+	 */
+	public void warmUp() throws IDMapperException {
+		mappers.get(0).warmUp();
+	}
+
+	private BatchIDMapper take() throws IDMapperException {
+		try {
+			return idle.take();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IDMapperException(e);
+		}
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		BatchIDMapper mapper = take();
+		try {
+			return mapper.mapID(ref, tgtDataSources);
+		} finally {
+			idle.add(mapper);
+		}
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, final DataSource... tgtDataSources) throws IDMapperException {
+		List<Xref> refs = new ArrayList<Xref>(srcXrefs);
+		if(refs.size() <= BatchIDMapper.BATCH_SIZE) return map(refs, tgtDataSources);
+
+		List<Future<Map<Xref, Set<Xref>>>> futures = new ArrayList<Future<Map<Xref, Set<Xref>>>>();
+		for(int i = 0; i < refs.size(); i += BatchIDMapper.BATCH_SIZE) {
+			final List<Xref> batch = refs.subList(i, Math.min(refs.size(), i + BatchIDMapper.BATCH_SIZE));
+			futures.add(executor.submit(new Callable<Map<Xref, Set<Xref>>>() {
+				public Map<Xref, Set<Xref>> call() throws Exception {
+					return map(batch, tgtDataSources);
+				}
+			}));
+		}
+
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		try {
+			for(Future<Map<Xref, Set<Xref>>> f : futures) result.putAll(f.get());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IDMapperException(e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IDMapperException) throw (IDMapperException)e.getCause();
+			throw new IDMapperException(e.getCause());
+		} finally {
+			for(Future<Map<Xref, Set<Xref>>> f : futures) f.cancel(false);
+		}
+		return result;
+	}
+
+	private Map<Xref, Set<Xref>> map(List<Xref> refs, DataSource... tgtDataSources) throws IDMapperException {
+		BatchIDMapper mapper = take();
+		try {
+			return mapper.mapID(refs, tgtDataSources);
+		} finally {
+			idle.add(mapper);
+		}
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		BatchIDMapper mapper = take();
+		try {
+			return mapper.xrefExists(xref);
+		} finally {
+			idle.add(mapper);
+		}
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		BatchIDMapper mapper = take();
+		try {
+			return mapper.freeSearch(text, limit);
+		} finally {
+			idle.add(mapper);
+		}
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return mappers.get(0).getCapabilities();
+	}
+
+	public void close() throws IDMapperException {
+		executor.shutdownNow();
+		IDMapperException error = null;
+		for(BatchIDMapper mapper : mappers) {
+			try {
+				mapper.close();
+			} catch(IDMapperException e) {
+				error = e;
+			}
+		}
+		if(error != null) throw error;
+	}
+
+	public boolean isConnected() {
+		return mappers.get(0).isConnected();
+	}
+}
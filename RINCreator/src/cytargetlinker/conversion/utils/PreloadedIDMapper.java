@@ -0,0 +1,246 @@
+package cytargetlinker.conversion.utils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Reads the mappings between a set of data sources from a BridgeDb file
+ * into memory at startup and answers mapID for these data sources without
+ * asking the database. Xrefs of other data sources are passed on to the
+ * mapper of the file.
+ *
+ * The link table groups xrefs that map to each other. Like the sections of
+ * {@link CompiledIDMapper} the mappings are kept per source and target data
+ * source as a sorted array of the source ids, the start of their targets
+ * and the array of the target ids, so no object per xref is kept.
+ * @author Thomas
+ */
+public class PreloadedIDMapper implements IDMapper {
+	private final static Logger log = Logger.getLogger(PreloadedIDMapper.class.getName());
+
+	private static final Comparator<String[]> ORDER = new Comparator<String[]>() {
+		public int compare(String[] a, String[] b) {
+			int c = a[0].compareTo(b[0]);
+			return c != 0 ? c : a[1].compareTo(b[1]);
+		}
+	};
+
+	private final IDMapper mapper;
+	private final Connection con;
+	private final Set<DataSource> dataSources;
+	private final Map<DataSource, Map<DataSource, Table>> tables = new HashMap<DataSource, Map<DataSource, Table>>();
+
+	public PreloadedIDMapper(BatchIDMapper mapper, Set<DataSource> dataSources) throws IDMapperException {
+		this(mapper, mapper.getConnection(), dataSources);
+	}
+
+	public PreloadedIDMapper(PooledIDMapper mapper, Set<DataSource> dataSources) throws IDMapperException {
+		this(mapper, mapper.getConnection(), dataSources);
+	}
+
+	private PreloadedIDMapper(IDMapper mapper, Connection con, Set<DataSource> dataSources) throws IDMapperException {
+		this.mapper = mapper;
+		this.con = con;
+		this.dataSources = dataSources;
+		long start = System.currentTimeMillis();
+		int count;
+		try {
+			count = load();
+		} catch(SQLException e) {
+			throw new IDMapperException(e);
+		}
+		log.info("Loaded " + count + " mappings (" + dataSources.size() + " data sources) in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @return the number of mappings
+	 */
+	private int load() throws SQLException {
+		StringBuilder sql = new StringBuilder("SELECT idLeft, codeLeft, idRight, codeRight FROM link WHERE codeRight IN (");
+		boolean first = true;
+		for(DataSource ds : dataSources) {
+			sql.append(first ? "'" : ", '").append(ds.getSystemCode().replace("'", "''")).append("'");
+			first = false;
+		}
+		sql.append(") ORDER BY codeLeft, idLeft");
+
+		Map<DataSource, Map<DataSource, List<String[]>>> pairs = new HashMap<DataSource, Map<DataSource, List<String[]>>>();
+		Map<String, String> strings = new HashMap<String, String>();
+		Statement st = con.createStatement();
+		try {
+			ResultSet r = st.executeQuery(sql.toString());
+			String left = null;
+			List<Xref> group = new ArrayList<Xref>();
+			while(r.next()) {
+				String l = r.getString(2) + ":" + r.getString(1);
+				if(!l.equals(left)) {
+					addGroup(group, pairs);
+					group.clear();
+					left = l;
+				}
+				String id = r.getString(3);
+				String s = strings.get(id);
+				if(s == null) strings.put(id, s = id);
+				group.add(new Xref(s, DataSource.getBySystemCode(r.getString(4))));
+			}
+			addGroup(group, pairs);
+			r.close();
+		} finally {
+			st.close();
+		}
+
+		int count = 0;
+		for(Map.Entry<DataSource, Map<DataSource, List<String[]>>> src : pairs.entrySet()) {
+			Map<DataSource, Table> bySrc = new HashMap<DataSource, Table>();
+			for(Map.Entry<DataSource, List<String[]>> tgt : src.getValue().entrySet()) {
+				Table t = new Table(tgt.getValue());
+				bySrc.put(tgt.getKey(), t);
+				count += t.targets.length;
+			}
+			tables.put(src.getKey(), bySrc);
+		}
+		return count;
+	}
+
+	/**
+	 * Every member of a group maps to all members of the group.
+	 */
+	private static void addGroup(List<Xref> group, Map<DataSource, Map<DataSource, List<String[]>>> pairs) {
+		for(Xref a : group) {
+			Map<DataSource, List<String[]>> bySrc = pairs.get(a.getDataSource());
+			if(bySrc == null) {
+				bySrc = new HashMap<DataSource, List<String[]>>();
+				pairs.put(a.getDataSource(), bySrc);
+			}
+			for(Xref b : group) {
+				List<String[]> list = bySrc.get(b.getDataSource());
+				if(list == null) {
+					list = new ArrayList<String[]>();
+					bySrc.put(b.getDataSource(), list);
+				}
+				list.add(new String[] { a.getId(), b.getId() });
+			}
+		}
+	}
+
+	/**
+	 * The mappings of one source and target data source: the target ids of
+	 * ids[i] are targets[starts[i]] to targets[starts[i + 1] - 1].
+	 */
+	private static class Table {
+		final String[] ids;
+		final int[] starts;
+		final String[] targets;
+
+		Table(List<String[]> pairs) {
+			String[][] sorted = pairs.toArray(new String[pairs.size()][]);
+			pairs.clear();
+			Arrays.sort(sorted, ORDER);
+			List<String> ids = new ArrayList<String>();
+			List<Integer> starts = new ArrayList<Integer>();
+			List<String> targets = new ArrayList<String>();
+			String[] last = null;
+			for(String[] p : sorted) {
+				if(last != null && ORDER.compare(p, last) == 0) continue;
+				if(last == null || !p[0].equals(last[0])) {
+					ids.add(p[0]);
+					starts.add(targets.size());
+				}
+				targets.add(p[1]);
+				last = p;
+			}
+			starts.add(targets.size());
+
+			this.ids = ids.toArray(new String[ids.size()]);
+			this.targets = targets.toArray(new String[targets.size()]);
+			this.starts = new int[starts.size()];
+			for(int i = 0; i < this.starts.length; i++) this.starts[i] = starts.get(i);
+		}
+
+		void map(String id, DataSource tgt, Set<Xref> result) {
+			int i = Arrays.binarySearch(ids, id);
+			if(i < 0) return;
+			for(int j = starts[i]; j < starts[i + 1]; j++) result.add(new Xref(targets[j], tgt));
+		}
+	}
+
+	/**
+	 * @return true if the mapping can be answered from memory
+	 */
+	private boolean isLoaded(Xref ref, DataSource... tgt) {
+		if(!dataSources.contains(ref.getDataSource())) return false;
+		if(tgt.length == 0) return false;
+		for(DataSource ds : tgt) {
+			if(!dataSources.contains(ds)) return false;
+		}
+		return true;
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		if(!isLoaded(ref, tgtDataSources)) return mapper.mapID(ref, tgtDataSources);
+
+		Set<Xref> result = new HashSet<Xref>();
+		if(ref.getId() == null) return result;
+		Map<DataSource, Table> bySrc = tables.get(ref.getDataSource());
+		if(bySrc == null) return result;
+		for(DataSource ds : tgtDataSources) {
+			Table t = bySrc.get(ds);
+			if(t != null) t.map(ref.getId(), ds, result);
+		}
+		return result;
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		List<Xref> other = new ArrayList<Xref>();
+		for(Xref ref : srcXrefs) {
+			if(isLoaded(ref, tgtDataSources)) {
+				Set<Xref> set = mapID(ref, tgtDataSources);
+				if(!set.isEmpty()) result.put(ref, set);
+			} else {
+				other.add(ref);
+			}
+		}
+		if(!other.isEmpty()) result.putAll(mapper.mapID(other, tgtDataSources));
+		return result;
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		return mapper.xrefExists(xref);
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		return mapper.freeSearch(text, limit);
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return mapper.getCapabilities();
+	}
+
+	public void close() throws IDMapperException {
+		tables.clear();
+		mapper.close();
+	}
+
+	public boolean isConnected() {
+		return mapper.isConnected();
+	}
+}
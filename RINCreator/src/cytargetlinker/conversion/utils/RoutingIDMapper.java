@@ -0,0 +1,136 @@
+package cytargetlinker.conversion.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Combines mappers like a non-transitive IDMapperStack, but only asks the
+ * mappers that support the source data source and at least one of the
+ * target data sources. The supported data sources are read from the
+ * capabilities of each mapper when the router is created; a mapper whose
+ * capabilities can not be read is asked for everything.
+ * @author Thomas
+ */
+public class RoutingIDMapper implements IDMapper {
+	private final List<IDMapper> mappers;
+	private final List<Set<DataSource>> sources = new ArrayList<Set<DataSource>>();
+	private final List<Set<DataSource>> targets = new ArrayList<Set<DataSource>>();
+
+	public RoutingIDMapper(List<IDMapper> mappers) {
+		this.mappers = mappers;
+		for(IDMapper mapper : mappers) {
+			try {
+				IDMapperCapabilities c = mapper.getCapabilities();
+				sources.add(new HashSet<DataSource>(c.getSupportedSrcDataSources()));
+				targets.add(new HashSet<DataSource>(c.getSupportedTgtDataSources()));
+			} catch(IDMapperException e) {
+				sources.add(null);
+				targets.add(null);
+			}
+		}
+	}
+
+	public int getSize() {
+		return mappers.size();
+	}
+
+	/**
+	 * @return the supported source data sources of a mapper, null if unknown
+	 */
+	public Set<DataSource> getSources(int i) {
+		return sources.get(i);
+	}
+
+	private boolean supports(int i, DataSource src, DataSource... tgt) {
+		if(sources.get(i) != null && !sources.get(i).contains(src)) return false;
+		if(targets.get(i) == null || tgt.length == 0) return true;
+		for(DataSource ds : tgt) {
+			if(targets.get(i).contains(ds)) return true;
+		}
+		return false;
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		Set<Xref> result = new HashSet<Xref>();
+		for(int i = 0; i < mappers.size(); i++) {
+			if(supports(i, ref.getDataSource(), tgtDataSources)) result.addAll(mappers.get(i).mapID(ref, tgtDataSources));
+		}
+		return result;
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for(int i = 0; i < mappers.size(); i++) {
+			List<Xref> refs = new ArrayList<Xref>();
+			for(Xref ref : srcXrefs) {
+				if(supports(i, ref.getDataSource(), tgtDataSources)) refs.add(ref);
+			}
+			if(refs.isEmpty()) continue;
+			for(Map.Entry<Xref, Set<Xref>> e : mappers.get(i).mapID(refs, tgtDataSources).entrySet()) {
+				Set<Xref> set = result.get(e.getKey());
+				if(set == null) result.put(e.getKey(), new HashSet<Xref>(e.getValue()));
+				else set.addAll(e.getValue());
+			}
+		}
+		return result;
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		for(int i = 0; i < mappers.size(); i++) {
+			if(supports(i, xref.getDataSource()) && mappers.get(i).xrefExists(xref)) return true;
+		}
+		return false;
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		Set<Xref> result = new HashSet<Xref>();
+		for(IDMapper mapper : mappers) {
+			if(!mapper.getCapabilities().isFreeSearchSupported()) continue;
+			result.addAll(mapper.freeSearch(text, limit - result.size()));
+			if(result.size() >= limit) break;
+		}
+		return result;
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		Set<DataSource> all = new HashSet<DataSource>();
+		boolean freeSearch = false;
+		for(int i = 0; i < mappers.size(); i++) {
+			if(sources.get(i) != null) all.addAll(sources.get(i));
+			if(targets.get(i) != null) all.addAll(targets.get(i));
+			freeSearch |= mappers.get(i).getCapabilities().isFreeSearchSupported();
+		}
+		return new AbstractIDMapperCapabilities(all, freeSearch, null) {};
+	}
+
+	public void close() throws IDMapperException {
+		IDMapperException error = null;
+		for(IDMapper mapper : mappers) {
+			try {
+				mapper.close();
+			} catch(IDMapperException e) {
+				error = e;
+			}
+		}
+		if(error != null) throw error;
+	}
+
+	public boolean isConnected() {
+		for(IDMapper mapper : mappers) {
+			if(!mapper.isConnected()) return false;
+		}
+		return true;
+	}
+}
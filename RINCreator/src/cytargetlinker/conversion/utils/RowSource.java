@@ -0,0 +1,128 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import cytargetlinker.conversion.graph.Escaper;
+
+/**
+ * Reads the rows of a tab separated input file and hands them to a
+ * {@link RowHandler} while the file is read, so only a few rows are in
+ * memory at any time. A line is only split into Strings if the handler
+ * accepts it, the filter reads the fields from a {@link TsvTokenizer},
+ * and only the fields the handler reads need to be decoded.
+ * The rows are passed on in chunks of
+ * {@link MappingPrefetcher#CHUNK_SIZE}: the handler gets the next chunk
+ * before the rows of the current one, so the mappings of the next chunk
+ * can be prefetched while the current rows are processed.
+ * @author Thomas
+ */
+public class RowSource {
+	private final BufferedReader reader;
+	private final int columns;
+	private Escaper escaper;
+	private int[] fields;
+	private final TsvTokenizer tokenizer = new TsvTokenizer();
+
+	/**
+	 * @param reader the reader, positioned after the header
+	 * @param columns the number of columns of the header
+	 */
+	public RowSource(BufferedReader reader, int columns) {
+		this.reader = reader;
+		this.columns = columns;
+	}
+
+	/**
+	 * Sets an escaper that is applied to every line before it is split.
+	 */
+	public void setEscaper(Escaper escaper) {
+		this.escaper = escaper;
+	}
+
+	/**
+	 * Only decodes the given fields of the accepted rows, the other
+	 * elements of the rows are null. All fields are decoded by default.
+	 */
+	public void setFields(int... fields) {
+		this.fields = fields;
+	}
+
+	public interface RowHandler {
+		/**
+		 * @param line the fields of the line, only valid during the call
+		 * @return false to skip the row
+		 */
+		public boolean accept(TsvTokenizer line);
+
+		/**
+		 * Called for every chunk of accepted rows, before the rows of
+		 * the previous chunk are handled.
+		 */
+		public void chunk(List<String[]> rows);
+
+		public void row(String[] row);
+	}
+
+	/**
+	 * Reads the remaining lines of the reader.
+	 * @return the number of accepted rows
+	 */
+	public int read(RowHandler handler) throws IOException {
+		int count = 0;
+		Chunks chunks = new Chunks(handler);
+		String line;
+		while((line = reader.readLine()) != null) {
+			if(escaper != null) line = escaper.escape(line);
+			tokenizer.reset(line, columns);
+			if(!handler.accept(tokenizer)) continue;
+			chunks.add(fields == null ? tokenizer.toArray(columns) : tokenizer.toArray(columns, fields));
+			count++;
+		}
+		chunks.finish();
+		return count;
+	}
+
+	/**
+	 * Hands rows that are already read and filtered to the handler, in the
+	 * same chunks as {@link #read(RowHandler)}.
+	 */
+	public static void handle(Iterator<String[]> rows, RowHandler handler) {
+		Chunks chunks = new Chunks(handler);
+		while(rows.hasNext()) chunks.add(rows.next());
+		chunks.finish();
+	}
+
+	/**
+	 * Collects the rows in chunks, a chunk is handed to the handler before
+	 * the rows of the previous chunk, so at most two chunks are in memory.
+	 */
+	private static class Chunks {
+		private final RowHandler handler;
+		private List<String[]> current = new ArrayList<String[]>();
+		private List<String[]> next = new ArrayList<String[]>();
+
+		Chunks(RowHandler handler) {
+			this.handler = handler;
+		}
+
+		void add(String[] row) {
+			next.add(row);
+			if(next.size() == MappingPrefetcher.CHUNK_SIZE) {
+				handler.chunk(next);
+				for(String[] r : current) handler.row(r);
+				current = next;
+				next = new ArrayList<String[]>();
+			}
+		}
+
+		void finish() {
+			if(!next.isEmpty()) handler.chunk(next);
+			for(String[] r : current) handler.row(r);
+			for(String[] r : next) handler.row(r);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a tab separated line into fields without creating a String per
+ * field. The line (a CharSequence or a range of a byte buffer with UTF-8
+ * text) is scanned once and the fields are kept as offset ranges, a field
+ * is only decoded when it is read with {@link #getString(int)}. The
+ * tokenizer is reused for every line of a file, so it is not thread safe.
+ *
+ * Like String.split("\t", limit) the line is split in at most limit
+ * fields and the last field holds the rest of the line.
+ * @author Thomas
+ */
+public class TsvTokenizer {
+	private CharSequence line;
+	private ByteBuffer bytes;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int count;
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * Tokenizes a line.
+	 * @param limit the maximal number of fields
+	 */
+	public void reset(CharSequence line, int limit) {
+		this.line = line;
+		this.bytes = null;
+		count = 0;
+		int start = 0;
+		int n = line.length();
+		for(int i = 0; i < n && count < limit - 1; i++) {
+			if(line.charAt(i) == '\t') {
+				add(start, i);
+				start = i + 1;
+			}
+		}
+		add(start, n);
+	}
+
+	/**
+	 * Tokenizes the line between from (inclusive) and to (exclusive) of a
+	 * buffer with UTF-8 text, the offsets of the fields are buffer positions.
+	 * @param limit the maximal number of fields
+	 */
+	public void reset(ByteBuffer buf, int from, int to, int limit) {
+		this.line = null;
+		this.bytes = buf;
+		count = 0;
+		int start = from;
+		for(int i = from; i < to && count < limit - 1; i++) {
+			if(buf.get(i) == '\t') {
+				add(start, i);
+				start = i + 1;
+			}
+		}
+		add(start, to);
+	}
+
+	private void add(int start, int end) {
+		if(count == starts.length) {
+			int[] s = new int[count * 2];
+			int[] e = new int[count * 2];
+			System.arraycopy(starts, 0, s, 0, count);
+			System.arraycopy(ends, 0, e, 0, count);
+			starts = s;
+			ends = e;
+		}
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	public int getFieldCount() {
+		return count;
+	}
+
+	/**
+	 * Fails like an index into the array of String.split for a field
+	 * the line does not have.
+	 */
+	private void check(int field) {
+		if(field >= count) throw new ArrayIndexOutOfBoundsException(field);
+	}
+
+	public int start(int field) {
+		check(field);
+		return starts[field];
+	}
+
+	public int end(int field) {
+		check(field);
+		return ends[field];
+	}
+
+	public int length(int field) {
+		check(field);
+		return ends[field] - starts[field];
+	}
+
+	/**
+	 * The character at a position of the line, bytes are returned as
+	 * characters, so this is only meaningful for ASCII.
+	 */
+	private char charAt(int pos) {
+		return line != null ? line.charAt(pos) : (char)(bytes.get(pos) & 0xff);
+	}
+
+	/**
+	 * @return true if the field contains only ASCII characters
+	 */
+	private boolean isAscii(int field) {
+		if(line != null) return true;
+		for(int i = starts[field]; i < ends[field]; i++) {
+			if(bytes.get(i) < 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares a field with a string without decoding the field.
+	 */
+	public boolean equals(int field, String s) {
+		check(field);
+		if(!isAscii(field)) return getString(field).equals(s);
+		if(length(field) != s.length()) return false;
+		return regionMatches(field, s);
+	}
+
+	public boolean startsWith(int field, String prefix) {
+		check(field);
+		if(!isAscii(field)) return getString(field).startsWith(prefix);
+		if(length(field) < prefix.length()) return false;
+		return regionMatches(field, prefix);
+	}
+
+	private boolean regionMatches(int field, String s) {
+		int pos = starts[field];
+		for(int i = 0; i < s.length(); i++) {
+			if(charAt(pos + i) != s.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes a field.
+	 */
+	public String getString(int field) {
+		check(field);
+		int start = starts[field];
+		int end = ends[field];
+		if(line != null) return line.subSequence(start, end).toString();
+
+		int len = end - start;
+		if(scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+		for(int i = 0; i < len; i++) scratch[i] = bytes.get(start + i);
+		try {
+			return new String(scratch, 0, len, "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Decodes the first columns fields, the other fields are not decoded.
+	 */
+	public String[] toArray(int columns) {
+		String[] row = new String[Math.min(columns, count)];
+		for(int i = 0; i < row.length; i++) row[i] = getString(i);
+		return row;
+	}
+
+	/**
+	 * Decodes only the given fields: the array has the size of
+	 * {@link #toArray(int)}, the other elements are null.
+	 */
+	public String[] toArray(int columns, int[] fields) {
+		String[] row = new String[Math.min(columns, count)];
+		for(int f : fields) {
+			if(f < row.length) row[f] = getString(f);
+		}
+		return row;
+	}
+
+	/**
+	 * Checks a numeric field like Double.parseDouble. Plain decimals are
+	 * recognized without decoding the field, other values are decoded and
+	 * parsed with Double.parseDouble.
+	 * @return true if Double.parseDouble would parse the field
+	 */
+	public boolean isNumber(int field) {
+		if(isDecimal(field)) return true;
+		try {
+			Double.parseDouble(getString(field));
+			return true;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the field is [+-]digits[.digits], [+-]digits. or
+	 * [+-].digits
+	 */
+	private boolean isDecimal(int field) {
+		check(field);
+		int pos = starts[field];
+		int end = ends[field];
+		if(pos < end && (charAt(pos) == '-' || charAt(pos) == '+')) pos++;
+		boolean digit = false;
+		boolean point = false;
+		for(; pos < end; pos++) {
+			char c = charAt(pos);
+			if(c == '.' && !point) point = true;
+			else if(c >= '0' && c <= '9') digit = true;
+			else return false;
+		}
+		return digit;
+	}
+}
@@ -2,18 +2,28 @@ package cytargetlinker.conversion.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.IDMapperStack;
+import org.bridgedb.Xref;
 import org.bridgedb.bio.BioDataSource;
 
+import cytargetlinker.conversion.utils.ArgsParser.AFilesAttributes;
+
 public class Utils {
 	
 	public static void setUpLogger(Logger log, File logFile, boolean append) throws SecurityException, IOException {
@@ -53,6 +63,156 @@ public class Utils {
 		return null;
 	}
 	
+	/**
+	 * Opens the BridgeDb files given on the command line, wrapped in a
+	 * cache for repeated lookups. With --mappingCacheDir the mappings are
+	 * also kept on disk for later runs.
+	 *
+	 * The Derby page cache size has to be set before the first database is
+	 * opened, later calls in the same JVM keep the size of the first one.
+	 * @return null if no mapping file could be opened
+	 */
+	public static IDMapper initIDMapper(AFilesAttributes args) {
+		if(args.isDerbyPageCacheSize()) {
+			System.setProperty("derby.storage.pageCacheSize", String.valueOf(args.getDerbyPageCacheSize()));
+		}
+		Set<DataSource> preload = new HashSet<DataSource>();
+		if(args.isPreloadMappings()) {
+			for(String code : args.getPreloadMappings()) preload.add(DataSource.getBySystemCode(code));
+		}
+		int threads = args.isMappingThreads() ? args.getMappingThreads() : 1;
+		IDMapper mapper = initBatchIDMapper(args.getBridgeDbFiles(), preload, threads, args.getWarmUpMappings());
+		if(mapper == null) return null;
+		
+		if(args.isMappingCacheDir()) {
+			try {
+				mapper = new PersistentIDMapper(mapper, args.getBridgeDbFiles(), args.getMappingCacheDir());
+			} catch (IOException e) {
+				Logger.getLogger(Utils.class.getName()).warning("Persistent mapping cache disabled: " + e.getMessage());
+			}
+		}
+		
+		int size = args.isMappingCacheSize() ? args.getMappingCacheSize() : CachingIDMapper.DEFAULT_SIZE;
+		if(size > 0) {
+			CachingIDMapper cache = new CachingIDMapper(mapper, size);
+			if(args.isUnmappedReport()) cache.setUnmappedReport(args.getUnmappedReport());
+			mapper = cache;
+		}
+		return mapper;
+	}
+	
+	/**
+	 * Like {@link #initIDMapper(List, boolean)}, but the files are opened
+	 * with {@link BatchIDMapper} so collections of xrefs are mapped in
+	 * batches. The mappings between the preload data sources are read
+	 * into memory. With more than one thread, each file is opened that
+	 * many times with {@link PooledIDMapper}. With warmUp the mapping
+	 * tables and their indexes are read once to fill the Derby page cache. Files compiled
+	 * with {@link BridgeDbCompiler} are opened with {@link CompiledIDMapper}.
+	 * The files are combined with {@link RoutingIDMapper}, so each lookup
+	 * only goes to the files with the data sources of the lookup.
+	 */
+	private static IDMapper initBatchIDMapper(List<File> mappingFiles, Set<DataSource> preload, int threads, boolean warmUp) {
+		Logger log = Logger.getLogger(Utils.class.getName());
+		if(mappingFiles.isEmpty()) return null;
+		BioDataSource.init();
+		try {
+			Class.forName("org.bridgedb.rdb.IDMapperRdb");
+		} catch (ClassNotFoundException ex) {
+			return null;
+		}
+		
+		List<IDMapper> mappers = new ArrayList<IDMapper>();
+		for(File file : mappingFiles) {
+			if(file.exists()) {
+				try {
+					long start = System.currentTimeMillis();
+					if(CompiledIDMapper.isCompiled(file)) {
+						mappers.add(new CompiledIDMapper(file));
+						log.info("Opened " + file.getName() + " in " + (System.currentTimeMillis() - start) + " ms");
+					} else if(threads > 1) {
+						PooledIDMapper mapper = new PooledIDMapper(file, threads);
+						log.info("Opened " + file.getName() + " (" + threads + " connections) in " + (System.currentTimeMillis() - start) + " ms");
+						if(warmUp) mapper.warmUp();
+						if(preload.isEmpty()) mappers.add(mapper);
+						else mappers.add(new PreloadedIDMapper(mapper, preload));
+					} else {
+						BatchIDMapper mapper = new BatchIDMapper(file);
+						log.info("Opened " + file.getName() + " in " + (System.currentTimeMillis() - start) + " ms");
+						if(warmUp) mapper.warmUp();
+						if(preload.isEmpty()) mappers.add(mapper);
+						else mappers.add(new PreloadedIDMapper(mapper, preload));
+					}
+				} catch (IDMapperException e) {
+					// not a mapping file
+				}
+			}
+		}
+		if(mappers.isEmpty()) return null;
+		return new RoutingIDMapper(mappers);
+	}
+	
+	/**
+	 * Maps an xref to several data sources with one lookup.
+	 * @return the mapped xrefs per target data source, with an (empty) set
+	 * for every target data source
+	 */
+	public static Map<DataSource, Set<Xref>> mapByDataSource(IDMapper mapper, Xref ref, DataSource... tgt) throws IDMapperException {
+		Map<DataSource, Set<Xref>> result = new HashMap<DataSource, Set<Xref>>();
+		for(DataSource ds : tgt) result.put(ds, new HashSet<Xref>());
+		for(Xref x : mapper.mapID(ref, tgt)) {
+			Set<Xref> set = result.get(x.getDataSource());
+			if(set != null) set.add(x);
+		}
+		return result;
+	}
+	
+	/**
+	 * Maps all xrefs in one go, so the following single lookups for the
+	 * same xrefs and data sources are answered from the mapping cache.
+	 * Does nothing if the mapper has no cache.
+	 * @return the mapping of the xrefs that could be mapped
+	 */
+	public static Map<Xref, Set<Xref>> prefetch(IDMapper mapper, Collection<Xref> refs, DataSource... tgt) {
+		if(!(mapper instanceof CachingIDMapper) || refs.isEmpty()) return new HashMap<Xref, Set<Xref>>();
+		try {
+			return mapper.mapID(refs, tgt);
+		} catch (IDMapperException e) {
+			// the xrefs are looked up one by one later
+			return new HashMap<Xref, Set<Xref>>();
+		}
+	}
+	
+	/**
+	 * Counts n input rows with the xref for the unmapped report.
+	 */
+	public static void countOccurrences(IDMapper mapper, Xref ref, int n) {
+		if(mapper instanceof CachingIDMapper) ((CachingIDMapper)mapper).countOccurrences(ref, n);
+	}
+	
+	/**
+	 * Logs the statistics of the mapping caches and closes the mapper,
+	 * which writes the new mappings to the persistent cache.
+	 */
+	public static void closeIDMapper(Logger log, IDMapper mapper) {
+		if(mapper == null) return;
+		IDMapper m = mapper;
+		if(m instanceof CachingIDMapper) {
+			CachingIDMapper cache = (CachingIDMapper)m;
+			log.info(cache.getStatistics() + "\n");
+			log.info(cache.getUnmappedCount() + " distinct identifiers could not be mapped\n");
+			m = cache.getMapper();
+		}
+		if(m instanceof PersistentIDMapper) {
+			log.info(((PersistentIDMapper)m).getStatistics() + "\n");
+		}
+		try {
+			mapper.close();
+		} catch (IDMapperException e) {
+			log.warning("Could not close mapping database: " + e.getMessage() + "\n");
+		}
+	}
+	
 	public static IDMapper initIDMapper(File file, boolean transitive) {
 		BioDataSource.init();
 
@@ -0,0 +1,67 @@
+package cytargetlinker.conversion;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the tests without a test framework: every public static method
+ * test*() of the classes *Test in the test classes directory is called,
+ * a test fails with an exception. Used by the ant target test.
+ *
+ * USAGE: java cytargetlinker.conversion.TestRunner &lt;test classes directory&gt;
+ * @author Thomas
+ */
+public class TestRunner {
+	public static void main(String[] args) throws Exception {
+		List<String> classes = new ArrayList<String>();
+		File dir = new File(args[0]);
+		findTests(dir, "", classes);
+		Collections.sort(classes);
+
+		int run = 0;
+		int failed = 0;
+		for(String name : classes) {
+			for(Method m : Class.forName(name).getMethods()) {
+				if(!m.getName().startsWith("test") || !Modifier.isStatic(m.getModifiers()) || m.getParameterTypes().length != 0) continue;
+				run++;
+				try {
+					m.invoke(null);
+				} catch(InvocationTargetException e) {
+					failed++;
+					System.out.println("FAILED " + name + "." + m.getName() + ": " + e.getCause());
+					e.getCause().printStackTrace(System.out);
+				}
+			}
+		}
+		System.out.println(run + " tests, " + failed + " failed");
+		if(failed > 0) System.exit(1);
+	}
+
+	private static void findTests(File dir, String pkg, List<String> classes) {
+		File[] files = dir.listFiles();
+		if(files == null) return;
+		for(File f : files) {
+			if(f.isDirectory()) findTests(f, pkg + f.getName() + ".", classes);
+			else if(f.getName().endsWith("Test.class")) classes.add(pkg + f.getName().substring(0, f.getName().length() - 6));
+		}
+	}
+
+	public static void assertTrue(String message, boolean condition) {
+		if(!condition) throw new AssertionError(message);
+	}
+
+	public static void assertEquals(Object expected, Object actual) {
+		assertEquals("", expected, actual);
+	}
+
+	public static void assertEquals(String message, Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new AssertionError(message + " expected <" + expected + "> but was <" + actual + ">");
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package cytargetlinker.conversion.graph;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Compares the tables of {@link Escaper} with a plain implementation
+ * that checks every character, and the XML escaping with a parser.
+ * @author Thomas
+ */
+public class EscaperTest {
+	/** tabs, line breaks, other control characters, the replaced characters, surrogates and non-characters */
+	private static final char[] ALPHABET = {
+		'a', 'Z', '0', ' ', '\t', '\n', '\r', '\u0000', '\u0001', '\u001f', '&', '<', '>', '"', '\'', '\\',
+		'\u00e9', '\u4e2d', '\ud83d', '\ude00', '\ufffe', '\uffff', '\ufffd'
+	};
+
+	public static void testTables() throws Exception {
+		Map<String, Escaper> escapers = new HashMap<String, Escaper>();
+		escapers.put("SANITIZE", Escaper.SANITIZE);
+		escapers.put("XML", Escaper.XML);
+		escapers.put("GML", Escaper.GML);
+		escapers.put("TSV", Escaper.TSV);
+		escapers.put("JSON", Escaper.JSON);
+
+		Random random = new Random(26);
+		for(int n = 0; n < 20000; n++) {
+			String s = randomString(random);
+			for(Map.Entry<String, Escaper> e : escapers.entrySet()) {
+				String expected = reference(s, replacements(e.getKey()));
+				String escaped = e.getValue().escape(s);
+				assertEquals(e.getKey() + " " + codes(s), expected, escaped);
+				if(escaped.equals(s)) assertTrue(e.getKey() + " returns the string itself", escaped == s);
+
+				StringWriter out = new StringWriter();
+				e.getValue().write(out, s);
+				assertEquals(e.getKey() + " write " + codes(s), expected, out.toString());
+			}
+		}
+	}
+
+	/**
+	 * An escaped attribute value is read back by an XML parser as the
+	 * sanitized string.
+	 */
+	public static void testXmlRoundTrip() throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		Random random = new Random(27);
+		for(int n = 0; n < 2000; n++) {
+			String s = randomString(random);
+			String xml = "<a v=\"" + Escaper.XML.escape(s) + "\"/>";
+			Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+			assertEquals(codes(s), Escaper.SANITIZE.escape(s), doc.getDocumentElement().getAttribute("v"));
+		}
+	}
+
+	private static Map<Character, String> replacements(String name) {
+		Map<Character, String> r = new HashMap<Character, String>();
+		if(name.equals("XML")) {
+			r.put('&', "&amp;");
+			r.put('<', "&lt;");
+			r.put('>', "&gt;");
+			r.put('"', "&quot;");
+			r.put('\t', "&#x9;");
+			r.put('\n', "&#xA;");
+			r.put('\r', "&#xD;");
+		} else if(name.equals("GML")) {
+			r.put('"', "");
+		} else if(name.equals("TSV")) {
+			r.put('\t', " ");
+			r.put('\n', " ");
+			r.put('\r', " ");
+		} else if(name.equals("JSON")) {
+			r.put('"', "\\\"");
+			r.put('\\', "\\\\");
+			r.put('\t', "\\t");
+			r.put('\n', "\\n");
+			r.put('\r', "\\r");
+		}
+		return r;
+	}
+
+	/**
+	 * Drops the characters that are not allowed in XML and replaces the
+	 * others, one code point at a time.
+	 */
+	private static String reference(String s, Map<Character, String> replacements) {
+		StringBuilder out = new StringBuilder();
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				out.append(c).append(s.charAt(++i));
+			} else if((c >= 0xD800 && c <= 0xDFFF) || c == 0xFFFE || c == 0xFFFF) {
+				continue;
+			} else if(replacements.containsKey(c)) {
+				out.append(replacements.get(c));
+			} else if(c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+
+	private static String randomString(Random random) {
+		StringBuilder s = new StringBuilder();
+		int len = random.nextInt(12);
+		for(int i = 0; i < len; i++) s.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+		return s.toString();
+	}
+
+	private static String codes(String s) {
+		StringBuilder b = new StringBuilder("[");
+		for(int i = 0; i < s.length(); i++) b.append(i == 0 ? "" : " ").append(Integer.toHexString(s.charAt(i)));
+		return b.append("]").toString();
+	}
+}
@@ -0,0 +1,205 @@
+package cytargetlinker.conversion.graph;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.utils.BridgeFiles;
+
+/**
+ * Builds a graph while {@link GraphPipeline} writes it and compares the
+ * files with the files written from the complete graph.
+ * @author Thomas
+ */
+public class GraphPipelineTest {
+	private static final int NODES = 600;
+	private static final int EDGES = 1500;
+
+	/**
+	 * Nodes and edges finished while the graph is built, after it is
+	 * built and never, with and without edges that arrive before the
+	 * last node.
+	 */
+	public static void testSameOutput() throws Exception {
+		Graph reference = createGraph(new Random(31));
+		List<String> nodeOrder = new ArrayList<String>();
+		for(Node n : reference.getNodes()) nodeOrder.add(n.getId());
+		List<Edge> edgeOrder = new ArrayList<Edge>(reference.getEdges());
+
+		File dir = BridgeFiles.tempDir();
+		try {
+			List<GraphOutput> expected = outputs(dir, "complete");
+			GraphWriters.write(reference, expected);
+
+			for(boolean mixed : new boolean[] { true, false }) {
+				List<GraphOutput> outputs = outputs(dir, "pipeline" + mixed);
+				GraphPipeline pipeline = new GraphPipeline(outputs, 8);
+				Graph graph = new Graph();
+				graph.setTitle(reference.getTitle());
+				graph.attributes.putAll(reference.attributes);
+				graph.setListener(pipeline);
+
+				// nodes and edges are added in the order the complete graph
+				// is written, so the finished ones come first in both files
+				int added = 0;
+				List<Edge> edges = new ArrayList<Edge>();
+				for(int i = 0; i < edgeOrder.size(); i++) {
+					Edge e = edgeOrder.get(i);
+					int last = Math.max(nodeOrder.indexOf(e.getSrc().getId()), nodeOrder.indexOf(e.getTgt().getId()));
+					for(; added <= last; added++) copyNode(reference, graph, nodeOrder.get(added), added);
+					Edge copy = graph.addEdge(e.getId(), graph.getNode(e.getSrc().getId()), graph.getNode(e.getTgt().getId()));
+					copy.attributes.putAll(e.attributes);
+					edges.add(copy);
+					if(mixed && i < EDGES / 3) graph.finish(copy);
+				}
+				for(; added < nodeOrder.size(); added++) copyNode(reference, graph, nodeOrder.get(added), added);
+
+				for(int i = NODES / 3; i < NODES * 2 / 3; i++) graph.finish(graph.getNode(nodeOrder.get(i)));
+				if(mixed) {
+					for(int i = EDGES / 3; i < EDGES * 2 / 3; i++) graph.finish(edges.get(i));
+				}
+				pipeline.finish(graph);
+
+				List<String> order = new ArrayList<String>();
+				for(Node n : graph.getNodes()) order.add(n.getId());
+				assertEquals("node order", nodeOrder, order);
+				assertEquals("edge order", edges, new ArrayList<Edge>(graph.getEdges()));
+				for(int i = 0; i < outputs.size(); i++) {
+					File file = outputs.get(i).getFile();
+					assertEquals(file.toString(), read(expected.get(i).getFile()), read(file));
+				}
+			}
+			assertEquals(Arrays.asList(dir.list()).toString(), expected.size() * 3, dir.list().length);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * The converter gets an exception soon after the writer failed, the
+	 * output file is not created.
+	 */
+	public static void testFailingWriter() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			GraphOutput output = new GraphOutput(new FailingWriter(), new File(dir, "out.txt"));
+			GraphPipeline pipeline = new GraphPipeline(Arrays.asList(output), 2);
+			Graph graph = new Graph();
+			graph.setListener(pipeline);
+			int finished = 0;
+			try {
+				for(; finished < NODES; finished++) graph.finish(graph.addNode("n" + finished));
+				throw new AssertionError("the writer did not stop the converter");
+			} catch(RuntimeException e) {
+				assertEquals("disk full", e.getCause().getMessage());
+			}
+			assertTrue("stopped after " + finished, finished < 10);
+			pipeline.abort();
+			output.abort();
+			assertEquals(0, dir.list().length);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * @return the content of the file, without the time stamp XGMML
+	 * uses as graph id
+	 */
+	private static String read(File file) throws IOException {
+		return FileUtils.readFileToString(file, "UTF-8").replaceFirst("(<graph [^>]*) id=\"\\d+\"", "$1");
+	}
+
+	/**
+	 * @return an output per format that can be written while the graph
+	 * is built
+	 */
+	private static List<GraphOutput> outputs(File dir, String name) {
+		List<GraphOutput> outputs = new ArrayList<GraphOutput>();
+		for(String f : GraphWriters.getFormats()) {
+			GraphWriter w = GraphWriters.forFormat(f);
+			if(!w.needsCompleteGraph()) outputs.add(new GraphOutput(w, new File(dir, name + "." + f)));
+		}
+		return outputs;
+	}
+
+	/**
+	 * Copies a node, the first third is finished right away.
+	 */
+	private static void copyNode(Graph from, Graph to, String id, int position) {
+		Node n = to.addNode(id);
+		n.attributes.putAll(from.getNode(id).attributes);
+		if(position < NODES / 3) to.finish(n);
+	}
+
+	private static Graph createGraph(Random random) {
+		Graph graph = new Graph();
+		graph.setTitle("pipeline \u00e9");
+		graph.setAttribute("description", "a & b");
+		for(int i = 0; i < NODES; i++) {
+			Node n = graph.addNode("n" + i + (i % 7 == 0 ? " \u4e2d\u6587" : ""));
+			n.setAttribute("label", "node <" + i + ">");
+			if(i % 3 == 0) n.setAttribute("score", "" + random.nextDouble());
+		}
+		List<Node> nodes = new ArrayList<Node>(graph.getNodes());
+		Map<String, Boolean> pairs = new HashMap<String, Boolean>();
+		while(graph.getEdges().size() < EDGES) {
+			Node src = nodes.get(random.nextInt(nodes.size()));
+			Node tgt = nodes.get(random.nextInt(nodes.size()));
+			if(pairs.put(src.getId() + "\t" + tgt.getId(), true) != null) continue;
+			Edge e = graph.addEdge("e" + graph.getEdges().size(), src, tgt);
+			e.setAttribute("interactionType", random.nextBoolean() ? "MTI" : "TFTG");
+		}
+		return graph;
+	}
+
+	/**
+	 * Fails on the first node.
+	 */
+	private static class FailingWriter implements GraphWriter {
+		public String getFormat() {
+			return "failing";
+		}
+
+		public String[] getExtensions() {
+			return new String[] { "txt" };
+		}
+
+		public boolean needsCompleteGraph() {
+			return false;
+		}
+
+		public boolean writesNodes() {
+			return true;
+		}
+
+		public void startGraph(Graph graph, PrintWriter out) {
+		}
+
+		public void writeNode(Node node, PrintWriter out) throws IOException {
+			throw new IOException("disk full");
+		}
+
+		public void startEdges(PrintWriter out) {
+		}
+
+		public void writeEdge(Edge edge, PrintWriter out) {
+		}
+
+		public void endGraph(Graph graph, PrintWriter out) {
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package cytargetlinker.conversion.graph;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+import static cytargetlinker.conversion.graph.GraphWritersTest.children;
+import static cytargetlinker.conversion.graph.GraphWritersTest.parse;
+import static cytargetlinker.conversion.graph.GraphWritersTest.xgmmlAttributes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.w3c.dom.Element;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.utils.BridgeFiles;
+
+/**
+ * Shards a network with {@link GraphSharder}, reads the shards back and
+ * checks that they add up to the network.
+ * @author Thomas
+ */
+public class GraphSharderTest {
+	private static final String[] SOURCES = {
+		"miR/1", "miR_1", "MIR_1", "unconnected", "Unconnected", "manifest", "\u00e9\u4e2d", "hsa-miR-21-5p"
+	};
+
+	/**
+	 * One shard per source node, the nodes without edges are all in one
+	 * shard that is not in the manifest.
+	 */
+	public static void testPerSource() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			Graph graph = createGraph(new Random(29));
+			new GraphSharder(Arrays.asList("xgmml", "sif"), 0).write(graph, dir);
+			Map<String, Set<String>> manifest = readManifest(dir);
+			Map<String, Graph> shards = readShards(dir, graph);
+
+			Set<String> sources = sources(graph);
+			assertEquals(sources, manifest.keySet());
+			Set<String> names = new HashSet<String>();
+			for(String src : sources) {
+				Set<String> files = manifest.get(src);
+				assertEquals(src, 2, files.size());
+				String shard = files.iterator().next().replaceAll("\\.[a-z]+$", "");
+				assertEquals(src, new HashSet<String>(Arrays.asList(shard + ".xgmml", shard + ".sif")), files);
+				assertTrue("unique " + shard, names.add(shard.toLowerCase()));
+				for(Edge e : shards.get(shard).getEdges()) assertEquals(shard, src, e.getSrc().getId());
+			}
+			assertEquals(sources.size() + 1, shards.size());
+
+			Graph unconnected = shards.get(GraphSharder.UNCONNECTED);
+			assertEquals(0, unconnected.getEdges().size());
+			assertEquals(isolated(graph), unconnected.nodes.keySet());
+			assertEquals(2 * shards.size() + 1, dir.list().length);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * Hash buckets, the nodes without edges are in the bucket of their id.
+	 */
+	public static void testBuckets() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			Graph graph = createGraph(new Random(30));
+			new GraphSharder(Arrays.asList("xgmml"), 3).write(graph, dir);
+			Map<String, Set<String>> manifest = readManifest(dir);
+			Map<String, Graph> shards = readShards(dir, graph);
+			assertTrue("buckets " + shards.keySet(), shards.size() <= 3);
+
+			Set<String> expected = sources(graph);
+			expected.addAll(isolated(graph));
+			assertEquals(expected, manifest.keySet());
+			for(String src : manifest.keySet()) {
+				String shard = manifest.get(src).iterator().next().replace(".xgmml", "");
+				assertTrue(src + " in " + shard, shards.get(shard).nodes.containsKey(src));
+			}
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * @return the network of every shard, checks that every edge is in
+	 * one shard and that the shards have all nodes and edges with their
+	 * attributes
+	 */
+	private static Map<String, Graph> readShards(File dir, Graph graph) throws Exception {
+		Map<String, Graph> shards = new HashMap<String, Graph>();
+		Map<String, String> nodes = new HashMap<String, String>();
+		Map<String, String> edges = new HashMap<String, String>();
+		for(File f : dir.listFiles()) {
+			if(!f.getName().endsWith(".xgmml")) continue;
+			Graph shard = new Graph();
+			Element root = parse(FileUtils.readFileToString(f, "UTF-8"));
+			for(Element n : children(root, "node")) {
+				Node node = shard.addNode(n.getAttribute("id"));
+				node.attributes.putAll(xgmmlAttributes(n));
+				nodes.put(node.getId(), "" + node.attributes);
+			}
+			for(Element e : children(root, "edge")) {
+				Edge edge = shard.addEdge(e.getAttribute("id"), shard.getNode(e.getAttribute("source")), shard.getNode(e.getAttribute("target")));
+				edge.attributes.putAll(xgmmlAttributes(e));
+				String old = edges.put(edge.getId(), edge.getSrc().getId() + " " + edge.getTgt().getId() + " " + edge.attributes);
+				assertEquals("edge " + edge.getId() + " in one shard", null, old);
+			}
+			shards.put(f.getName().replace(".xgmml", ""), shard);
+		}
+
+		Map<String, String> expectedNodes = new HashMap<String, String>();
+		for(Node n : graph.getNodes()) expectedNodes.put(n.getId(), "" + n.attributes);
+		assertEquals(expectedNodes, nodes);
+		Map<String, String> expectedEdges = new HashMap<String, String>();
+		for(Edge e : graph.getEdges()) {
+			Map<String, Object> attr = new HashMap<String, Object>(e.attributes);
+			attr.put("interaction", "");
+			expectedEdges.put(e.getId(), e.getSrc().getId() + " " + e.getTgt().getId() + " " + attr);
+		}
+		assertEquals(expectedEdges, edges);
+		return shards;
+	}
+
+	/**
+	 * @return the shard files of every source in the manifest
+	 */
+	private static Map<String, Set<String>> readManifest(File dir) throws Exception {
+		List<String> lines = FileUtils.readLines(new File(dir, GraphSharder.MANIFEST), "UTF-8");
+		assertEquals("source\tshard", lines.get(0));
+		Map<String, Set<String>> manifest = new HashMap<String, Set<String>>();
+		for(String line : lines.subList(1, lines.size())) {
+			String[] r = line.split("\t");
+			if(!manifest.containsKey(r[0])) manifest.put(r[0], new HashSet<String>());
+			manifest.get(r[0]).add(r[1]);
+		}
+		return manifest;
+	}
+
+	private static Set<String> sources(Graph graph) {
+		Set<String> sources = new HashSet<String>();
+		for(Edge e : graph.getEdges()) sources.add(e.getSrc().getId());
+		return sources;
+	}
+
+	private static Set<String> isolated(Graph graph) {
+		Set<String> isolated = new HashSet<String>(graph.nodes.keySet());
+		for(Edge e : graph.getEdges()) {
+			isolated.remove(e.getSrc().getId());
+			isolated.remove(e.getTgt().getId());
+		}
+		return isolated;
+	}
+
+	/**
+	 * @return source nodes with edges to genes, genes that are sources as
+	 * well and nodes without edges
+	 */
+	private static Graph createGraph(Random random) {
+		Graph graph = new Graph();
+		graph.setTitle("shards");
+		List<Node> genes = new ArrayList<Node>();
+		for(int i = 0; i < 50; i++) {
+			Node n = graph.addNode("gene " + i);
+			n.setAttribute("label", "G" + i);
+			genes.add(n);
+		}
+		int count = 0;
+		for(String src : SOURCES) {
+			Node s = graph.addNode(src);
+			s.setAttribute("biologicalType", "microRNA");
+			for(int i = random.nextInt(10); i >= 0; i--) {
+				Edge e = graph.addEdge("e" + count++, s, genes.get(random.nextInt(genes.size())));
+				e.setAttribute("datasource", "test \u00e9");
+			}
+		}
+		graph.addEdge("e" + count++, genes.get(0), genes.get(1));
+		for(int i = 0; i < 20; i++) graph.addNode(i % 2 == 0 ? "lonely " + i : "Unconnected " + i).setAttribute("label", "L" + i);
+		return graph;
+	}
+}
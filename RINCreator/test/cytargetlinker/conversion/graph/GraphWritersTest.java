@@ -0,0 +1,313 @@
+package cytargetlinker.conversion.graph;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjena.atlas.json.JSON;
+import org.openjena.atlas.json.JsonObject;
+import org.openjena.atlas.json.JsonValue;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+
+/**
+ * Writes a small graph with special characters in its ids and attributes
+ * in every format and reads it back.
+ * @author Thomas
+ */
+public class GraphWritersTest {
+	public static void testFormats() throws Exception {
+		List<String> formats = GraphWriters.getFormats();
+		for(String f : new String[] { "xgmml", "gml", "sif", "edges", "graphml", "cyjs" }) {
+			assertTrue("format " + f, formats.contains(f));
+		}
+		for(String f : formats) {
+			GraphWriter w = GraphWriters.forFormat(f);
+			assertEquals(f, w.getFormat());
+			assertTrue("new instance " + f, w != GraphWriters.forFormat(f));
+			for(String ext : w.getExtensions()) {
+				assertEquals(f, GraphWriters.forFile(new File("x." + ext)).getFormat());
+			}
+		}
+	}
+
+	public static void testXgmml() throws Exception {
+		Graph graph = createGraph();
+		Element root = parse(write("xgmml", graph));
+		assertEquals(graph.getTitle(), root.getAttribute("label"));
+
+		Map<String, Map<String, String>> nodes = new HashMap<String, Map<String, String>>();
+		Map<String, Map<String, String>> edges = new HashMap<String, Map<String, String>>();
+		for(Element n : children(root, "node")) {
+			assertEquals(n.getAttribute("id"), n.getAttribute("label"));
+			nodes.put(n.getAttribute("id"), xgmmlAttributes(n));
+		}
+		for(Element e : children(root, "edge")) {
+			Map<String, String> attr = xgmmlAttributes(e);
+			attr.put("source", e.getAttribute("source"));
+			attr.put("target", e.getAttribute("target"));
+			edges.put(e.getAttribute("id"), attr);
+		}
+		assertEquals(nodeAttributes(graph), nodes);
+		assertEquals(edgeAttributes(graph), edges);
+		assertEquals(attributes(graph), xgmmlAttributes(root));
+	}
+
+	public static void testGraphMl() throws Exception {
+		Graph graph = createGraph();
+		Element root = parse(write("graphml", graph));
+
+		Map<String, String> keys = new HashMap<String, String>();
+		for(Element k : children(root, "key")) keys.put(k.getAttribute("id"), k.getAttribute("attr.name"));
+
+		Element g = children(root, "graph").get(0);
+		assertEquals(graph.getTitle(), g.getAttribute("id"));
+		Map<String, Map<String, String>> nodes = new HashMap<String, Map<String, String>>();
+		Map<String, Map<String, String>> edges = new HashMap<String, Map<String, String>>();
+		for(Element n : children(g, "node")) {
+			nodes.put(n.getAttribute("id"), graphMlData(n, keys));
+		}
+		for(Element e : children(g, "edge")) {
+			Map<String, String> attr = graphMlData(e, keys);
+			attr.put("source", e.getAttribute("source"));
+			attr.put("target", e.getAttribute("target"));
+			edges.put(e.getAttribute("id"), attr);
+		}
+		assertEquals(nodeAttributes(graph), nodes);
+		assertEquals(edgeAttributes(graph), edges);
+		assertEquals(attributes(graph), graphMlData(g, keys));
+	}
+
+	public static void testCyJs() throws Exception {
+		Graph graph = createGraph();
+		JsonObject json = JSON.parse(write("cyjs", graph));
+
+		Map<String, String> data = jsonData(json);
+		assertEquals(graph.getTitle(), data.remove("name"));
+		assertEquals(attributes(graph), data);
+
+		JsonObject elements = json.get("elements").getAsObject();
+		Map<String, Map<String, String>> nodes = new HashMap<String, Map<String, String>>();
+		Map<String, Map<String, String>> edges = new HashMap<String, Map<String, String>>();
+		for(JsonValue n : elements.get("nodes").getAsArray()) {
+			Map<String, String> attr = jsonData(n.getAsObject());
+			nodes.put(attr.remove("id"), attr);
+		}
+		for(JsonValue e : elements.get("edges").getAsArray()) {
+			Map<String, String> attr = jsonData(e.getAsObject());
+			edges.put(attr.remove("id"), attr);
+		}
+		assertEquals(nodeAttributes(graph), nodes);
+		assertEquals(edgeAttributes(graph), edges);
+	}
+
+	/**
+	 * JSON has no NaN or infinity and no duplicate keys: non-finite numbers
+	 * are written as strings and the graph attribute name is skipped.
+	 */
+	public static void testCyJsNumbers() throws Exception {
+		Graph graph = new Graph();
+		graph.setTitle("title");
+		graph.setAttribute("name", "other name");
+		Node a = graph.addNode("a");
+		a.attributes.put("score", 1.5);
+		a.attributes.put("nan", Double.NaN);
+		a.attributes.put("inf", Double.NEGATIVE_INFINITY);
+		a.attributes.put("id", "other id");
+		String cyjs = write("cyjs", graph);
+		JsonObject json = JSON.parse(cyjs);
+
+		assertEquals(1, cyjs.split("\"name\" :", -1).length - 1);
+		assertEquals("title", json.get("data").getAsObject().get("name").getAsString().value());
+		JsonObject data = json.get("elements").getAsObject().get("nodes").getAsArray().get(0).getAsObject().get("data").getAsObject();
+		assertEquals("a", data.get("id").getAsString().value());
+		assertEquals(1.5, data.get("score").getAsNumber().value().doubleValue());
+		assertEquals("NaN", data.get("nan").getAsString().value());
+		assertEquals("-Infinity", data.get("inf").getAsString().value());
+		assertEquals(1, cyjs.split("\"id\" :", -1).length - 1);
+	}
+
+	/**
+	 * Tabs and line breaks in the ids are written as spaces, each edge is
+	 * one line.
+	 */
+	public static void testSif() throws Exception {
+		Graph graph = createGraph();
+		Set<String> expected = new HashSet<String>();
+		for(Edge e : graph.getEdges()) {
+			expected.add(tsv(e.getSrc().getId()) + "|" + tsv(e.getAttribute("interaction").toString()) + "|" + tsv(e.getTgt().getId()));
+		}
+		Set<String> lines = new HashSet<String>();
+		for(String[] line : lines(write("sif", graph))) {
+			assertEquals(3, line.length);
+			lines.add(line[0] + "|" + line[1] + "|" + line[2]);
+		}
+		assertEquals(expected, lines);
+	}
+
+	public static void testEdgeTable() throws Exception {
+		Graph graph = createGraph();
+		List<String[]> lines = lines(write("edges", graph));
+		String[] header = lines.remove(0);
+		Set<String> columns = new TreeSet<String>();
+		for(Edge e : graph.getEdges()) columns.addAll(e.getAttributeNames());
+		List<String> expectedHeader = new ArrayList<String>();
+		expectedHeader.add("source");
+		expectedHeader.add("target");
+		expectedHeader.addAll(columns);
+		assertEquals(expectedHeader, Arrays.asList(header));
+
+		Map<String, Map<String, String>> expected = new HashMap<String, Map<String, String>>();
+		for(Edge e : graph.getEdges()) {
+			Map<String, String> attr = new HashMap<String, String>();
+			for(String c : columns) attr.put(c, e.getAttribute(c) == null ? "" : tsv(e.getAttribute(c).toString()));
+			expected.put(tsv(e.getSrc().getId()) + "|" + tsv(e.getTgt().getId()), attr);
+		}
+		Map<String, Map<String, String>> edges = new HashMap<String, Map<String, String>>();
+		for(String[] line : lines) {
+			assertEquals(header.length, line.length);
+			Map<String, String> attr = new HashMap<String, String>();
+			for(int i = 2; i < line.length; i++) attr.put(header[i], line[i]);
+			edges.put(line[0] + "|" + line[1], attr);
+		}
+		assertEquals(expected, edges);
+	}
+
+	/**
+	 * GML has no escaping, double quotes are dropped from the values.
+	 */
+	public static void testGml() throws Exception {
+		Graph graph = createGraph();
+		String gml = write("gml", graph);
+		Set<String> identifiers = new HashSet<String>();
+		for(String line : gml.split("\n")) {
+			String[] cols = line.trim().split("\t", 2);
+			if(cols[0].equals("identifier") && !cols[1].contains(",")) identifiers.add(cols[1]);
+		}
+		Set<String> expected = new HashSet<String>();
+		for(Node n : graph.getNodes()) expected.add('"' + Escaper.GML.escape(n.getId()) + '"');
+		assertEquals(expected, identifiers);
+		assertTrue("graph closed", gml.trim().endsWith("]"));
+	}
+
+	/**
+	 * Markup, quotes, tabs, a line break and characters outside ASCII in
+	 * the ids and attributes; no brackets, XGMML writes those as lists.
+	 */
+	private static Graph createGraph() {
+		Graph graph = new Graph();
+		graph.setTitle("net <&> \"\u00e9\"");
+		graph.setAttribute("description", "a\tb & c");
+		Node a = graph.addNode("a&b<c>");
+		Node b = graph.addNode("\"quoted\" \u4e2d\u6587");
+		Node c = graph.addNode("tab\there");
+		a.setAttribute("name", "miR-1 \u00e9");
+		a.setAttribute("note", "line\nbreak");
+		b.setAttribute("name", "'single' \\ back");
+		Edge e1 = graph.addEdge("a&b<c>-\"quoted\"", a, b);
+		e1.setAttribute("interaction", "binds \"x\"");
+		e1.setAttribute("datasource", "db<1>");
+		Edge e2 = graph.addEdge("e2 \ud83d\ude00", b, c);
+		e2.setAttribute("interaction", "inhibits");
+		e2.setAttribute("pmid", "123; 456");
+		return graph;
+	}
+
+	private static String write(String format, Graph graph) throws Exception {
+		StringWriter s = new StringWriter();
+		PrintWriter out = new PrintWriter(s);
+		GraphWriters.write(GraphWriters.forFormat(format), graph, out);
+		out.flush();
+		return s.toString();
+	}
+
+	private static Map<String, String> attributes(AttributeHolder attr) {
+		Map<String, String> result = new HashMap<String, String>();
+		for(String a : attr.getAttributeNames()) result.put(a, attr.getAttribute(a).toString());
+		return result;
+	}
+
+	private static Map<String, Map<String, String>> nodeAttributes(Graph graph) {
+		Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+		for(Node n : graph.getNodes()) result.put(n.getId(), attributes(n));
+		return result;
+	}
+
+	/**
+	 * @return the attributes of each edge with its source and target
+	 */
+	private static Map<String, Map<String, String>> edgeAttributes(Graph graph) {
+		Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+		for(Edge e : graph.getEdges()) {
+			Map<String, String> attr = attributes(e);
+			attr.put("source", e.getSrc().getId());
+			attr.put("target", e.getTgt().getId());
+			result.put(e.getId(), attr);
+		}
+		return result;
+	}
+
+	static Element parse(String xml) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+		return doc.getDocumentElement();
+	}
+
+	static List<Element> children(Element parent, String name) {
+		List<Element> result = new ArrayList<Element>();
+		NodeList list = parent.getChildNodes();
+		for(int i = 0; i < list.getLength(); i++) {
+			if(list.item(i) instanceof Element && list.item(i).getNodeName().equals(name)) result.add((Element)list.item(i));
+		}
+		return result;
+	}
+
+	static Map<String, String> xgmmlAttributes(Element e) {
+		Map<String, String> result = new HashMap<String, String>();
+		for(Element att : children(e, "att")) result.put(att.getAttribute("name"), att.getAttribute("value"));
+		return result;
+	}
+
+	private static Map<String, String> graphMlData(Element e, Map<String, String> keys) {
+		Map<String, String> result = new HashMap<String, String>();
+		for(Element d : children(e, "data")) result.put(keys.get(d.getAttribute("key")), d.getTextContent());
+		return result;
+	}
+
+	private static Map<String, String> jsonData(JsonObject element) {
+		JsonObject data = element.get("data").getAsObject();
+		Map<String, String> result = new HashMap<String, String>();
+		for(String k : data.keys()) result.put(k, data.get(k).getAsString().value());
+		return result;
+	}
+
+	private static List<String[]> lines(String tsv) {
+		List<String[]> result = new ArrayList<String[]>();
+		assertTrue("ends with a line break", tsv.endsWith("\n"));
+		for(String line : tsv.split("\n")) result.add(line.split("\t", -1));
+		return result;
+	}
+
+	private static String tsv(String s) {
+		return Escaper.TSV.escape(s);
+	}
+}
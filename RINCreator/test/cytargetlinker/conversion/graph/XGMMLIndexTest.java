@@ -0,0 +1,123 @@
+package cytargetlinker.conversion.graph;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+import cytargetlinker.conversion.graph.Graph.Edge;
+import cytargetlinker.conversion.graph.Graph.Node;
+import cytargetlinker.conversion.utils.BridgeFiles;
+
+/**
+ * Writes XGMML files with an index and compares the elements read with
+ * {@link XGMMLIndex} with the elements of the file.
+ * @author Thomas
+ */
+public class XGMMLIndexTest {
+	private static final String[] IDS = {
+		"a", "ab", "a b", "A", "1", "10", "2", "\u00e9", "e\u0301", "\u4e2d\u6587", "\ud83d\ude00",
+		"z\u00ff", "<&>", "\"q\"", "miR-1", "miR-1-3p"
+	};
+	private static final Pattern ELEMENT = Pattern.compile("  <(node|edge) xmlns=\"\"[^>]*?(?: />|>.*?</\\1>)\r\n", Pattern.DOTALL);
+
+	/**
+	 * The index entries are sorted with a small buffer, so they are merged
+	 * from many runs.
+	 */
+	public static void testElements() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			Graph graph = createGraph(new Random(32));
+			File xgmml = new File(dir, "net.xgmml");
+			XGMMLWriter writer = new XGMMLWriter();
+			writer.setIndexFile(XGMMLIndex.getIndexFile(xgmml), 4096);
+			PrintWriter out = GraphWriters.openWriter(xgmml);
+			try {
+				GraphWriters.write(writer, graph, out);
+			} finally {
+				out.close();
+			}
+
+			// the elements in the order of the file, which is the order of the graph
+			List<String> nodes = new ArrayList<String>();
+			List<String> edges = new ArrayList<String>();
+			Matcher m = ELEMENT.matcher(FileUtils.readFileToString(xgmml, "UTF-8"));
+			while(m.find()) (m.group(1).equals("node") ? nodes : edges).add(m.group());
+			assertEquals(graph.getNodes().size(), nodes.size());
+			assertEquals(graph.getEdges().size(), edges.size());
+
+			Map<String, String> expectedNodes = new LinkedHashMap<String, String>();
+			int i = 0;
+			for(Node n : graph.getNodes()) expectedNodes.put(n.getId(), nodes.get(i++));
+			Map<String, List<String>> expectedEdges = new LinkedHashMap<String, List<String>>();
+			for(String id : expectedNodes.keySet()) expectedEdges.put(id, new ArrayList<String>());
+			i = 0;
+			for(Edge e : graph.getEdges()) expectedEdges.get(e.getSrc().getId()).add(edges.get(i++));
+
+			XGMMLIndex index = XGMMLIndex.open(xgmml);
+			try {
+				assertEquals(expectedNodes.keySet(), new HashSet<String>(index.getNodeIds()));
+				byte[] last = null;
+				for(String id : index.getNodeIds()) {
+					byte[] b = id.getBytes("UTF-8");
+					if(last != null) assertTrue("sorted " + id, compare(last, b) < 0);
+					last = b;
+				}
+				for(String id : expectedNodes.keySet()) {
+					assertEquals(id, expectedNodes.get(id), index.getNode(id));
+					assertEquals(id, expectedEdges.get(id), index.getEdges(id));
+				}
+				assertEquals(null, index.getNode("missing"));
+				assertEquals(new ArrayList<String>(), index.getEdges("missing"));
+			} finally {
+				index.close();
+			}
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * @return nodes named after the ids and their combinations, some
+	 * without attributes, and edges with several per source node
+	 */
+	private static Graph createGraph(Random random) {
+		Graph graph = new Graph();
+		graph.setTitle("index");
+		List<Node> nodes = new ArrayList<Node>();
+		for(String a : IDS) {
+			for(String b : IDS) {
+				Node n = graph.addNode(a + b);
+				if(random.nextInt(4) > 0) n.setAttribute("label", "node " + b + a);
+				nodes.add(n);
+			}
+		}
+		for(int i = 0; i < 2000; i++) {
+			Node src = nodes.get(random.nextInt(nodes.size() / 4));
+			Edge e = graph.addEdge("e" + i, src, nodes.get(random.nextInt(nodes.size())));
+			e.setAttribute("interaction", random.nextBoolean() ? "MTI" : "TFTG \u00e9");
+		}
+		return graph;
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if(c != 0) return c;
+		}
+		return a.length - b.length;
+	}
+}
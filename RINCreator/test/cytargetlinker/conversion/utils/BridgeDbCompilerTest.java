@@ -0,0 +1,284 @@
+package cytargetlinker.conversion.utils;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+
+/**
+ * Tests the mapping files of {@link BridgeDbCompiler} and the transitive
+ * mappings.
+ * @author Thomas
+ */
+public class BridgeDbCompilerTest {
+	/**
+	 * Every xref maps to all xrefs of its groups: random groups that share
+	 * xrefs, ids with characters outside ASCII, read back with
+	 * {@link CompiledIDMapper}.
+	 */
+	public static void testRoundTrip() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			String[][] groups = randomGroups(new Random(43), 300);
+			File bridge = BridgeFiles.create(dir, "a", groups);
+			File out = new File(dir, "a" + CompiledIDMapper.EXTENSION);
+			BridgeDbCompiler.compile(bridge, out, new HashSet<String>());
+			assertTrue("compiled", CompiledIDMapper.isCompiled(out));
+			check(new CompiledIDMapper(out), groups, new HashSet<String>());
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * Only the mappings between the given data sources are compiled.
+	 */
+	public static void testDataSources() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			String[][] groups = randomGroups(new Random(44), 100);
+			File bridge = BridgeFiles.create(dir, "a", groups);
+			File out = new File(dir, "a" + CompiledIDMapper.EXTENSION);
+			Set<String> codes = ids("L", "S");
+			BridgeDbCompiler.compile(bridge, out, codes);
+			check(new CompiledIDMapper(out), groups, codes);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * Groups of one file are not joined, even if they share an xref: the
+	 * closure of a single file is its direct mapping.
+	 */
+	public static void testSingleFileClosureIsDirect() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			File bridge = BridgeFiles.create(dir, "a",
+				new String[] { "En:E1", "L:1", "S:P1" },
+				new String[] { "En:E2", "L:2", "S:P1" },
+				new String[] { "En:E3", "L:3" });
+			File direct = new File(dir, "direct" + CompiledIDMapper.EXTENSION);
+			File closure = new File(dir, "closure" + CompiledIDMapper.EXTENSION);
+			BridgeDbCompiler.compile(bridge, direct, new HashSet<String>());
+			BridgeDbCompiler.compile(Arrays.asList(bridge), closure, new HashSet<String>(), pairs("L:S", "L:L", "S:L", "En:En"));
+
+			assertEquals("closure of one file", true, FileUtils.contentEquals(direct, closure));
+			CompiledIDMapper mapper = new CompiledIDMapper(closure);
+			assertEquals(ids("1"), map(mapper, "L:1", "L"));
+			assertEquals(ids("1", "2"), map(mapper, "S:P1", "L"));
+			assertEquals(ids("P1"), map(mapper, "L:2", "S"));
+			mapper.close();
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * A transitive mapping chains groups of different files, every file
+	 * is used once.
+	 */
+	public static void testClosureChainsFiles() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			File a = BridgeFiles.create(dir, "a", new String[] { "Mb:miR-1", "Mbm:MIMAT1" });
+			File b = BridgeFiles.create(dir, "b",
+				new String[] { "Mbm:MIMAT1", "En:E1" },
+				new String[] { "En:E1", "L:1" });
+			File c = BridgeFiles.create(dir, "c", new String[] { "En:E1", "L:1" });
+			File out = new File(dir, "out" + CompiledIDMapper.EXTENSION);
+
+			BridgeDbCompiler.compile(Arrays.asList(a, b), out, new HashSet<String>(), pairs("Mb:En", "Mb:L"));
+			CompiledIDMapper mapper = new CompiledIDMapper(out);
+			assertEquals(ids("E1"), map(mapper, "Mb:miR-1", "En"));
+			// would need two groups of file b
+			assertEquals(ids(), map(mapper, "Mb:miR-1", "L"));
+			mapper.close();
+
+			BridgeDbCompiler.compile(Arrays.asList(a, b, c), out, new HashSet<String>(), pairs("Mb:En", "Mb:L"));
+			mapper = new CompiledIDMapper(out);
+			assertEquals(ids("E1"), map(mapper, "Mb:miR-1", "En"));
+			assertEquals(ids("1"), map(mapper, "Mb:miR-1", "L"));
+			mapper.close();
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * Random groups in three files, with a code that is only in one of
+	 * them: the transitive mappings are the xrefs reached over a chain of
+	 * groups of different files.
+	 */
+	public static void testClosureMatchesChains() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			Random random = new Random(45);
+			List<String[][]> files = new ArrayList<String[][]>();
+			for(int f = 0; f < 3; f++) files.add(randomGroups(random, 150));
+			for(String[] group : files.get(2)) {
+				if(random.nextBoolean()) group[group.length - 1] = "Mbm:M" + random.nextInt(20);
+			}
+			List<File> bridges = new ArrayList<File>();
+			for(int f = 0; f < files.size(); f++) bridges.add(BridgeFiles.create(dir, "f" + f, files.get(f)));
+			File out = new File(dir, "out" + CompiledIDMapper.EXTENSION);
+			List<String[]> transitive = pairs("Mb:L", "En:S", "L:Mbm", "Mbm:En", "S:S");
+			BridgeDbCompiler.compile(bridges, out, ids("En", "L"), transitive);
+
+			Set<String> xrefs = new HashSet<String>();
+			for(String[][] groups : files) {
+				for(String[] group : groups) xrefs.addAll(Arrays.asList(group));
+			}
+			for(String code : CODES) {
+				for(String id : IDS) xrefs.add(code + ":" + id);
+			}
+			CompiledIDMapper mapper = new CompiledIDMapper(out);
+			try {
+				int mapped = 0;
+				for(String xref : xrefs) {
+					Set<String> reached = reach(files, xref);
+					for(String[] p : transitive) {
+						if(!xref.startsWith(p[0] + ":")) continue;
+						Set<String> expected = new HashSet<String>();
+						for(String x : reached) {
+							if(x.startsWith(p[1] + ":")) expected.add(x.substring(p[1].length() + 1));
+						}
+						assertEquals(xref + " to " + p[1], expected, map(mapper, xref, p[1]));
+						if(!expected.isEmpty()) mapped++;
+					}
+				}
+				assertTrue("mapped " + mapped, mapped > 100);
+			} finally {
+				mapper.close();
+			}
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * @return the xrefs of the groups reached from xref, every file is
+	 * used at most once
+	 */
+	private static Set<String> reach(List<String[][]> files, String xref) {
+		Set<String> reached = new HashSet<String>();
+		Set<String> visited = new HashSet<String>();
+		List<Object[]> queue = new ArrayList<Object[]>();
+		queue.add(new Object[] { xref, 0 });
+		for(int q = 0; q < queue.size(); q++) {
+			String from = (String)queue.get(q)[0];
+			int used = (Integer)queue.get(q)[1];
+			for(int f = 0; f < files.size(); f++) {
+				if((used & (1 << f)) != 0) continue;
+				for(String[] group : files.get(f)) {
+					if(!Arrays.asList(group).contains(from)) continue;
+					for(String x : group) {
+						reached.add(x);
+						if(visited.add(x + " " + (used | (1 << f)))) queue.add(new Object[] { x, used | (1 << f) });
+					}
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Compares the mapper with the mappings of the groups for all xrefs
+	 * and data sources, closes the mapper.
+	 */
+	private static void check(CompiledIDMapper mapper, String[][] groups, Set<String> codes) throws Exception {
+		Map<String, Set<String>> expected = new HashMap<String, Set<String>>();
+		for(String[] group : groups) {
+			for(String a : group) {
+				if(!codes.isEmpty() && !codes.contains(a.split(":", 2)[0])) continue;
+				Set<String> set = expected.get(a);
+				if(set == null) {
+					set = new HashSet<String>();
+					expected.put(a, set);
+				}
+				for(String b : group) {
+					if(codes.isEmpty() || codes.contains(b.split(":", 2)[0])) set.add(b);
+				}
+			}
+		}
+
+		// the xrefs of the groups and ones that aren't in any group
+		Set<String> xrefs = new HashSet<String>(expected.keySet());
+		for(String code : CODES) {
+			for(String id : IDS) xrefs.add(code + ":" + id);
+		}
+		try {
+			for(String xref : xrefs) {
+				Set<String> all = expected.containsKey(xref) ? expected.get(xref) : new HashSet<String>();
+				for(String tgt : CODES) {
+					Set<String> ids = new HashSet<String>();
+					for(String x : all) {
+						if(x.startsWith(tgt + ":")) ids.add(x.substring(tgt.length() + 1));
+					}
+					assertEquals(xref + " to " + tgt, ids, map(mapper, xref, tgt));
+				}
+				Set<String> any = new HashSet<String>();
+				String[] x = xref.split(":", 2);
+				for(Xref r : mapper.mapID(new Xref(x[1], DataSource.getBySystemCode(x[0])))) {
+					any.add(r.getDataSource().getSystemCode() + ":" + r.getId());
+				}
+				assertEquals(xref + " to all", all, any);
+				assertEquals(xref + " exists", expected.containsKey(xref), mapper.xrefExists(new Xref(x[1], DataSource.getBySystemCode(x[0]))));
+			}
+		} finally {
+			mapper.close();
+		}
+	}
+
+	static final String[] CODES = { "En", "L", "S", "Mb" };
+	static final String[] IDS = {
+		"1", "10", "2", "a", "A", "a b", "ab", "abc", "\u00e9", "e\u0301", "\u4e2d\u6587",
+		"\ud83d\ude00", "z\u00ff", "miR-1", "miR-1-3p", "ENSG01", "ENSG010", "P1", "P1-1", "\u00c0"
+	};
+
+	/**
+	 * @return groups with a left xref of its own and up to four random
+	 * xrefs, so that xrefs are shared between groups
+	 */
+	static String[][] randomGroups(Random random, int n) {
+		String[][] groups = new String[n][];
+		for(int i = 0; i < n; i++) {
+			String[] group = new String[1 + random.nextInt(5)];
+			group[0] = "En:G" + i;
+			for(int j = 1; j < group.length; j++) {
+				group[j] = CODES[random.nextInt(CODES.length)] + ":" + IDS[random.nextInt(IDS.length)];
+			}
+			groups[i] = group;
+		}
+		return groups;
+	}
+
+	static List<String[]> pairs(String... pairs) {
+		List<String[]> result = new ArrayList<String[]>();
+		for(String p : pairs) result.add(p.split(":"));
+		return result;
+	}
+
+	static Set<String> ids(String... ids) {
+		return new HashSet<String>(Arrays.asList(ids));
+	}
+
+	static Set<String> map(CompiledIDMapper mapper, String xref, String tgt) throws Exception {
+		String[] x = xref.split(":", 2);
+		Set<String> result = new HashSet<String>();
+		for(Xref r : mapper.mapID(new Xref(x[1], DataSource.getBySystemCode(x[0])), DataSource.getBySystemCode(tgt))) result.add(r.getId());
+		return result;
+	}
+}
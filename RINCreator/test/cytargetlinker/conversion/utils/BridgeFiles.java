@@ -0,0 +1,117 @@
+package cytargetlinker.conversion.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes small BridgeDb files (.bridge) for the tests: a Derby database
+ * with the tables of the BridgeDb schema, zipped like the BridgeDb
+ * downloads.
+ * @author Thomas
+ */
+public class BridgeFiles {
+	/**
+	 * @param groups the groups of xrefs ("code:id") that map to each
+	 * other, the first xref of a group is its left xref
+	 */
+	public static File create(File dir, String name, String[]... groups) throws IOException, SQLException, ClassNotFoundException {
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+		File db = new File(dir, name + ".db");
+		File database = new File(db, "database");
+		String url = "jdbc:derby:" + database.getAbsolutePath();
+		Connection con = DriverManager.getConnection(url + ";create=true");
+		try {
+			Statement st = con.createStatement();
+			// the schema of BridgeDb, version 3
+			st.execute("CREATE TABLE info (schemaversion INTEGER, builddate VARCHAR(20), datasourcename VARCHAR(50), " +
+				"datasourceversion VARCHAR(20), species VARCHAR(50), datatype VARCHAR(50))");
+			st.execute("INSERT INTO info VALUES (3, '20130101', '" + name + "', '1', 'Homo sapiens', 'GeneProduct')");
+			st.execute("CREATE TABLE datanode (id VARCHAR(50), code VARCHAR(50))");
+			st.execute("CREATE TABLE link (idLeft VARCHAR(50), codeLeft VARCHAR(50), idRight VARCHAR(50), codeRight VARCHAR(50))");
+			st.execute("CREATE TABLE attribute (id VARCHAR(50), code VARCHAR(50), attrname VARCHAR(50), attrvalue VARCHAR(255))");
+			st.close();
+			PreparedStatement ps = con.prepareStatement("INSERT INTO link VALUES (?, ?, ?, ?)");
+			Set<String> xrefs = new LinkedHashSet<String>();
+			for(String[] group : groups) {
+				String[] left = group[0].split(":", 2);
+				for(String xref : group) {
+					String[] right = xref.split(":", 2);
+					ps.setString(1, left[1]);
+					ps.setString(2, left[0]);
+					ps.setString(3, right[1]);
+					ps.setString(4, right[0]);
+					ps.execute();
+					xrefs.add(xref);
+				}
+			}
+			ps.close();
+			ps = con.prepareStatement("INSERT INTO datanode VALUES (?, ?)");
+			for(String xref : xrefs) {
+				String[] x = xref.split(":", 2);
+				ps.setString(1, x[1]);
+				ps.setString(2, x[0]);
+				ps.execute();
+			}
+			ps.close();
+		} finally {
+			con.close();
+		}
+		try {
+			DriverManager.getConnection(url + ";shutdown=true");
+		} catch(SQLException e) {
+			// a shut down always throws
+		}
+
+		File bridge = new File(dir, name + ".bridge");
+		ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(bridge)));
+		try {
+			zip(out, database, "database/");
+		} finally {
+			out.close();
+		}
+		return bridge;
+	}
+
+	private static void zip(ZipOutputStream out, File dir, String path) throws IOException {
+		out.putNextEntry(new ZipEntry(path));
+		out.closeEntry();
+		byte[] buf = new byte[8192];
+		for(File f : dir.listFiles()) {
+			if(f.isDirectory()) {
+				zip(out, f, path + f.getName() + "/");
+				continue;
+			}
+			out.putNextEntry(new ZipEntry(path + f.getName()));
+			InputStream in = new FileInputStream(f);
+			try {
+				int n;
+				while((n = in.read(buf)) != -1) out.write(buf, 0, n);
+			} finally {
+				in.close();
+			}
+			out.closeEntry();
+		}
+	}
+
+	/**
+	 * @return a new empty temporary directory
+	 */
+	public static File tempDir() throws IOException {
+		File dir = File.createTempFile("rin", ".test");
+		if(!dir.delete() || !dir.mkdirs()) throw new IOException("Could not create " + dir);
+		return dir;
+	}
+}
@@ -0,0 +1,153 @@
+package cytargetlinker.conversion.utils;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Tests the keys, the LRU eviction and the counters of
+ * {@link CachingIDMapper}.
+ * @author Thomas
+ */
+public class CachingIDMapperTest {
+	private static final DataSource MB = DataSource.getBySystemCode("Mb");
+	private static final DataSource MBM = DataSource.getBySystemCode("Mbm");
+	private static final DataSource L = DataSource.getBySystemCode("L");
+
+	/**
+	 * A prefetch for some target data sources is found by lookups of the
+	 * same data sources in another order.
+	 */
+	public static void testTargetOrder() throws Exception {
+		CountingMapper backing = new CountingMapper();
+		CachingIDMapper cache = new CachingIDMapper(backing, 10);
+		Xref x = new Xref("hsa-miR-1", MB);
+		cache.mapID(Arrays.asList(x), MB, MBM);
+		assertEquals(1, backing.lookups);
+
+		assertEquals(backing.expected(x, MB, MBM), cache.mapID(x, MBM, MB));
+		assertEquals(backing.expected(x, MB, MBM), cache.mapID(x, MBM, MB, MBM));
+		assertEquals(1, backing.lookups);
+		assertEquals(2L, cache.getHits());
+
+		cache.mapID(x, MB);
+		assertEquals(2, backing.lookups);
+	}
+
+	public static void testEviction() throws Exception {
+		CountingMapper backing = new CountingMapper();
+		CachingIDMapper cache = new CachingIDMapper(backing, 2);
+		Xref a = new Xref("a", L);
+		Xref b = new Xref("b", L);
+		Xref c = new Xref("c", L);
+
+		cache.mapID(a, MB);
+		cache.mapID(b, MB);
+		cache.mapID(a, MB); // hit, b is now the eldest
+		cache.mapID(c, MB); // evicts b
+		check(cache, backing, 1, 3, 1, 3);
+
+		cache.mapID(a, MB); // hit
+		cache.mapID(c, MB); // hit, a is now the eldest
+		check(cache, backing, 3, 3, 1, 3);
+
+		cache.mapID(b, MB); // miss, evicts a
+		cache.mapID(c, MB); // hit
+		cache.mapID(a, MB); // miss, evicts b
+		check(cache, backing, 4, 5, 3, 5);
+
+		// a batch lookup counts a miss per xref
+		cache.mapID(Arrays.asList(a, b, c), MB);
+		check(cache, backing, 6, 6, 4, 6);
+	}
+
+	/**
+	 * Lookups without result are kept apart and are not evicted, a
+	 * returned set is a copy.
+	 */
+	public static void testUnmapped() throws Exception {
+		CountingMapper backing = new CountingMapper();
+		CachingIDMapper cache = new CachingIDMapper(backing, 1);
+		Xref none = new Xref("none", L);
+		assertTrue("unmapped", cache.mapID(none, MB).isEmpty());
+		for(int i = 0; i < 5; i++) cache.mapID(new Xref("x" + i, L), MB);
+		assertTrue("unmapped", cache.mapID(none, MB).isEmpty());
+		assertTrue("unmapped batch", cache.mapID(Arrays.asList(none), MB).isEmpty());
+		assertEquals(6, backing.lookups);
+		assertEquals(1, cache.getUnmappedCount());
+		assertEquals(0L, cache.getHits());
+		assertEquals(4L, cache.getEvictions());
+
+		Xref x = new Xref("x4", L);
+		cache.mapID(x, MB).clear();
+		assertEquals(backing.expected(x, MB), cache.mapID(x, MB));
+		assertTrue(cache.getStatistics(), cache.getStatistics().startsWith("mapping cache: 2 hits, 2 unmapped hits, 6 misses, 4 evictions"));
+	}
+
+	private static void check(CachingIDMapper cache, CountingMapper backing, long hits, long misses, long evictions, int lookups) {
+		assertEquals("hits", hits, cache.getHits());
+		assertEquals("misses", misses, cache.getMisses());
+		assertEquals("evictions", evictions, cache.getEvictions());
+		assertEquals("lookups", lookups, backing.lookups);
+	}
+
+	/**
+	 * Maps an xref to id-code in every target data source, ids that start
+	 * with none are not mapped. Counts the xrefs it looks up.
+	 */
+	static class CountingMapper implements IDMapper {
+		int lookups;
+
+		Set<Xref> expected(Xref ref, DataSource... tgt) {
+			Set<Xref> result = new HashSet<Xref>();
+			if(ref.getId().startsWith("none")) return result;
+			for(DataSource ds : tgt) result.add(new Xref(ref.getId() + "-" + ds.getSystemCode(), ds));
+			return result;
+		}
+
+		public Set<Xref> mapID(Xref ref, DataSource... tgt) {
+			lookups++;
+			return expected(ref, tgt);
+		}
+
+		public Map<Xref, Set<Xref>> mapID(Collection<Xref> refs, DataSource... tgt) {
+			Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+			for(Xref ref : refs) {
+				Set<Xref> set = mapID(ref, tgt);
+				if(!set.isEmpty()) result.put(ref, set);
+			}
+			return result;
+		}
+
+		public boolean xrefExists(Xref xref) {
+			return true;
+		}
+
+		public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+			throw new IDMapperException("not supported");
+		}
+
+		public IDMapperCapabilities getCapabilities() {
+			return null;
+		}
+
+		public void close() {
+		}
+
+		public boolean isConnected() {
+			return true;
+		}
+	}
+}
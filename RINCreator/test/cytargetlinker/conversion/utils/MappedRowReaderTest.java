@@ -0,0 +1,194 @@
+package cytargetlinker.conversion.utils;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import cytargetlinker.conversion.utils.MappedRowReader.LineHandler;
+import cytargetlinker.conversion.utils.RowSource.RowHandler;
+
+/**
+ * Compares the rows of {@link MappedRowReader} with the rows that
+ * {@link RowSource} reads from a BufferedReader.
+ * @author Thomas
+ */
+public class MappedRowReaderTest {
+	private static final String[] FIELDS = {
+		"", "a", "hsa-miR-21-5p", "9606", "-0.45", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00", "a b"
+	};
+	private static final int COLUMNS = 4;
+
+	/**
+	 * Line feeds and CRLF, empty lines, long lines, characters outside
+	 * ASCII, with and without a line break at the end, read with several
+	 * numbers of threads.
+	 */
+	public static void testSameRows() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			Random random = new Random(50);
+			for(int n = 0; n < 40; n++) {
+				File file = new File(dir, "rows" + n + ".txt");
+				int lines = n < 4 ? n : random.nextInt(2000);
+				write(file, random, lines, n % 2 == 0);
+				List<String[]> expected = readRowSource(file);
+				for(int threads : new int[] { 1, 2, 3, 8 }) {
+					MappedRowReader reader = new MappedRowReader(file, threads);
+					assertEquals(Arrays.asList("c0", "c1", "c2", "c3"), Arrays.asList(reader.getHeader()));
+					List<Long> offsets = new ArrayList<Long>();
+					List<String[]> rows = readMapped(reader, offsets);
+					check(file + " " + threads + " threads", expected, rows);
+
+					// every other line, read again by position
+					List<String[]> some = new ArrayList<String[]>();
+					long[] positions = new long[(offsets.size() + 1) / 2];
+					for(int i = 0; i < offsets.size(); i += 2) {
+						positions[i / 2] = offsets.get(i);
+						some.add(expected.get(i));
+					}
+					MappedRowReader.Lines again = reader.lines(positions, COLUMNS);
+					List<String[]> read = new ArrayList<String[]>();
+					try {
+						while(again.hasNext()) read.add(again.next());
+					} finally {
+						again.close();
+					}
+					check(file + " lines", some, read);
+				}
+			}
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * Rows handed to {@link RowSource#handle} come in the same chunks as
+	 * the rows read by {@link RowSource#read}.
+	 */
+	public static void testSameChunks() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			File file = new File(dir, "rows.txt");
+			write(file, new Random(51), MappingPrefetcher.CHUNK_SIZE * 3 + 17, true);
+			List<String> read = new ArrayList<String>();
+			BufferedReader in = open(file);
+			try {
+				new RowSource(in, COLUMNS).read(recorder(read, null));
+			} finally {
+				in.close();
+			}
+
+			List<String> handled = new ArrayList<String>();
+			RowSource.handle(readRowSource(file).iterator(), recorder(handled, null));
+			assertEquals(read, handled);
+			assertTrue("chunks", read.size() > 4);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	private static void check(String msg, List<String[]> expected, List<String[]> actual) {
+		assertEquals(msg + " rows", expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(msg + " row " + i, Arrays.asList(expected.get(i)), Arrays.asList(actual.get(i)));
+		}
+	}
+
+	/**
+	 * Writes a header and lines of up to six fields, the last field of a
+	 * long line holds the rest of the line.
+	 */
+	private static void write(File file, Random random, int lines, boolean lastBreak) throws Exception {
+		StringBuilder s = new StringBuilder("c0\tc1\tc2\tc3\n");
+		for(int i = 0; i < lines; i++) {
+			int fields = random.nextInt(7);
+			for(int f = 0; f < fields; f++) {
+				if(f > 0) s.append('\t');
+				s.append(FIELDS[random.nextInt(FIELDS.length)]);
+				if(random.nextInt(50) == 0) {
+					for(int k = 0; k < 3000; k++) s.append((char)('a' + k % 26));
+				}
+			}
+			boolean last = i == lines - 1;
+			if(last && !lastBreak) break;
+			s.append(random.nextBoolean() ? "\r\n" : "\n");
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(s.toString().getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static BufferedReader open(File file) throws Exception {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		in.readLine();
+		return in;
+	}
+
+	private static List<String[]> readRowSource(File file) throws Exception {
+		List<String[]> rows = new ArrayList<String[]>();
+		BufferedReader in = open(file);
+		try {
+			new RowSource(in, COLUMNS).read(recorder(new ArrayList<String>(), rows));
+		} finally {
+			in.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * @return the rows of all chunks in the order of the file, with the
+	 * position of every row
+	 */
+	private static List<String[]> readMapped(MappedRowReader reader, List<Long> offsets) throws Exception {
+		List<List<Object[]>> chunks = reader.read(COLUMNS, new LineHandler<List<Object[]>>() {
+			public List<Object[]> chunk() {
+				return new ArrayList<Object[]>();
+			}
+			public void line(List<Object[]> chunk, long offset, TsvTokenizer line) {
+				chunk.add(new Object[] { offset, line.toArray(COLUMNS) });
+			}
+		});
+		List<String[]> rows = new ArrayList<String[]>();
+		for(List<Object[]> chunk : chunks) {
+			for(Object[] r : chunk) {
+				offsets.add((Long)r[0]);
+				rows.add((String[])r[1]);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * @return a handler that accepts all rows, records the calls in events
+	 * and the rows in rows
+	 */
+	private static RowHandler recorder(final List<String> events, final List<String[]> rows) {
+		return new RowHandler() {
+			public boolean accept(TsvTokenizer line) {
+				return true;
+			}
+			public void chunk(List<String[]> chunk) {
+				events.add("chunk " + chunk.size() + " " + chunk.get(0)[0]);
+			}
+			public void row(String[] row) {
+				events.add("row " + Arrays.asList(row));
+				if(rows != null) rows.add(row);
+			}
+		};
+	}
+}
@@ -0,0 +1,174 @@
+package cytargetlinker.conversion.utils;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+
+import cytargetlinker.conversion.utils.CachingIDMapperTest.CountingMapper;
+
+/**
+ * Writes cache files with {@link PersistentIDMapper}, reopens them and
+ * merges the results of mappers that are closed one after the other or
+ * at the same time.
+ * @author Thomas
+ */
+public class PersistentIDMapperTest {
+	private static final DataSource L = DataSource.getBySystemCode("L");
+	private static final DataSource EN = DataSource.getBySystemCode("En");
+	private static final DataSource S = DataSource.getBySystemCode("S");
+
+	/**
+	 * Results read from the files are the results of the first mapper,
+	 * also for ids outside ASCII and ids without mappings.
+	 */
+	public static void testRoundTrip() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			List<File> bridge = bridge(dir, "a");
+			List<Xref> refs = xrefs("a", 200);
+			refs.add(new Xref("none", L));
+			refs.add(new Xref("\u00e9\u4e2d\ud83d\ude00", L));
+
+			CountingMapper backing = new CountingMapper();
+			PersistentIDMapper mapper = new PersistentIDMapper(backing, bridge, new File(dir, "cache"));
+			Map<Xref, Set<Xref>> first = mapAll(mapper, refs);
+			assertEquals(refs.size() * 3, backing.lookups);
+			mapper.close();
+
+			backing = new CountingMapper();
+			mapper = new PersistentIDMapper(backing, bridge, new File(dir, "cache"));
+			assertEquals(first, mapAll(mapper, refs));
+			assertEquals(0, backing.lookups);
+			assertTrue(mapper.getStatistics(), mapper.getStatistics().endsWith(refs.size() * 3 + " hits, 0 misses"));
+			mapper.close();
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * Mappers of the same files that were opened at the same time keep
+	 * the results of each other when they are closed, one after the other
+	 * and in parallel.
+	 */
+	public static void testMerge() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			List<File> bridge = bridge(dir, "a");
+			final File cache = new File(dir, "cache");
+			List<Xref> all = new ArrayList<Xref>();
+			List<PersistentIDMapper> mappers = new ArrayList<PersistentIDMapper>();
+			for(int i = 0; i < 6; i++) {
+				PersistentIDMapper mapper = new PersistentIDMapper(new CountingMapper(), bridge, cache);
+				List<Xref> refs = xrefs("m" + i + "-", 100);
+				mapAll(mapper, refs);
+				all.addAll(refs);
+				mappers.add(mapper);
+			}
+			mappers.get(0).close();
+			mappers.get(1).close();
+
+			List<Thread> threads = new ArrayList<Thread>();
+			final List<Exception> errors = new ArrayList<Exception>();
+			for(final PersistentIDMapper mapper : mappers.subList(2, mappers.size())) {
+				Thread t = new Thread() {
+					public void run() {
+						try {
+							mapper.close();
+						} catch(Exception e) {
+							synchronized(errors) {
+								errors.add(e);
+							}
+						}
+					}
+				};
+				t.start();
+				threads.add(t);
+			}
+			for(Thread t : threads) t.join();
+			assertEquals(new ArrayList<Exception>(), errors);
+
+			CountingMapper backing = new CountingMapper();
+			PersistentIDMapper mapper = new PersistentIDMapper(backing, bridge, cache);
+			mapAll(mapper, all);
+			assertEquals(0, backing.lookups);
+			mapper.close();
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * Cache files of a source data source are deleted when its BridgeDb
+	 * files changed, the files of other source data sources are kept.
+	 */
+	public static void testStaleFiles() throws Exception {
+		File dir = BridgeFiles.tempDir();
+		try {
+			List<File> bridge = bridge(dir, "a");
+			File cache = new File(dir, "cache");
+			PersistentIDMapper mapper = new PersistentIDMapper(new CountingMapper(), bridge, cache);
+			mapper.mapID(new Xref("1", L), EN);
+			mapper.mapID(new Xref("1", L), EN, S);
+			mapper.mapID(new Xref("1", EN), L);
+			mapper.close();
+			assertEquals(6, cache.list().length);
+
+			FileUtils.writeStringToFile(bridge.get(0), "changed", "UTF-8");
+			CountingMapper backing = new CountingMapper();
+			mapper = new PersistentIDMapper(backing, bridge, cache);
+			mapper.mapID(new Xref("1", L), EN);
+			assertEquals(1, backing.lookups);
+			List<String> names = Arrays.asList(cache.list());
+			assertEquals(names.toString(), 2, names.size());
+			for(String name : names) assertTrue(name, name.contains("-En-L.map"));
+			mapper.close();
+			assertEquals(4, cache.list().length);
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * @return a mapping file for the checksum, its content is not read
+	 */
+	private static List<File> bridge(File dir, String name) throws Exception {
+		File f = new File(dir, name + ".bridge");
+		FileUtils.writeStringToFile(f, name, "UTF-8");
+		return Arrays.asList(f);
+	}
+
+	private static List<Xref> xrefs(String prefix, int n) {
+		List<Xref> refs = new ArrayList<Xref>();
+		for(int i = 0; i < n; i++) refs.add(new Xref(prefix + i, i % 2 == 0 ? L : EN));
+		return refs;
+	}
+
+	/**
+	 * Maps every xref alone, every xref in a batch and every xref alone to
+	 * two data sources.
+	 */
+	private static Map<Xref, Set<Xref>> mapAll(PersistentIDMapper mapper, List<Xref> refs) throws Exception {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for(Xref ref : refs) result.put(ref, mapper.mapID(ref, S));
+		Map<Xref, Set<Xref>> batch = mapper.mapID(refs, EN);
+		for(Xref ref : refs) {
+			Set<Xref> set = mapper.mapID(ref, S, L);
+			assertEquals(ref.toString(), ref.getId().startsWith("none"), set.isEmpty());
+			result.put(new Xref(ref.getId() + " batch", ref.getDataSource()), batch.get(ref));
+			result.put(new Xref(ref.getId() + " two", ref.getDataSource()), set);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,72 @@
+package cytargetlinker.conversion.utils;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+
+/**
+ * Compares the tables of {@link PreloadedIDMapper} with the lookups of
+ * the {@link BatchIDMapper} of the same file.
+ * @author Thomas
+ */
+public class PreloadedIDMapperTest {
+	public static void testSameMappings() throws Exception {
+		Class.forName("org.bridgedb.rdb.IDMapperRdb");
+		File dir = BridgeFiles.tempDir();
+		try {
+			String[][] groups = BridgeDbCompilerTest.randomGroups(new Random(37), 200);
+			File bridge = BridgeFiles.create(dir, "a", groups);
+
+			Set<DataSource> loaded = new HashSet<DataSource>();
+			for(String code : new String[] { "En", "L", "S" }) loaded.add(DataSource.getBySystemCode(code));
+			BatchIDMapper batch = new BatchIDMapper(bridge);
+			PreloadedIDMapper preloaded = new PreloadedIDMapper(new BatchIDMapper(bridge), loaded);
+			try {
+				List<Xref> xrefs = new ArrayList<Xref>();
+				for(String code : BridgeDbCompilerTest.CODES) {
+					for(String id : BridgeDbCompilerTest.IDS) xrefs.add(new Xref(id, DataSource.getBySystemCode(code)));
+				}
+				for(int i = 0; i < groups.length; i += 7) xrefs.add(new Xref("G" + i, DataSource.getBySystemCode("En")));
+
+				// loaded, partly loaded (Mb is passed on) and all targets
+				List<DataSource[]> targets = new ArrayList<DataSource[]>();
+				for(String code : BridgeDbCompilerTest.CODES) targets.add(new DataSource[] { DataSource.getBySystemCode(code) });
+				targets.add(loaded.toArray(new DataSource[loaded.size()]));
+				targets.add(new DataSource[] { DataSource.getBySystemCode("L"), DataSource.getBySystemCode("Mb") });
+				targets.add(new DataSource[0]);
+
+				int mapped = 0;
+				for(DataSource[] tgt : targets) {
+					for(Xref x : xrefs) {
+						Set<Xref> expected = batch.mapID(x, tgt);
+						assertEquals(x + " " + codes(tgt), expected, preloaded.mapID(x, tgt));
+						if(!expected.isEmpty()) mapped++;
+					}
+					assertEquals(codes(tgt), batch.mapID(xrefs, tgt), preloaded.mapID(xrefs, tgt));
+				}
+				assertTrue("mapped " + mapped, mapped > 100);
+			} finally {
+				batch.close();
+				preloaded.close();
+			}
+		} finally {
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	private static String codes(DataSource[] tgt) {
+		StringBuilder s = new StringBuilder();
+		for(DataSource ds : tgt) s.append(ds.getSystemCode()).append(' ');
+		return s.toString();
+	}
+}
@@ -0,0 +1,148 @@
+package cytargetlinker.conversion.utils;
+
+import static cytargetlinker.conversion.TestRunner.assertEquals;
+import static cytargetlinker.conversion.TestRunner.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares {@link TsvTokenizer} with String.split and Double.parseDouble,
+ * for lines given as strings and as UTF-8 bytes.
+ * @author Thomas
+ */
+public class TsvTokenizerTest {
+	private static final String[] FIELDS = {
+		"", "a", "hsa-miR-1", "ENSG00000139618", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00", " ", "\r",
+		"0", "-0", "+0", "1", "-1", "+1", "007", "1.5", "-1.5", ".5", "5.", ".", "-", "+", "-.", "1.2.3",
+		"0.1", "0.3", "-0.45", "123456789012345", "1234567890123456", "0.000000000000000000000001",
+		"3.141592653589793", "2147483647", "2147483648", "-2147483648", "-2147483649", "99999999999",
+		"1e5", "1E-5", "-1.5e+3", "1d", "1f", "0x1p3", "Infinity", "-Infinity", "NaN", " 1", "1 ", "1-",
+		"\u0661", "1\u0662", "\uff11"
+	};
+
+	/**
+	 * Random lines split with random limits, like String.split("\t", limit).
+	 */
+	public static void testSplit() throws Exception {
+		Random random = new Random(49);
+		TsvTokenizer t = new TsvTokenizer();
+		for(int n = 0; n < 20000; n++) {
+			String line = randomLine(random);
+			int limit = 1 + random.nextInt(8);
+			String[] expected = line.split("\t", limit);
+
+			t.reset(line, limit);
+			check(t, expected);
+
+			resetBytes(t, random, line, limit);
+			check(t, expected);
+		}
+	}
+
+	/**
+	 * isNumber is true for the fields Double.parseDouble parses.
+	 */
+	public static void testNumbers() throws Exception {
+		Random random = new Random(50);
+		TsvTokenizer t = new TsvTokenizer();
+		String[] fields = new String[FIELDS.length + 2000];
+		System.arraycopy(FIELDS, 0, fields, 0, FIELDS.length);
+		for(int i = FIELDS.length; i < fields.length; i++) fields[i] = randomNumber(random);
+
+		for(String f : fields) {
+			String line = "x\t" + f + "\ty";
+			t.reset(line, 3);
+			checkNumber(t, f);
+			resetBytes(t, random, line, 3);
+			checkNumber(t, f);
+		}
+	}
+
+	private static void check(TsvTokenizer t, String[] expected) {
+		String msg = Arrays.toString(expected);
+		assertEquals(msg, expected.length, t.getFieldCount());
+		assertEquals(msg, Arrays.asList(expected), Arrays.asList(t.toArray(expected.length)));
+		assertEquals(msg, Arrays.asList(expected).subList(0, Math.min(2, expected.length)), Arrays.asList(t.toArray(2)));
+		String[] some = t.toArray(expected.length, new int[] { 0, 2, 9 });
+		assertEquals(msg, expected.length, some.length);
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(msg + " field " + i, i == 0 || i == 2 ? expected[i] : null, some[i]);
+		}
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(msg, expected[i], t.getString(i));
+			assertTrue(msg + " equals " + i, t.equals(i, expected[i]));
+			assertEquals(msg + " equals x " + i, expected[i].equals(expected[i] + "x"), t.equals(i, expected[i] + "x"));
+			for(String s : FIELDS) {
+				assertEquals(msg + " equals " + s, expected[i].equals(s), t.equals(i, s));
+				assertEquals(msg + " startsWith " + s, expected[i].startsWith(s), t.startsWith(i, s));
+			}
+			for(int k = 0; k <= expected[i].length(); k++) {
+				String prefix = expected[i].substring(0, k);
+				assertTrue(msg + " startsWith " + prefix, t.startsWith(i, prefix));
+			}
+		}
+		try {
+			t.getString(expected.length);
+			throw new AssertionError(msg + " field " + expected.length + " exists");
+		} catch(ArrayIndexOutOfBoundsException e) {
+			// like the array of String.split
+		}
+	}
+
+	private static void checkNumber(TsvTokenizer t, String f) {
+		boolean expected;
+		try {
+			Double.parseDouble(f);
+			expected = true;
+		} catch(NumberFormatException e) {
+			expected = false;
+		}
+		assertEquals("\"" + f + "\"", expected, t.isNumber(1));
+	}
+
+	/**
+	 * Encodes the line as UTF-8 into a heap or direct buffer with other
+	 * bytes before and after it.
+	 */
+	private static void resetBytes(TsvTokenizer t, Random random, String line, int limit) throws Exception {
+		byte[] b = line.getBytes("UTF-8");
+		int before = random.nextInt(4);
+		ByteBuffer buf = random.nextBoolean() ? ByteBuffer.allocate(b.length + 8) : ByteBuffer.allocateDirect(b.length + 8);
+		for(int i = 0; i < buf.capacity(); i++) buf.put(i, (byte)'\t');
+		for(int i = 0; i < b.length; i++) buf.put(before + i, b[i]);
+		t.reset(buf, before, before + b.length, limit);
+	}
+
+	private static String randomLine(Random random) {
+		StringBuilder line = new StringBuilder();
+		int fields = random.nextInt(8);
+		for(int i = 0; i < fields; i++) {
+			if(i > 0) line.append('\t');
+			line.append(FIELDS[random.nextInt(FIELDS.length)]);
+		}
+		// tabs at the end
+		int tabs = random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0;
+		for(int i = 0; i < tabs; i++) line.append('\t');
+		return line.toString();
+	}
+
+	/**
+	 * @return decimals with up to 20 digits, signs and exponents
+	 */
+	private static String randomNumber(Random random) {
+		StringBuilder s = new StringBuilder();
+		int r = random.nextInt(4);
+		if(r == 0) s.append('-');
+		else if(r == 1) s.append('+');
+		int digits = random.nextInt(20);
+		int point = random.nextInt(digits + 2);
+		for(int i = 0; i < digits; i++) {
+			if(i == point) s.append('.');
+			s.append((char)('0' + random.nextInt(10)));
+		}
+		if(random.nextInt(10) == 0) s.append('e').append(random.nextInt(40) - 20);
+		return s.toString();
+	}
+}